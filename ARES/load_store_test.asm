@@ -0,0 +1,25 @@
+# Test of loads and stores given a label in place of offset($base).
+# Each expands to lui $at, label[HA] followed by the instruction with label[LO]($at).
+# x lies 40000 (0x9C40) bytes into the data segment, so its lower half is negative
+# once sign-extended, and [HA] must carry into the upper half.
+# Expected results: $t0 = 1234, $t2 = 200, $t3 = 200, $t4 = 30000, $t5 = 30000, $t6 = 1234
+.data
+pad: .space 40000
+x: .space 4
+h: .space 2
+b: .space 2
+.text
+
+addi $t1, $zero, 1234
+sw $t1, x
+lw $t0, x
+addi $t1, $zero, 200
+sb $t1, b
+lb $t2, b
+lbu $t3, b
+addi $t1, $zero, 30000
+sh $t1, h
+lh $t4, h
+lhu $t5, h
+la $t7, x
+lw $t6, 0($t7) #x itself, not 64 KiB below it
@@ -3,12 +3,14 @@ package ares.adapter;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FileDialog;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Scanner;
 
@@ -17,6 +19,7 @@ import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -25,13 +28,22 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JSpinner;
+import javax.swing.JTextArea;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.Timer;
 
+import ares.core.CompiledProgram;
+import ares.core.HazardAnalysis;
+import ares.core.HazardModel;
 import ares.core.Memory;
 import ares.core.Simulator;
+import ares.core.assembler.AssemblerError;
+import ares.core.assembler.AssemblyCache;
+import ares.core.assembler.Optimizer;
+import ares.core.assembler.ParallelAssembler;
 import ares.ui.AnimatedPipelineDisplay;
 import ares.ui.CacheSimulator;
 
@@ -42,6 +54,7 @@ public class GUIAdapter extends JFrame
 	public static final double SIMULATION_MIN_SPEED_HZ = 0.1;
 	public static final double SIMULATION_MAX_SPEED_HZ = 10.0;
 	public static final double SIMULATION_SPEED_STEP_SIZE = 0.1;
+	public static final long ASSEMBLY_CACHE_MAX_BYTES = 64L << 20;
 
 	private Timer runSpeedTimer;
 	private AnimatedPipelineDisplay pipelineDisplay;
@@ -54,6 +67,9 @@ public class GUIAdapter extends JFrame
 	JSpinner runSpeed;
 	FileDialog openDlg;
 	JCheckBoxMenuItem forwardingEnabled;
+	JCheckBoxMenuItem peepholeEnabled;
+	JCheckBoxMenuItem schedulingEnabled;
+	JCheckBoxMenuItem delaySlotFillingEnabled;
 	
 	JMenuItem openBinFile = new JMenuItem("Load Text Segment...");
 	JMenuItem openDataSeg = new JMenuItem("Load Data Segment...");
@@ -61,8 +77,15 @@ public class GUIAdapter extends JFrame
 	JMenuItem reset = new JMenuItem("Reset");
 	
 	JMenuItem openCacheSim = new JMenuItem("Cache Simulator...");
+	JMenuItem openHazardAnalysis = new JMenuItem("Hazard Analysis...");
+	JMenuItem openPipelineStatistics = new JMenuItem("Pipeline Statistics...");
 	
 	String[] currentProgramFilename = new String[2];
+	/** The program assembled from the last .asm file loaded, or null if a hexadecimal text file was loaded. */
+	CompiledProgram currentProgram;
+	/** Object modules assembled previously, kept in the user's home directory. */
+	AssemblyCache assemblyCache = new AssemblyCache(
+			new File(System.getProperty("user.home"), ".ares" + File.separator + "cache"), ASSEMBLY_CACHE_MAX_BYTES);
 	
 	CacheSimulator cacheSim;
 	
@@ -135,7 +158,18 @@ public class GUIAdapter extends JFrame
 				openDataSeg.setEnabled(false);
 				file.add(openDataSeg);
 				JMenuItem openAsmFile = new JMenuItem("Assemble...");
-				openAsmFile.setEnabled(false);
+				openAsmFile.addActionListener(new ActionListener(){
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						openDlg.setMultipleMode(true);
+						openDlg.setVisible(true);
+						openDlg.setMultipleMode(false);
+						if (openDlg.getFiles().length > 0)
+						{
+							assembleFromFiles(openDlg.getFiles());
+						}
+					}
+				});
 				file.add(openAsmFile);
 				file.add(new JSeparator());
 				reset.addActionListener(new ActionListener(){
@@ -164,6 +198,16 @@ public class GUIAdapter extends JFrame
 					}
 				});
 				options.add(forwardingEnabled);
+				options.addSeparator();
+				peepholeEnabled = new JCheckBoxMenuItem("Simplify instructions");
+				peepholeEnabled.setToolTipText("Fold constants and remove redundant instructions when assembling");
+				options.add(peepholeEnabled);
+				schedulingEnabled = new JCheckBoxMenuItem("Schedule instructions");
+				schedulingEnabled.setToolTipText("Reorder instructions when assembling to avoid pipeline stalls");
+				options.add(schedulingEnabled);
+				delaySlotFillingEnabled = new JCheckBoxMenuItem("Fill branch delay slots");
+				delaySlotFillingEnabled.setToolTipText("Move useful instructions into the delay slots of branches and jumps when assembling");
+				options.add(delaySlotFillingEnabled);
 			menuBar.add(options);
 			JMenu window = new JMenu("Window");
 				openCacheSim.addActionListener(new ActionListener(){
@@ -174,6 +218,22 @@ public class GUIAdapter extends JFrame
 					}
 				});
 				window.add(openCacheSim);
+				openHazardAnalysis.addActionListener(new ActionListener(){
+					@Override
+					public void actionPerformed(ActionEvent e)
+					{
+						showHazardAnalysis();
+					}
+				});
+				window.add(openHazardAnalysis);
+				openPipelineStatistics.addActionListener(new ActionListener(){
+					@Override
+					public void actionPerformed(ActionEvent e)
+					{
+						showPipelineStatistics();
+					}
+				});
+				window.add(openPipelineStatistics);
 			menuBar.add(window);
 		setJMenuBar(menuBar);
 		
@@ -241,6 +301,12 @@ public class GUIAdapter extends JFrame
 		pipelineDisplay.reset();
 		pipelineDisplay.repaint();
 		
+		if (currentProgram != null)
+		{
+			loadProgram(currentProgram, currentProgramFilename[0]);
+			return;
+		}
+		
 		loadTextSegFromFile(currentProgramFilename[0]);
 		if (currentProgramFilename[1] != null)
 			loadDataSegFromFile(currentProgramFilename[1]);
@@ -250,6 +316,7 @@ public class GUIAdapter extends JFrame
 	{
 			currentProgramFilename[0] = filename;
 			currentProgramFilename[1] = null;
+			currentProgram = null;
 			
 			memory = new Memory();
 			loadHexadecimalTextFile(new File(filename), Memory.TEXT_SEGMENT_START_ADDRESS);			
@@ -265,6 +332,110 @@ public class GUIAdapter extends JFrame
 			
 	}
 	
+	/**
+	 * Assembles and links one or more MIPS source files, and loads the result into a fresh Memory.
+	 * Assembler errors are reported in a dialog, and leave the current program loaded.
+	 * @param files the .asm files; the first is placed at the start of the text segment
+	 */
+	public void assembleFromFiles(File[] files)
+	{
+		CompiledProgram program;
+		Optimizer optimizer = new Optimizer();
+		optimizer.setPeepholeEnabled(peepholeEnabled.isSelected());
+		optimizer.setSchedulingEnabled(schedulingEnabled.isSelected());
+		optimizer.setDelaySlotFillingEnabled(delaySlotFillingEnabled.isSelected());
+		optimizer.setForwardingEnabled(forwardingEnabled.isSelected());
+		try
+		{
+			program = ParallelAssembler.assemble(Arrays.asList(files), assemblyCache, optimizer);
+		}
+		catch (AssemblerError e)
+		{
+			JOptionPane.showMessageDialog(this, e.toString(), "Assembler Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		catch (IOException e)
+		{
+			JOptionPane.showMessageDialog(this, "An error occurred while reading the specified\nfile. Please ensure the file is not being used by other "
+					+ "programs and try again.",
+					"Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		
+		currentProgram = program;
+		currentProgramFilename[0] = files[0].getPath();
+		currentProgramFilename[1] = null;
+		loadProgram(program, currentProgramFilename[0]);
+		if (optimizer.isPeepholeEnabled())
+			fileLabel.setText(fileLabel.getText() + " (" + optimizer.getCyclesSaved() + " cycles saved)");
+		if (optimizer.isSchedulingEnabled())
+			fileLabel.setText(fileLabel.getText() + " (" + optimizer.getStallsRemoved() + " stall cycles removed)");
+		if (optimizer.isDelaySlotFillingEnabled())
+			fileLabel.setText(fileLabel.getText() + " (" + optimizer.getDelaySlotsFilled() + " delay slots filled)");
+	}
+	
+	private void loadProgram(CompiledProgram program, String filename)
+	{
+			memory = new Memory();
+			program.loadInto(memory);
+			simulator = new Simulator(memory);
+			
+			simulator.setForwardingEnabled(forwardingEnabled.isSelected());
+			fileLabel.setText("File loaded: " + new File(filename).getName() + " (asm)");
+			
+			stepButton.setEnabled(true);
+			runButton.setEnabled(true);
+			openDataSeg.setEnabled(false);
+			reset.setEnabled(true);
+	}
+	
+	/**
+	 * Shows the stalls predicted for the loaded text segment, with forwarding as currently set.
+	 */
+	public void showHazardAnalysis()
+	{
+		if (memory == null)
+		{
+			JOptionPane.showMessageDialog(this, "No program is loaded.", "Hazard Analysis", JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		int[] text = new int[(memory.getMaxInstAddr() - Memory.TEXT_SEGMENT_START_ADDRESS) >> 2];
+		for(int i = 0; i < text.length; i++)
+			text[i] = memory.loadWord(Memory.TEXT_SEGMENT_START_ADDRESS + (i << 2));
+		HazardAnalysis analysis = new HazardAnalysis(text, Memory.TEXT_SEGMENT_START_ADDRESS, forwardingEnabled.isSelected());
+
+		JTextArea report = new JTextArea(analysis.getReport(), 30, 70);
+		report.setEditable(false);
+		report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		report.setCaretPosition(0);
+		JDialog dialog = new JDialog(this, "Hazard Analysis", false);
+		dialog.add(new JScrollPane(report));
+		dialog.pack();
+		dialog.setLocationRelativeTo(this);
+		dialog.setVisible(true);
+	}
+	
+	/**
+	 * Shows the number of cycles simulated so far, and how many of them were stalls of each kind.
+	 */
+	public void showPipelineStatistics()
+	{
+		if (simulator == null)
+		{
+			JOptionPane.showMessageDialog(this, "No program is loaded.", "Pipeline Statistics", JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		StringBuilder message = new StringBuilder("Clock cycles: " + simulator.getCycleCount() + "\nStall cycles:");
+		long total = 0;
+		for(int cause = 0; cause < HazardModel.STALL_CAUSE_NAMES.length; cause++)
+		{
+			message.append("\n    " + HazardModel.STALL_CAUSE_NAMES[cause] + ": " + simulator.getStallCycles(cause));
+			total += simulator.getStallCycles(cause);
+		}
+		message.append("\n    total: " + total);
+		JOptionPane.showMessageDialog(this, message.toString(), "Pipeline Statistics", JOptionPane.INFORMATION_MESSAGE);
+	}
+	
 	public void loadDataSegFromFile(String filename)
 	{
 			currentProgramFilename[1] = filename;
@@ -314,8 +485,23 @@ public class GUIAdapter extends JFrame
 		
 		if (simulator.hasNextInstruction())
 		{
+			simulator.setInstructionCache(cacheSim.isConnected() ? cacheSim.getInstructionCache() : null);
+			simulator.setDataCache(cacheSim.isConnected() ? cacheSim.getDataCache() : null,
+					cacheSim.isConnected() ? cacheSim.getMissPenalty() : 0);
+			simulator.setPrefetcher(cacheSim.isConnected() ? cacheSim.getPrefetcher() : null);
+			simulator.setMissProfile(cacheSim.isConnected() ? cacheSim.getMissProfile() : null);
+			simulator.setLocalityAnalysis(cacheSim.isConnected() ? cacheSim.getLocalityAnalysis() : null);
 			simulator.step();
 			
+			/*
+			 * While the pipeline waits for memory, nothing moves, so there is nothing to animate.
+			 */
+			if (simulator.memoryStallOccurred())
+			{
+				cacheSim.refreshDisplay();
+				return;
+			}
+			
 			pipelineDisplay.getNextElement().setForwardingOccurred(simulator.getForwardingOccurred());
 			
 			if (simulator.getStagesOccurred().get(0))
@@ -358,6 +544,10 @@ public class GUIAdapter extends JFrame
 			{
 					cacheSim.processMIPSUpdate(Integer.parseInt(simulator.getMEMAddress().substring(2), 16));
 			}
+			if (cacheSim.isConnected())
+			{
+				cacheSim.refreshDisplay();
+			}
 			
 			if ( simulator.branchOccurred() )
 			{
@@ -1,5 +1,87 @@
 package ares.core;
 
-public class CompiledProgram {
+/**
+ * The output of the assembler: a program image consisting of the four segments
+ * (text, data, ktext and kdata), ready to be copied into a Memory.
+ * <p>
+ * Segments are identified throughout by the same IDs the assembler uses for its
+ * location counters: 0 = text, 1 = data, 2 = ktext, 3 = kdata. The text segments
+ * are stored as words (one per instruction), the data segments as bytes.
+ * @author James Hester
+ *
+ */
+public class CompiledProgram
+{
+	public static final int TEXT = 0, DATA = 1, KTEXT = 2, KDATA = 3;
 
+	private static final int[] SEGMENT_START_ADDRESSES = {
+		Memory.TEXT_SEGMENT_START_ADDRESS,
+		Memory.DATA_SEGMENT_START_ADDRESS,
+		Memory.KTEXT_SEGMENT_START_ADDRESS,
+		Memory.KDATA_SEGMENT_START_ADDRESS
+	};
+
+	/**
+	 * textSegs[0] = the text segment, textSegs[1] = the ktext segment.
+	 */
+	private int[][] textSegs = new int[2][];
+	/**
+	 * dataSegs[0] = the data segment, dataSegs[1] = the kdata segment.
+	 */
+	private byte[][] dataSegs = new byte[2][];
+
+	public CompiledProgram(int[] text, byte[] data, int[] ktext, byte[] kdata)
+	{
+		textSegs[0] = text;
+		textSegs[1] = ktext;
+		dataSegs[0] = data;
+		dataSegs[1] = kdata;
+	}
+
+	/**
+	 * Gets the instructions in a text segment.
+	 * @param segment TEXT or KTEXT
+	 * @return the encoded instructions, in order of address. The array is not copied.
+	 */
+	public int[] getTextSegment(int segment)
+	{
+		return textSegs[segment / 2];
+	}
+
+	/**
+	 * Gets the contents of a data segment.
+	 * @param segment DATA or KDATA
+	 * @return the bytes of the segment, in order of address. The array is not copied.
+	 */
+	public byte[] getDataSegment(int segment)
+	{
+		return dataSegs[segment / 2];
+	}
+
+	public static int getSegmentStartAddress(int segment)
+	{
+		return SEGMENT_START_ADDRESSES[segment];
+	}
+
+	/**
+	 * Copies every segment into memory at its start address, and sets the
+	 * maximum instruction address to the end of the text segment.
+	 * @param m the Memory to load the program into
+	 */
+	public void loadInto(Memory m)
+	{
+		for(int seg = TEXT; seg <= KTEXT; seg += 2)
+		{
+			int[] words = getTextSegment(seg);
+			for(int i = 0; i < words.length; i++)
+				m.storeWord(SEGMENT_START_ADDRESSES[seg] + (i << 2), words[i]);
+		}
+		for(int seg = DATA; seg <= KDATA; seg += 2)
+		{
+			byte[] bytes = getDataSegment(seg);
+			for(int i = 0; i < bytes.length; i++)
+				m.storeByte(SEGMENT_START_ADDRESSES[seg] + i, bytes[i]);
+		}
+		m.setMaxInstAddr(Memory.TEXT_SEGMENT_START_ADDRESS + (textSegs[0].length << 2));
+	}
 }
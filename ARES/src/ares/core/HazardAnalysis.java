@@ -0,0 +1,166 @@
+package ares.core;
+import java.util.ArrayList;
+
+/**
+ * Predicts, without simulating, the pipeline stalls of each instruction in a text segment
+ * and the total for each basic block, using HazardModel.
+ * <p>
+ * The instructions are assumed to be executed in the order they are laid out, so each block is
+ * entered from the one before it (as when a branch is not taken). The prediction for an instruction
+ * is the number of cycles it stalls each time it is executed that way, so the analysis takes time
+ * proportional to the size of the program, however long the program runs.
+ * <p>
+ * Since a linked program has no labels, the basic blocks are found from the branches and jumps: a block
+ * begins at the start of the segment, at the target of a branch or jump (other than jr or jalr), and
+ * after the delay slot of a branch or jump.
+ * @author James Hester
+ *
+ */
+public class HazardAnalysis
+{
+	private int[] instructions;
+	private int startAddress;
+	/** stalls[i][cause] is the number of stall cycles predicted for instruction i with that cause. */
+	private int[][] stalls;
+	/** The index of the first instruction of each block, followed by the number of instructions. */
+	private int[] blockStarts;
+	private long totalStalls;
+
+	/**
+	 * Analyzes a text segment.
+	 * @param instructions the machine code
+	 * @param startAddress the address of the first instruction
+	 * @param forwarding whether forwarding is enabled, as set by Simulator.setForwardingEnabled()
+	 */
+	public HazardAnalysis(int[] instructions, int startAddress, boolean forwarding)
+	{
+		this.instructions = instructions.clone();
+		this.startAddress = startAddress;
+		stalls = new int[instructions.length][HazardModel.STALL_CAUSE_NAMES.length];
+
+		HazardModel.Timeline timeline = new HazardModel.Timeline(forwarding);
+		for(int i = 0; i < instructions.length; i++)
+		{
+			timeline.issue(instructions[i]);
+			for(int cause = 0; cause < stalls[i].length; cause++)
+				stalls[i][cause] = timeline.getLastStalls(cause);
+		}
+		totalStalls = timeline.getStalls();
+
+		boolean[] leaders = new boolean[instructions.length + 1];
+		leaders[0] = leaders[instructions.length] = true;
+		for(int i = 0; i < instructions.length; i++)
+		{
+			int word = instructions[i];
+			if ( ! HazardModel.isControlTransfer(word))
+				continue;
+			if (i + 2 <= instructions.length)
+				leaders[i + 2] = true;
+			int target = -1;
+			if (HazardModel.isBranch(word))
+				target = i + 1 + (short) word;
+			else if ((word >>> 26) != 0) //j and jal, decoded as the Simulator does
+				target = ((((startAddress + (i << 2) + 4) & 0xF0000000) + ((word & 0x07FFFFFF) << 2)) - startAddress) >> 2;
+			if (target >= 0 && target < instructions.length)
+				leaders[target] = true;
+		}
+		ArrayList<Integer> starts = new ArrayList<>();
+		for(int i = 0; i <= instructions.length; i++)
+		{
+			if (leaders[i])
+				starts.add(i);
+		}
+		blockStarts = new int[starts.size()];
+		for(int i = 0; i < blockStarts.length; i++)
+			blockStarts[i] = starts.get(i);
+	}
+
+	public int getInstructionCount()
+	{
+		return instructions.length;
+	}
+
+	/**
+	 * @return the predicted number of stall cycles of an instruction
+	 */
+	public int getStalls(int index)
+	{
+		int result = 0;
+		for(int count : stalls[index])
+			result += count;
+		return result;
+	}
+
+	/**
+	 * @param index the instruction
+	 * @param cause one of the HazardModel.STALL_ constants
+	 * @return the predicted number of stall cycles of an instruction with that cause
+	 */
+	public int getStalls(int index, int cause)
+	{
+		return stalls[index][cause];
+	}
+
+	public long getTotalStalls()
+	{
+		return totalStalls;
+	}
+
+	public int getBlockCount()
+	{
+		return blockStarts.length - 1;
+	}
+
+	/**
+	 * @return the index of the first instruction of a block
+	 */
+	public int getBlockStart(int block)
+	{
+		return blockStarts[block];
+	}
+
+	/**
+	 * @return the index after the last instruction of a block
+	 */
+	public int getBlockEnd(int block)
+	{
+		return blockStarts[block + 1];
+	}
+
+	/**
+	 * @return the predicted number of stall cycles of a block
+	 */
+	public int getBlockStalls(int block)
+	{
+		int result = 0;
+		for(int i = getBlockStart(block); i < getBlockEnd(block); i++)
+			result += getStalls(i);
+		return result;
+	}
+
+	/**
+	 * @return a listing of the instructions, with the stalls predicted for each, grouped into basic blocks
+	 */
+	public String getReport()
+	{
+		StringBuilder result = new StringBuilder();
+		result.append(String.format("%d instructions, %d basic blocks, %d stall cycles predicted%n",
+				instructions.length, getBlockCount(), totalStalls));
+		for(int block = 0; block < getBlockCount(); block++)
+		{
+			result.append(String.format("%nBlock %d (0x%08x): %d stall cycles%n", block,
+					startAddress + (getBlockStart(block) << 2), getBlockStalls(block)));
+			for(int i = getBlockStart(block); i < getBlockEnd(block); i++)
+			{
+				result.append(String.format("  0x%08x  %-28s", startAddress + (i << 2), InstructionSet.getInstruction(instructions[i])));
+				for(int cause = 0; cause < stalls[i].length; cause++)
+				{
+					if (stalls[i][cause] != 0)
+						result.append(String.format(" %d %s", stalls[i][cause], HazardModel.STALL_CAUSE_NAMES[cause]));
+				}
+				result.append(String.format("%n"));
+			}
+		}
+		return result.toString();
+	}
+}
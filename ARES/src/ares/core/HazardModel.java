@@ -0,0 +1,325 @@
+package ares.core;
+import java.util.Arrays;
+
+/**
+ * A model of the timing of the Simulator's pipeline, for predicting stalls without simulating.
+ * <p>
+ * The rules are those of Simulator.step(), applied to the same instruction fields:
+ * <li>	With forwarding disabled, an instruction in ID stalls while its Rs or Rt field (if not $zero)
+ * 		names the register written by the instruction in EX or MEM.											</li>
+ * <li>	An instruction in ID stalls while a load in EX writes the register named by its Rs or Rt field.	</li>
+ * <li>	A branch in ID stalls while an instruction in EX, or a load in MEM, writes one of its operands,
+ * 		since the branch comparator is in ID.																</li>
+ * <li>	mfhi or mflo stalls in EX until a multiplication (14 cycles) or division (35 cycles) completes.	</li>
+ * <p>
+ * Note that, like the Simulator, the first three rules look at the Rs and Rt fields whether or not the
+ * instruction reads them (an I-format instruction's Rt is its destination).
+ * @author James Hester
+ *
+ */
+public final class HazardModel
+{
+	public static final int MULTIPLY_LATENCY = 14, DIVIDE_LATENCY = 35;
+
+	/*
+	 * The causes of stalls, in the order of the rules above. Stalls for memory (cache misses, when the
+	 * Simulator is given a data cache) depend on addresses, so are counted by the Simulator but never predicted.
+	 */
+	public static final int STALL_DATA = 0, STALL_LOAD_USE = 1, STALL_BRANCH = 2, STALL_MULTIPLY = 3, STALL_MEMORY = 4;
+	public static final String[] STALL_CAUSE_NAMES = {"data", "load-use", "branch", "multiply", "memory"};
+
+	private HazardModel()
+	{
+	}
+
+	/**
+	 * @return the Rs field of an instruction
+	 */
+	public static int rs(int instruction)
+	{
+		return (instruction >> 21) & 0b11111;
+	}
+
+	/**
+	 * @return the Rt field of an instruction
+	 */
+	public static int rt(int instruction)
+	{
+		return (instruction >> 16) & 0b11111;
+	}
+
+	/**
+	 * @return the Rd field of an instruction
+	 */
+	public static int rd(int instruction)
+	{
+		return (instruction >> 11) & 0b11111;
+	}
+
+	/**
+	 * Corresponds to RegWriteE in the Simulator.
+	 * @return whether the instruction writes a general-purpose register
+	 */
+	public static boolean writesRegister(int instruction)
+	{
+		if (instruction == 0)
+			return false;
+		int opcode = instruction >>> 26;
+		switch(opcode)
+		{
+		case 0x00:
+			switch(instruction & 0b111111)
+			{
+			case 0x08: //jr
+			case 0x18: case 0x19: case 0x1a: case 0x1b: //mult, multu, div, divu
+				return false;
+			default:
+				return true;
+			}
+		case 0x03: //jal
+		case 0x08: case 0x09: case 0x0a: case 0x0b: case 0x0c: case 0x0d: case 0x0f:
+		case 0x20: case 0x21: case 0x23: case 0x24: case 0x25: //loads
+			return true;
+		case 0x10:
+			return rs(instruction) == 0; //mfc0
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Corresponds to WriteRegE in the Simulator.
+	 * @return the register the instruction writes, if writesRegister() is true
+	 */
+	public static int writtenRegister(int instruction)
+	{
+		int opcode = instruction >>> 26;
+		if (opcode == 0)
+			return rd(instruction);
+		if (opcode == 0x03)
+			return 31;
+		if (opcode == 0x10)
+			return 0;
+		return rt(instruction);
+	}
+
+	/**
+	 * Corresponds to MemToRegE in the Simulator.
+	 * @return whether the instruction is a load
+	 */
+	public static boolean isLoad(int instruction)
+	{
+		switch(instruction >>> 26)
+		{
+		case 0x20: case 0x21: case 0x23: case 0x24: case 0x25:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return whether the instruction is a store
+	 */
+	public static boolean isStore(int instruction)
+	{
+		switch(instruction >>> 26)
+		{
+		case 0x28: case 0x29: case 0x2b: case 0x38:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return whether the instruction is beq or bne, which compare registers in ID
+	 */
+	public static boolean isBranch(int instruction)
+	{
+		int opcode = instruction >>> 26;
+		return opcode == 0x04 || opcode == 0x05;
+	}
+
+	/**
+	 * @return whether the instruction is a branch or jump, which has a branch delay slot
+	 */
+	public static boolean isControlTransfer(int instruction)
+	{
+		switch(instruction >>> 26)
+		{
+		case 0x00:
+			int funct = instruction & 0b111111;
+			return funct == 0x08 || funct == 0x09; //jr, jalr
+		case 0x02: case 0x03: case 0x04: case 0x05:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the number of cycles the MultiplyUnit takes for the instruction, or 0 if it does not start an operation
+	 */
+	public static int multiplyLatency(int instruction)
+	{
+		if ((instruction >>> 26) != 0)
+			return 0;
+		switch(instruction & 0b111111)
+		{
+		case 0x18: case 0x19:
+			return MULTIPLY_LATENCY;
+		case 0x1a: case 0x1b:
+			return DIVIDE_LATENCY;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return whether the instruction is mfhi or mflo, which wait for the MultiplyUnit
+	 */
+	public static boolean readsHiLo(int instruction)
+	{
+		if (instruction == 0 || (instruction >>> 26) != 0)
+			return false;
+		int funct = instruction & 0b111111;
+		return funct == 0x10 || funct == 0x12;
+	}
+
+	/**
+	 * The timing of a sequence of instructions issued one after another, as in a basic block.
+	 * Each call to issue() gives the stall cycles the pipeline adds before the instruction
+	 * completes its EX stage.
+	 */
+	public static final class Timeline implements Cloneable
+	{
+		private final boolean forwarding;
+
+		/*
+		 * The last two instructions issued, the cycle each left ID, and the cycle each
+		 * completed EX (later than the cycle after it left ID only if it waited for the MultiplyUnit).
+		 * A count of -1 means there is no such instruction.
+		 */
+		private int instruction1, instruction2;
+		private long leftID1 = -1, leftID2 = -1, completedEX1 = -1, completedEX2 = -1;
+		/** The cycle the last multiplication or division completes. */
+		private long multiplierReady = -1;
+		private long stalls = 0;
+		/** The stall cycles of the last instruction issued, by cause. */
+		private int[] lastStalls = new int[STALL_CAUSE_NAMES.length];
+
+		/**
+		 * @param forwarding whether forwarding is enabled, as set by Simulator.setForwardingEnabled()
+		 */
+		public Timeline(boolean forwarding)
+		{
+			this.forwarding = forwarding;
+		}
+
+		/**
+		 * Issues the next instruction.
+		 * @param instruction the machine code (0 is a nop)
+		 * @return the number of stall cycles before it completes EX
+		 */
+		public int issue(int instruction)
+		{
+			long cycle = Math.max(leftID1 + 1, completedEX1);
+			long earliest = cycle;
+			boolean branch = isBranch(instruction) && ! (leftID1 != -1 && isControlTransfer(instruction1));
+			Arrays.fill(lastStalls, 0);
+			for(int cause = stallInID(instruction, branch, cycle); cause != -1; cause = stallInID(instruction, branch, cycle))
+			{
+				lastStalls[cause]++;
+				cycle++;
+			}
+
+			long completed = cycle + 1;
+			if (readsHiLo(instruction))
+				completed = Math.max(completed, multiplierReady);
+			lastStalls[STALL_MULTIPLY] = (int)(completed - (cycle + 1));
+			int latency = multiplyLatency(instruction);
+			if (latency != 0)
+				multiplierReady = completed + latency;
+
+			int result = (int)((cycle - earliest) + (completed - (cycle + 1)));
+			instruction2 = instruction1;
+			leftID2 = leftID1;
+			completedEX2 = completedEX1;
+			instruction1 = instruction;
+			leftID1 = cycle;
+			completedEX1 = completed;
+			stalls += result;
+			return result;
+		}
+
+		/**
+		 * @param cause one of the STALL_ constants
+		 * @return the number of stall cycles the last instruction issued had for that cause
+		 */
+		public int getLastStalls(int cause)
+		{
+			return lastStalls[cause];
+		}
+
+		/**
+		 * @return the total number of stall cycles so far
+		 */
+		public long getStalls()
+		{
+			return stalls;
+		}
+
+		@Override
+		public Timeline clone()
+		{
+			try
+			{
+				Timeline result = (Timeline) super.clone();
+				result.lastStalls = lastStalls.clone();
+				return result;
+			}
+			catch (CloneNotSupportedException e)
+			{
+				throw new AssertionError(e);
+			}
+		}
+
+		/**
+		 * Determines whether an instruction in ID during a cycle stalls.
+		 * @return the cause of the stall, or -1 if it does not
+		 */
+		private int stallInID(int instruction, boolean branch, long cycle)
+		{
+			int rsD = rs(instruction), rtD = rt(instruction);
+
+			/*
+			 * Find the instructions in EX and MEM during the cycle (0 for a bubble).
+			 * MEM holds whatever was in EX during the previous cycle.
+			 */
+			int instrE = (leftID1 != -1 && cycle <= completedEX1) ? instruction1 : 0;
+			int instrM = 0;
+			if (leftID1 != -1 && cycle - 1 > leftID1 && cycle - 1 <= completedEX1)
+				instrM = instruction1;
+			else if (leftID2 != -1 && cycle - 1 > leftID2 && cycle - 1 <= completedEX2)
+				instrM = instruction2;
+
+			boolean regWriteE = writesRegister(instrE), regWriteM = writesRegister(instrM);
+			int writeRegE = writtenRegister(instrE), writeRegM = writtenRegister(instrM);
+
+			if ( ! forwarding)
+			{
+				if (rsD != 0 && ((regWriteE && writeRegE == rsD) || (regWriteM && writeRegM == rsD)))
+					return STALL_DATA;
+				if (rtD != 0 && ((regWriteE && writeRegE == rtD) || (regWriteM && writeRegM == rtD)))
+					return STALL_DATA;
+			}
+			if (isLoad(instrE) && (rt(instrE) == rsD || rt(instrE) == rtD))
+				return STALL_LOAD_USE;
+			if (branch && ((regWriteE && (writeRegE == rsD || writeRegE == rtD))
+						   || (isLoad(instrM) && (writeRegM == rsD || writeRegM == rtD))))
+				return STALL_BRANCH;
+			return -1;
+		}
+	}
+}
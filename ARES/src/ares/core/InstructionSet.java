@@ -4,84 +4,136 @@ import java.util.HashMap;
 
 public final class InstructionSet 
 {
-	private static final HashMap<String, int[]> instructionSet = new HashMap<>();
-	static
+	/**
+	 * One row of the instruction set specification.
+	 */
+	private static final class Spec
 	{
-		/*
-		 * What the assembler does with each instruction can be
-		 * completely described by three ints. These are as follows:
-		 * 	int[0]: the operand interpretation mode:
-		 * 		0: R-format (normal, such as add $t1, $t2, $t3)
-		 * 		1: I-format (normal, such as addi $t1, $t2, 100)
-		 * 		2: J-format (normal, such as j 4000)
-		 * 		3: R-format w. shift (must be treated differently because shift instructions
-		 * 			take 2 register and 1 "immediate" argument, the amount)
-		 * 		4: I-format w. base, such as lw or sw
-		 * 	int[1]: the opcode
-		 * 	int[2]: if R-format, the function (funct)
-		 */
-		instructionSet.put("add",	new int[]{0, 0x00, 0x20});
-		instructionSet.put("addi",	new int[]{1, 0x08      });
-		instructionSet.put("addiu",	new int[]{1, 0x09      });
-		instructionSet.put("addu",	new int[]{0, 0x00, 0x21});
-		instructionSet.put("and",	new int[]{0, 0x00, 0x24});
-		instructionSet.put("andi",	new int[]{1, 12   });
-		instructionSet.put("beq",	new int[]{1, 4    });
-		instructionSet.put("bne",	new int[]{1, 5    });
-		instructionSet.put("j", 	new int[]{2, 2    });
-		instructionSet.put("jal",	new int[]{2, 3    });
-		instructionSet.put("jr",	new int[]{0, 0x00,  0x08});
-		instructionSet.put("lbu",	new int[]{1, 36   });
-		instructionSet.put("lhu",	new int[]{1, 37   });
-		instructionSet.put("ll",	new int[]{1, 48   });
-		instructionSet.put("lui",	new int[]{1, 15   });
-		instructionSet.put("lw",	new int[]{1, 35   });
-		instructionSet.put("nor",	new int[]{0, 0x00, 0x27});
-		instructionSet.put("or",	new int[]{0, 0x00, 0x25});
-		instructionSet.put("ori",	new int[]{1, 0x0d      });
-		instructionSet.put("slt",	new int[]{0, 0x00, 0x2a});
-		instructionSet.put("slti",	new int[]{1, 0x0a      });
-		instructionSet.put("sltiu",	new int[]{1, 0x0b      });
-		instructionSet.put("sltu",	new int[]{0, 0x00, 0x2b});
-		instructionSet.put("sll",	new int[]{3, 0x00, 0x00});
-		instructionSet.put("srl",	new int[]{3, 0x00, 0x02});
-		instructionSet.put("sb",	new int[]{1, 0x28      });
-		instructionSet.put("sc",	new int[]{1, 0x38      });
-		instructionSet.put("sh",	new int[]{1, 0x29      });
-		instructionSet.put("sw",	new int[]{1, 0x2b      });
-		instructionSet.put("sub",	new int[]{0, 0x00, 0x22});
-		instructionSet.put("subu",	new int[]{0, 0x00, 0x23});
-		instructionSet.put("xor",	new int[]{0, 0x00, 0x26});
+		final String mnemonic;
+		/** The operand interpretation mode, opcode, and (if any) funct; see below. */
+		final int[] directives;
 		
-		instructionSet.put("mfhi",	new int[]{0, 0x00, 0x10      });
-		instructionSet.put("mthi",	new int[]{0, 0x00, 0x11      });
-		instructionSet.put("mflo",	new int[]{0, 0x00, 0x12      });
-		instructionSet.put("mtlo",	new int[]{0, 0x00, 0x13      });
-		instructionSet.put("mult",	new int[]{0, 0x00, 0x18      });
-		instructionSet.put("multu",	new int[]{0, 0x00, 0x19      });
-		instructionSet.put("div",	new int[]{0, 0x00, 0x1a      });
-		instructionSet.put("divu",	new int[]{0, 0x00, 0x1b      });
-	}
-	
-	private static final HashMap<Integer, String> rFormatInstructions = new HashMap<>();
-	static
-	{
-		for(String s : instructionSet.keySet())
+		Spec(String mnemonic, int... directives)
 		{
-			int[] i = instructionSet.get(s);
-			if(i.length > 2 && i[1] == 0)
-				rFormatInstructions.put(i[2], s);
+			this.mnemonic = mnemonic;
+			this.directives = directives;
 		}
 	}
 	
-	private static final HashMap<Integer, String> nonRFormatInstructions = new HashMap<>();
+	/*
+	 * What the assembler does with each instruction can be
+	 * completely described by three ints. These are as follows:
+	 * 	int[0]: the operand interpretation mode:
+	 * 		0: R-format (normal, such as add $t1, $t2, $t3)
+	 * 		1: I-format (normal, such as addi $t1, $t2, 100)
+	 * 		2: J-format (normal, such as j 4000)
+	 * 		3: R-format w. shift (must be treated differently because shift instructions
+	 * 			take 2 register and 1 "immediate" argument, the amount)
+	 * 		4: I-format w. base, such as lw or sw
+	 * 		5: I-format branch, such as beq $t1, $t2, label (the immediate is PC-relative)
+	 * 		6: R-format w. only Rs, such as jr $ra or mthi $t1
+	 * 		7: R-format w. only Rd, such as mfhi $t1
+	 * 		8: R-format w. Rs and Rt but no Rd, such as mult $t1, $t2
+	 * 		9: I-format w. no Rs, such as lui $t1, 100
+	 * 		10: coprocessor 0 instruction w. no operands, such as eret
+	 * 		11: R-format variable shift, which names Rt before Rs, such as sllv $t1, $t2, $t3
+	 * 	int[1]: the opcode
+	 * 	int[2]: if R-format (or mode 10), the function (funct)
+	 * 
+	 * Everything else in this class--the assembler's table, the decoder's tables, 
+	 * and the disassembler--is generated from this specification.
+	 */
+	private static final Spec[] SPECIFICATION = {
+		new Spec("add",		0, 0x00, 0x20),
+		new Spec("addi",	1, 0x08      ),
+		new Spec("addiu",	1, 0x09      ),
+		new Spec("addu",	0, 0x00, 0x21),
+		new Spec("and",		0, 0x00, 0x24),
+		new Spec("andi",	1, 0x0c      ),
+		new Spec("beq",		5, 0x04      ),
+		new Spec("bne",		5, 0x05      ),
+		new Spec("j",		2, 0x02      ),
+		new Spec("jal",		2, 0x03      ),
+		new Spec("jr",		6, 0x00, 0x08),
+		new Spec("lbu",		4, 0x24      ),
+		new Spec("lhu",		4, 0x25      ),
+		new Spec("ll",		4, 0x30      ),
+		new Spec("lui",		9, 0x0f      ),
+		new Spec("lw",		4, 0x23      ),
+		new Spec("nor",		0, 0x00, 0x27),
+		new Spec("or",		0, 0x00, 0x25),
+		new Spec("ori",		1, 0x0d      ),
+		new Spec("slt",		0, 0x00, 0x2a),
+		new Spec("slti",	1, 0x0a      ),
+		new Spec("sltiu",	1, 0x0b      ),
+		new Spec("sltu",	0, 0x00, 0x2b),
+		new Spec("sll",		3, 0x00, 0x00),
+		new Spec("srl",		3, 0x00, 0x02),
+		new Spec("sb",		4, 0x28      ),
+		new Spec("sc",		4, 0x38      ),
+		new Spec("sh",		4, 0x29      ),
+		new Spec("sw",		4, 0x2b      ),
+		new Spec("sub",		0, 0x00, 0x22),
+		new Spec("subu",	0, 0x00, 0x23),
+		new Spec("xor",		0, 0x00, 0x26),
+		
+		new Spec("mfhi",	7, 0x00, 0x10),
+		new Spec("mthi",	6, 0x00, 0x11),
+		new Spec("mflo",	7, 0x00, 0x12),
+		new Spec("mtlo",	6, 0x00, 0x13),
+		new Spec("mult",	8, 0x00, 0x18),
+		new Spec("multu",	8, 0x00, 0x19),
+		new Spec("div",		8, 0x00, 0x1a),
+		new Spec("divu",	8, 0x00, 0x1b),
+		
+		new Spec("lb",		4, 0x20      ),
+		new Spec("lh",		4, 0x21      ),
+		new Spec("sra",		3, 0x00, 0x03),
+		new Spec("sllv",	11, 0x00, 0x04),
+		new Spec("srlv",	11, 0x00, 0x06),
+		new Spec("srav",	11, 0x00, 0x07),
+		new Spec("eret",	10, 0x10, 0x18),
+	};
+	
+	/**
+	 * The operands of each mode, as they are written in assembly language.
+	 * Used by the disassembler, which replaces each field name with the field's value.
+	 */
+	private static final String[] OPERAND_FORMATS = {
+		"rd, rs, rt",
+		"rt, rs, simm",
+		"target",
+		"rd, rt, shamt",
+		"rt, simm(rs)",
+		"rs, rt, simm",
+		"rs",
+		"rd",
+		"rs, rt",
+		"rt, uimm",
+		"",
+		"rd, rt, rs"
+	};
+	
+	private static final HashMap<String, int[]> instructionSet = new HashMap<>();
+	/*
+	 * The decoder's tables, indexed by opcode, by funct (for opcode 0), and by
+	 * funct (for coprocessor 0 instructions with the CO bit set). Unused entries are null.
+	 */
+	private static final Spec[] opcodeTable = new Spec[64];
+	private static final Spec[] functTable = new Spec[64];
+	private static final Spec[] cop0FunctTable = new Spec[64];
 	static
 	{
-		for(String s : instructionSet.keySet())
+		for(Spec spec : SPECIFICATION)
 		{
-			int[] i = instructionSet.get(s);
-			if(i[1] != 0)
-				nonRFormatInstructions.put(i[1], s);
+			instructionSet.put(spec.mnemonic, spec.directives);
+			int opcode = spec.directives[1];
+			if (opcode == 0)
+				functTable[spec.directives[2]] = spec;
+			else if (opcode == 0x10)
+				cop0FunctTable[spec.directives[2]] = spec;
+			else
+				opcodeTable[opcode] = spec;
 		}
 	}
 	
@@ -111,6 +163,21 @@ public final class InstructionSet
 		return temp[2];
 	}
 	
+	/**
+	 * Finds the specification of an instruction. This is the decoder: every lookup is an array index.
+	 * @param instruction the machine code
+	 * @return the specification, or null if the instruction is not in the instruction set
+	 */
+	private static Spec decode(int instruction)
+	{
+		int opcode = (instruction >>> 26);
+		if (opcode == 0)
+			return functTable[instruction & 0b111111];
+		if (opcode == 0x10)
+			return ((instruction >>> 25) & 1) == 1 ? cop0FunctTable[instruction & 0b111111] : null;
+		return opcodeTable[opcode];
+	}
+	
 	/**
 	 * "Disassembles" an instruction into a mnemonic. Parses 0 as "nop" and instructions not in the instruction set as "???".
 	 * @param instruction
@@ -120,51 +187,80 @@ public final class InstructionSet
 	{
 		if (instruction == 0)
 			return "nop";
-		int opcode = (instruction >>> 26);
-		String result;
-		
-		if (opcode == 0)
-			result = rFormatInstructions.get(instruction & 0b111111);
-		else
-			result = nonRFormatInstructions.get(opcode);
-
-		return (result == null) ? "???" : result;
+		Spec spec = decode(instruction);
+		return (spec == null) ? "???" : spec.mnemonic;
 	}
 	
+	/**
+	 * Disassembles an instruction, in the syntax the assembler accepts (except that branch offsets, in words,
+	 * and jump targets are given as numbers, since labels are not known).
+	 * @param instruction
+	 * @return
+	 */
 	public static String getInstruction(int instruction)
 	{
-		String result = getMnemonic(instruction);
-		if (result.equals("nop"))
-			return result;
-		if (result.equals("???"))
-			return result + " <0x" + Integer.toHexString(instruction) + ">";
+		if (instruction == 0)
+			return "nop";
+		Spec spec = decode(instruction);
+		if (spec == null)
+			return "??? <0x" + Integer.toHexString(instruction) + ">";
 		
-		int opcode = (instruction >>> 26);
-		if (opcode == 0)
+		String format = OPERAND_FORMATS[spec.directives[0]];
+		StringBuilder result = new StringBuilder(spec.mnemonic);
+		if ( ! format.isEmpty())
+			result.append(' ');
+		for(int i = 0; i < format.length(); )
 		{
-			int funct = instruction & 0b111111;
-			if (funct < 0x08) //the shift instructions
-				return result + " " + getRegisterName((instruction >> 11) & 0b11111) + ", " + 
-						getRegisterName((instruction >> 16) & 0b11111) + ", " + 
-						(instruction >> 6 & 0b11111);
-			else
-				return result + " " + getRegisterName((instruction >> 11) & 0b11111) + ", " + 
-					getRegisterName((instruction >> 21) & 0b11111) + ", " + 
-					getRegisterName((instruction >> 16) & 0b11111);
+			int end = i;
+			while(end < format.length() && Character.isLetter(format.charAt(end)))
+				end++;
+			if (end == i)
+			{
+				result.append(format.charAt(i));
+				i++;
+				continue;
+			}
+			switch(format.substring(i, end))
+			{
+			case "rs":		result.append(getRegisterName((instruction >> 21) & 0b11111)); break;
+			case "rt":		result.append(getRegisterName((instruction >> 16) & 0b11111)); break;
+			case "rd":		result.append(getRegisterName((instruction >> 11) & 0b11111)); break;
+			case "shamt":	result.append((instruction >> 6) & 0b11111); break;
+			case "simm":	result.append((short)(instruction & 0x0000FFFF)); break;
+			case "uimm":	result.append("0x").append(Integer.toHexString(instruction & 0x0000FFFF)); break;
+			case "target":	result.append("0x").append(Integer.toHexString((instruction & 0x03FFFFFF) << 2)); break;
+			}
+			i = end;
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * The inverse of getRegisterName(int): parses a register, given either by its
+	 * canonical name ("$t0") or by its number ("$8"). "$s8" is accepted as a synonym for "$fp".
+	 * @param name the register, including the leading "$"
+	 * @return the number of the register (0-31), or -1 if the name is not a register
+	 */
+	public static int getRegisterNumber(String name)
+	{
+		if (name.length() < 2 || name.charAt(0) != '$')
+			return -1;
+		if (name.equals("$s8"))
+			return 30;
+		try
+		{
+			int number = Integer.parseInt(name.substring(1));
+			return (number >= 0 && number <= 31) ? number : -1;
 		}
-		else
+		catch (NumberFormatException e)
 		{
-			if (opcode < 4) //J-type instructions
-				return result + " 0x" + Integer.toHexString(((instruction & 0x07FFFFFF) << 2));
-			if (opcode > 0x19) //loads and stores
-				return result + " " + getRegisterName((instruction >> 16) & 0b11111) + ", " + 
-				((short)(instruction & 0x0000FFFF)) + "(" + getRegisterName((instruction >> 21) & 0b11111) + ")";
-			else
-				return result + " " + getRegisterName((instruction >> 16) & 0b11111) + ", " + 
-				getRegisterName((instruction >> 21) & 0b11111) + ", " + 
-				((short)(instruction & 0x0000FFFF));
+			for(int i = 0; i <= 31; i++)
+			{
+				if (getRegisterName(i).equals(name))
+					return i;
+			}
+			return -1;
 		}
-		
 	}
 	
 	public static String getRegisterName(int register)
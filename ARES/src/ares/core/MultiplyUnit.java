@@ -44,6 +44,8 @@ public class MultiplyUnit
 			switch (currentOperation)
 			{
 			case DIVIDE:
+				if (rt == 0)
+					break; //MIPS leaves the result of dividing by zero unpredictable: HI and LO keep their values.
 				product =  0x00000000FFFFFFFFL & (rs / rt);
 				product += 0xFFFFFFFF00000000L & ((long)(rs % rt) << 32);
 				break;
@@ -51,6 +53,8 @@ public class MultiplyUnit
 				product = (long) rs * (long) rt;
 				break;
 			case DIVIDE_UNSIGNED:
+				if (rt == 0)
+					break; //MIPS leaves the result of dividing by zero unpredictable: HI and LO keep their values.
 				product =  0x00000000FFFFFFFFL & (Integer.divideUnsigned(rs, rt));
 				product += 0xFFFFFFFF00000000L & ((long)(Integer.remainderUnsigned(rs, rt)) << 32);
 				break;					
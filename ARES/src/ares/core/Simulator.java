@@ -3,6 +3,12 @@ package ares.core;
 import java.util.Arrays;
 import java.util.BitSet;
 
+import ares.core.cache.Cache;
+import ares.core.cache.CacheHierarchy;
+import ares.core.cache.LocalityAnalysis;
+import ares.core.cache.MissProfile;
+import ares.core.cache.Prefetcher;
+
 public class Simulator
 {
 	private Memory memory; //The Memory class contains both main memory and registers.
@@ -21,11 +27,47 @@ public class Simulator
 	String operationE = "";
 	private boolean stall = false;
 	private boolean stallMultiplier = false;
+	private boolean stallMemory = false;
+	/** The cause of this cycle's stall in ID (one of the HazardModel.STALL_ constants), or -1. */
+	private int stallCause = -1;
+	/** The number of cycles stalled for each cause, indexed by the HazardModel.STALL_ constants. */
+	private long[] stallCycles = new long[HazardModel.STALL_CAUSE_NAMES.length];
 	private int wroteReg = 0;
 	private int cycleNumber = 0;
 	
 	private boolean forwardingEnabled = true;
 	
+	/**
+	 * The cache each instruction fetched is looked up in, or null. It may be the same cache as
+	 * is used for data (a unified cache).
+	 */
+	private Cache instructionCache = null;
+	/**
+	 * The cache each load and store is looked up in by the MEM stage, or null; and the number of cycles the
+	 * whole pipeline stalls for after an access misses in it.
+	 */
+	private Cache dataCache = null;
+	private int missPenalty = 0;
+	/**
+	 * The caches every fetch and every load and store go through, or null. If set, it is used instead of
+	 * instructionCache and dataCache.
+	 */
+	private CacheHierarchy cacheHierarchy = null;
+	/**
+	 * The prefetcher each load and store goes through, or null. If set, it is used instead of dataCache,
+	 * and looks them up in its own cache.
+	 */
+	private Prefetcher prefetcher = null;
+	private int memoryStallCyclesRemaining = 0;
+	/**
+	 * Counts the hits and misses of each load and store in the (first level) data cache, or null.
+	 */
+	private MissProfile missProfile = null;
+	/**
+	 * Measures the locality of the addresses of the loads and stores, or null.
+	 */
+	private LocalityAnalysis localityAnalysis = null;
+	
 	/**
 	 * The program counter, read at the beginning of the IF stage and written
 	 * at the end of the cycle.
@@ -64,6 +106,11 @@ public class Simulator
 	 * </p>
 	 */
 	private int[] EX_MEM = new int[4];
+	/**
+	 * (PC + 4) of the instruction in EX/MEM, for the Prefetcher. It is kept out of EX_MEM so that a nop
+	 * still leaves that register empty.
+	 */
+	private int EX_MEM_PCPlus4 = 0;
 	/**
 	 * The MEM/WB staging register:
 	 * <p>
@@ -165,12 +212,26 @@ public class Simulator
 		wroteReg = 0;
 		branchOccurred = false;
 		stall = false;
+		stallMemory = false;
+		stallCause = -1;
 		
 		/*
 		 * Call the step methods of peripheral devices/coprocessors.
 		 */
 		multiplier.step();
 		
+		/*
+		 * After a data cache miss, the whole pipeline waits for memory: nothing moves
+		 * (though the MultiplyUnit keeps working).
+		 */
+		if (memoryStallCyclesRemaining > 0)
+		{
+			memoryStallCyclesRemaining--;
+			stallMemory = true;
+			stallCycles[HazardModel.STALL_MEMORY]++;
+			return;
+		}
+		
 		/*
 		 * IF: Instruction fetch, phase 1.
 		 * Fetch the instruction pointed to by the PC and increment the PC by four.
@@ -510,7 +571,13 @@ public class Simulator
 					RegWriteE = MemToRegE = true;
 					MemHalfwordE = true;
 					break;
-				case 0x27: //sh
+				case 0x28: //sb
+					AluOutE = (RsE + SignImmE);
+					operationE = "+";
+					WriteDataE = RtE;
+					MemWriteE = MemByteE = true;
+					break;
+				case 0x29: //sh
 					AluOutE = (RsE + SignImmE);
 					operationE = "+";
 					WriteDataE = RtE;
@@ -570,6 +637,20 @@ public class Simulator
 			MemHalfwordM = EX_MEM_CTRL.get(4);
 			InBranchDelayM = EX_MEM_CTRL.get(5);
 			
+			int accessSize = MemByteM ? 1 : (MemHalfwordM ? 2 : 4);
+			if (prefetcher != null && cacheHierarchy == null && (MemWriteM || MemToRegM))
+				memoryStallCyclesRemaining = prefetcher.access(AluOutM, EX_MEM_PCPlus4 - 4, MemWriteM, accessSize, cycleNumber);
+			else if (cacheHierarchy != null && (MemWriteM || MemToRegM))
+				memoryStallCyclesRemaining = cacheHierarchy.accessData(AluOutM, MemWriteM, accessSize);
+			else if (dataCache != null && (MemWriteM || MemToRegM)
+					&& ! dataCache.access(AluOutM, Cache.DATA, MemWriteM, accessSize)
+					&& dataCache.getLastOutcome(Cache.DATA) != Cache.MISS_NOT_ALLOCATED)
+				memoryStallCyclesRemaining = missPenalty;
+			if (missProfile != null && (MemWriteM || MemToRegM))
+				profileDataAccess(EX_MEM_PCPlus4 - 4);
+			if (localityAnalysis != null && (MemWriteM || MemToRegM))
+				localityAnalysis.access(AluOutM, cycleNumber);
+			
 			if (MemWriteM) //if MemWriteM is set, write
 			{
 				if (AluOutM < 0 && cp0.inUserMode())
@@ -690,7 +771,7 @@ public class Simulator
 				}
 				else
 				{
-					stall = true;
+					stallFor(HazardModel.STALL_DATA);
 				}
 			}
 			else if ((RsNumD != 0) && (RsNumD == WriteRegM) && RegWriteM)
@@ -704,7 +785,7 @@ public class Simulator
 				}
 				else
 				{
-					stall = true;
+					stallFor(HazardModel.STALL_DATA);
 				}
 			}
 			else
@@ -721,7 +802,7 @@ public class Simulator
 				}
 				else
 				{
-					stall = true;
+					stallFor(HazardModel.STALL_DATA);
 				}
 			}
 			else if ((RtNumD != 0) && (RtNumD == WriteRegM) && RegWriteM)
@@ -734,7 +815,7 @@ public class Simulator
 				}
 				else
 				{
-					stall = true;
+					stallFor(HazardModel.STALL_DATA);
 				}
 			}
 			else
@@ -762,7 +843,7 @@ public class Simulator
 					}
 					else
 					{
-						stall = true;
+						stallFor(HazardModel.STALL_DATA);
 						break handleBranches;
 					}
 				}
@@ -776,7 +857,7 @@ public class Simulator
 					}
 					else
 					{
-						stall = true;
+						stallFor(HazardModel.STALL_DATA);
 						break handleBranches;
 					}
 				}
@@ -818,7 +899,7 @@ public class Simulator
 		 */		
 		if ( MemToRegE && (RtNumE == RsNumD || RtNumE == RtNumD) )
 		{
-			stall = true;
+			stallFor(HazardModel.STALL_LOAD_USE);
 		}
 		/*
 		 * Stall inserter for branch data hazard.
@@ -828,11 +909,16 @@ public class Simulator
 				(( (MemToRegM) && (WriteRegM == RsNumD || WriteRegM == RtNumD) )))
 				))
 		{
-			stall = true;
+			stallFor(HazardModel.STALL_BRANCH);
 		}
 		if (stallForMultiplierE)
 		{
 			stall = stallMultiplier = true;
+			stallCause = HazardModel.STALL_MULTIPLY;
+		}
+		if (stall)
+		{
+			stallCycles[stallCause]++;
 		}
 		
 		/*-------------------------------------------------------------------*
@@ -841,6 +927,10 @@ public class Simulator
 		
 		if ( ! stall)
 		{
+		if (cacheHierarchy != null && PC <= memory.getMaxInstAddr())
+			memoryStallCyclesRemaining = Math.max(memoryStallCyclesRemaining, cacheHierarchy.fetch(PC));
+		else if (instructionCache != null && PC <= memory.getMaxInstAddr())
+			instructionCache.access(PC, Cache.INSTRUCTION);
 		PC = NewPCF;
 		}
 		
@@ -871,6 +961,7 @@ public class Simulator
 		EX_MEM[0] = AluOutE;
 		EX_MEM[2] = WriteRegE;
 		EX_MEM[3] = WriteDataE;
+		EX_MEM_PCPlus4 = PCPlus4E;
 		
 		EX_MEM_CTRL.set(0, RegWriteE);
 		EX_MEM_CTRL.set(1, MemWriteE);
@@ -922,6 +1013,7 @@ public class Simulator
 			if (currentException.getPC() <= PC - 12)
 			{
 				Arrays.fill(EX_MEM, 0);
+				EX_MEM_PCPlus4 = 0;
 				EX_MEM_CTRL.clear();
 			}
 			if (currentException.getPC() <= PC - 8)
@@ -991,6 +1083,17 @@ public class Simulator
 		
 	}
 	
+	/**
+	 * Stalls the instructions in IF and ID for this cycle. The first cause found is the one counted.
+	 * @param cause one of the HazardModel.STALL_ constants
+	 */
+	private void stallFor(int cause)
+	{
+		stall = true;
+		if (stallCause == -1)
+			stallCause = cause;
+	}
+	
 	/**
 	 * Convenience method which makes a new MIPSException and calls 
 	 * setException(MIPSException). Useful when coprocessor unusable/
@@ -1074,6 +1177,31 @@ public class Simulator
 		return stallMultiplier;
 	}
 	
+	/**
+	 * @return whether the whole pipeline waited for memory, after a data cache miss, in the last clock cycle
+	 */
+	public boolean memoryStallOccurred()
+	{
+		return stallMemory;
+	}
+	
+	/**
+	 * @return the number of clock cycles simulated
+	 */
+	public int getCycleCount()
+	{
+		return cycleNumber;
+	}
+	
+	/**
+	 * @param cause one of the HazardModel.STALL_ constants
+	 * @return the number of clock cycles the pipeline has stalled for with that cause
+	 */
+	public long getStallCycles(int cause)
+	{
+		return stallCycles[cause];
+	}
+	
 	public String[] getIDData()
 	{
 		int OpD = (ID_EX[0] >>> 26);
@@ -1103,6 +1231,8 @@ public class Simulator
 	 */
 	public int getMEMOperation()
 	{
+		if (stallMemory)
+			return 0;
 		if (MEM_WB_CTRL.get(1))
 			return 2;
 		if (MEM_WB_CTRL.get(2))
@@ -1147,6 +1277,116 @@ public class Simulator
 		forwardingEnabled = fE;
 	}
 	
+	/**
+	 * Sets the cache in which the IF stage looks up each instruction it fetches. A fetch is counted once,
+	 * in the cycle the instruction leaves IF, however long it is stalled there. (The cache does not yet
+	 * affect timing.)
+	 * @param c the cache, or null for none
+	 */
+	public void setInstructionCache(Cache c)
+	{
+		instructionCache = c;
+	}
+	
+	public Cache getInstructionCache()
+	{
+		return instructionCache;
+	}
+	
+	/**
+	 * Sets the cache in which the MEM stage looks up each load and store, and the number of cycles the
+	 * whole pipeline stalls for each time an access misses, as it stalls for the MultiplyUnit. A store the cache
+	 * does not allocate a block for is buffered, and does not stall.
+	 * The stalls are counted as HazardModel.STALL_MEMORY.
+	 * @param c the cache, or null for none
+	 * @param penalty the miss penalty in cycles; 0 to leave the timing unchanged
+	 */
+	public void setDataCache(Cache c, int penalty)
+	{
+		dataCache = c;
+		missPenalty = penalty;
+	}
+	
+	public Cache getDataCache()
+	{
+		return dataCache;
+	}
+	
+	/**
+	 * Sets the caches through which the IF stage fetches each instruction and the MEM stage looks up each load
+	 * and store, instead of the instruction and data caches. The whole pipeline stalls for as many cycles as
+	 * an access takes beyond the first; a fetch and a data access in the same cycle wait for each other, so the
+	 * longer of the two is stalled for. The stalls are counted as HazardModel.STALL_MEMORY.
+	 * @param h the hierarchy, or null for none
+	 */
+	public void setCacheHierarchy(CacheHierarchy h)
+	{
+		cacheHierarchy = h;
+	}
+	
+	public CacheHierarchy getCacheHierarchy()
+	{
+		return cacheHierarchy;
+	}
+	
+	/**
+	 * Sets the prefetcher through which the MEM stage looks up each load and store, with the address of the
+	 * instruction, instead of the data cache (but not instead of a cache hierarchy). The whole pipeline stalls
+	 * for as many cycles as each access waits, counted as HazardModel.STALL_MEMORY.
+	 * @param p the prefetcher, or null for none
+	 */
+	public void setPrefetcher(Prefetcher p)
+	{
+		prefetcher = p;
+	}
+	
+	public Prefetcher getPrefetcher()
+	{
+		return prefetcher;
+	}
+	
+	/**
+	 * Sets the profile to which each load and store is attributed, by its address, as a hit or miss in the
+	 * data cache the MEM stage looks it up in (the first level data cache of a cache hierarchy, or the cache of
+	 * a prefetcher). A miss found in a victim cache counts as a hit.
+	 * @param p the profile, or null for none
+	 */
+	public void setMissProfile(MissProfile p)
+	{
+		missProfile = p;
+	}
+	
+	public MissProfile getMissProfile()
+	{
+		return missProfile;
+	}
+	
+	/**
+	 * Sets the analysis to which the address and cycle of each load and store is given, whether or not there
+	 * are caches.
+	 * @param a the analysis, or null for none
+	 */
+	public void setLocalityAnalysis(LocalityAnalysis a)
+	{
+		localityAnalysis = a;
+	}
+	
+	public LocalityAnalysis getLocalityAnalysis()
+	{
+		return localityAnalysis;
+	}
+	
+	private void profileDataAccess(int pc)
+	{
+		Cache cache = dataCache;
+		if (cacheHierarchy != null)
+			cache = cacheHierarchy.getCache(CacheHierarchy.L1D);
+		else if (prefetcher != null)
+			cache = prefetcher.getCache();
+		if (cache != null)
+			missProfile.record(pc, cache.getLastOutcome(Cache.DATA) == Cache.HIT || cache.wasVictimHit(Cache.DATA));
+	}
+	
 	private void debugPrint(Object msg)
 	{
 		if (DEBUG)
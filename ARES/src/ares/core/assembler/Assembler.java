@@ -1,18 +1,46 @@
 package ares.core.assembler;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 
+import ares.core.CompiledProgram;
 import ares.core.InstructionSet;
 import ares.core.Memory;
+import ares.core.assembler.ObjectModule.Relocation;
 import static ares.core.assembler.AssemblerError.ErrorID;
 
 
 public class Assembler {
 	
-	private static int currentSeg = 4;
-	private static boolean[] segComplete = new boolean[5];
+	/**
+	 * Identifies the output of this assembler. It must be changed whenever a change to the assembler
+	 * changes the object module produced from some source file, since AssemblyCache reuses modules
+	 * assembled by the same version.
+	 */
+	public static final String VERSION = "1.5";
+	
+	/**
+	 * An instruction or pseudoinstruction found by the first pass, along with
+	 * everything the second pass needs to encode it.
+	 */
+	static class Statement
+	{
+		String filename, mnemonic;
+		List<String> operandTokens;
+		/** The expansion chosen for a pseudoinstruction, or null for a real instruction. */
+		PseudoInstructionSet.Template template;
+		int line, seg;
+		/** The value of the segment's location counter at the start of the statement. */
+		int index;
+		/** The number of real instructions the statement assembles to. */
+		int length;
+	}
+	
+	private int currentSeg = 4;
+	private boolean[] segComplete = new boolean[5];
 	
 	/**
 	 * The symbol/constant table.
@@ -23,7 +51,22 @@ public class Assembler {
 	 * 		value[0] = the value of the LC or the constant.
 	 * 		value[1] = the LC's segment ID (0-3) or 4 (value[0] is a constant).
 	 */
-	private HashMap<String, Integer> symTbl = new HashMap<>();
+	private HashMap<String, int[]> symTbl = new HashMap<>();
+	
+	/**
+	 * The labels declared with .globl.
+	 */
+	private HashSet<String> globals = new HashSet<>();
+	
+	/**
+	 * The references to labels made by the instructions assembled in the second pass.
+	 */
+	private ArrayList<Relocation> relocations = new ArrayList<>();
+	
+	/**
+	 * The name of the (first) file assembled.
+	 */
+	private String moduleName = "<unknown>";
 	
 	/**
 	 * The set of location counters: one for each segment.
@@ -40,6 +83,20 @@ public class Assembler {
 	 */
 	
 	private ArrayList<ArrayList<Byte>> dataSegs = new ArrayList<>(4);
+	
+	/**
+	 * The statements in the text and ktext segments, in order of appearance.
+	 * Each records the expansion the first pass chose for it, since the second pass must expand 
+	 * each pseudoinstruction exactly as the first pass sized it, even if (say) a forward reference 
+	 * would now be classified differently.
+	 */
+	private ArrayList<Statement> statements = new ArrayList<>();
+	
+	/**
+	 * Every operand parsed so far, by its text. Generated code tends to repeat operands,
+	 * and each is parsed (and its constant subexpressions folded) only once per assembly.
+	 */
+	private HashMap<String, Expression> expressions = new HashMap<>();
 
 	
 	private LinkedList<String> tokenizedSource;
@@ -66,9 +123,8 @@ public class Assembler {
 	 * to do this, each directive in the data segment needs to be processed. (There is NO constant-size
 	 * data segment directive--even .byte and .word may be followed by any number of data.)
 	 * 
-	 * The tokenized source is modified by this method: everything the second pass does not need is removed.
-	 * Since the tokenized source is a linked list, this is done by adding a sentinel node (null), popping each token.
-	 * and then enqueing it back onto the end.
+	 * The tokenized source is consumed by this method: everything the second pass needs is
+	 * recorded in the symbol table and in the list of statements.
 	 * 
 	 * @param tokenizedSource LinkedList<String> generated by Tokenizer
 	 * @throws AssemblerError
@@ -78,7 +134,6 @@ public class Assembler {
 		int line = 1;
 		String filename = "<unknown>";
 		try {
-		boolean replaceToken = true;
 		tokenizedSource.offer(null);
 		while(true)
 		{
@@ -96,6 +151,9 @@ public class Assembler {
 			if (token.charAt(0) == '\t')
 			{
 				filename = token.substring(1);
+				if (moduleName.equals("<unknown>"))
+					moduleName = filename;
+				line = 1;
 				continue;
 			}
 			
@@ -120,20 +178,31 @@ public class Assembler {
 				{
 					try
 					{
-						symTbl.put(name, Integer.parseInt(strVal));
+						Expression value = expression(strVal);
+						if (value.resolve(symTbl).symbol != null)
+							throw new AssemblerError(ErrorID.CONST_NOT_INTEGER);
+						symTbl.put(name, new int[]{value.evaluate(symTbl), 4});
 					}
-					catch (Exception e)
+					catch (AssemblerError e)
 					{
+					if (e.getErrorID() == ErrorID.LITERAL_OUT_OF_RANGE)
+						throw e;
 					throw new AssemblerError(ErrorID.CONST_NOT_INTEGER);
 					}
 				}
-				replaceToken = false;
 				tokenizedSource.pop(); //Remove the name and value
 				tokenizedSource.pop(); //from the token stream, too.
-				break;
+				continue;
+			case ".globl":
+				if (tokenizedSource.peek() != null)
+					globals.add(tokenizedSource.pop());
+				continue;
 				
 			}
 			
+			if (currentSeg == 4)
+				switchSeg(0); //Code before any segment directive belongs to the text segment.
+			
 			if (token.lastIndexOf(':') == token.length() - 1)
 			{
 				//Looks like we've found a label
@@ -142,16 +211,16 @@ public class Assembler {
 				switch (currentSeg)
 				{
 				case 0: 
-					symTbl.put(token, Memory.TEXT_SEGMENT_START_ADDRESS + (LC[currentSeg] << 2));
+					symTbl.put(token, new int[]{Memory.TEXT_SEGMENT_START_ADDRESS + (LC[currentSeg] << 2), currentSeg});
 					break;
 				case 1:
-					symTbl.put(token, Memory.DATA_SEGMENT_START_ADDRESS + LC[currentSeg]);
+					symTbl.put(token, new int[]{Memory.DATA_SEGMENT_START_ADDRESS + LC[currentSeg], currentSeg});
 					break;
 				case 2:
-					symTbl.put(token, Memory.KTEXT_SEGMENT_START_ADDRESS + (LC[currentSeg] << 2));
+					symTbl.put(token, new int[]{Memory.KTEXT_SEGMENT_START_ADDRESS + (LC[currentSeg] << 2), currentSeg});
 					break;
 				case 3:
-					symTbl.put(token, Memory.KDATA_SEGMENT_START_ADDRESS + LC[currentSeg]);
+					symTbl.put(token, new int[]{Memory.KDATA_SEGMENT_START_ADDRESS + LC[currentSeg], currentSeg});
 					break;
 				}
 				continue;
@@ -159,36 +228,18 @@ public class Assembler {
 			
 			if (currentSeg % 2 == 0) //text, ktext
 			{
-				if (InstructionSet.contains(token))
-					LC[currentSeg]++;
-				else if (PseudoInstructionSet.contains(token))
-				{
-					ArrayList<String> methodSig = new ArrayList<>();
-					methodSig.add(token);
-					for(int i = 0; ! tokenizedSource.get(i).equals("\n"); i++)
-					{
-						String arg = tokenizedSource.get(i).replace(',', ' ').trim();
-						int argImmVal = 0;
-						/*
-						 * VERY simple heuristic to check whether argument is a register.
-						 * TODO: Write something more robust if this gives us problems.
-						 */
-						if (arg.indexOf('$') != -1)
-							methodSig.add("reg");
-						else 
-						{
-							methodSig.add(isInt32(arg) ? "int32" : "int16");
-						}
-
-					}
-					LC[currentSeg] += PseudoInstructionSet.getInstructionLength(Arrays.toString(methodSig.toArray()));
-					System.out.println(Arrays.toString(methodSig.toArray()));
-				}
-					
+				ArrayList<String> operandTokens = new ArrayList<>();
+				while(tokenizedSource.peek() != null && ! tokenizedSource.peek().equals("\n"))
+					operandTokens.add(tokenizedSource.pop());
+				
+				Statement statement = sizeStatement(token, operandTokens, currentSeg, LC[currentSeg]);
+				statement.filename = filename;
+				statement.line = line;
+				statements.add(statement);
+				LC[currentSeg] += statement.length;
 			}
 			else //data, kdata
 			{
-				replaceToken = false;
 				byte[] result = new byte[1];
 				//TODO: handle each directive with its own function, which may throw an AssemblerException; catch this exception, etc.
 				switch(token)
@@ -238,29 +289,8 @@ public class Assembler {
 				}
 			}
 			
-			if (replaceToken)
-				tokenizedSource.offer(token);
-			replaceToken = true;
-			
 		}
 		
-		/*
-		 * Start debugging code.
-		 */
-		
-		System.out.println("---------------ASSEMBLY RESULTS-----------------");
-		System.out.println("SYMBOL TABLE:");
-		for(String s : symTbl.keySet())
-		{
-			System.out.println("\t" + s + "\t\t\t" + (symTbl.get(s)));
-		}
-		System.out.println("COMPILED DATA SEGMENT:");
-		System.out.println(Arrays.toString(dataSegs.get(0).toArray(new Byte[1])));
-				
-		/*
-		 * End debugging code.
-		 */
-		
 		} catch (AssemblerError e)
 		{
 			e.setFileInformation(filename, line);
@@ -345,125 +375,502 @@ public class Assembler {
 	}
 	
 	/**
-	 * 
-	 * @param arg
-	 * @return
+	 * Complete the second pass and link the result on its own, for programs consisting of a single file.
+	 * <p>
+	 * Must be called after doFirstPass(); the tokenized source is consumed.
+	 * @return the assembled program, which can be loaded directly into a Memory
 	 * @throws AssemblerError
+	 * @see #assembleModule()
 	 */
-	public boolean isInt32(String arg) throws AssemblerError
+	public CompiledProgram doSecondPass() throws AssemblerError
+	{
+		return Linker.link(Collections.singletonList(assembleModule()));
+	}
+	
+	/**
+	 * Complete the second pass: encode every instruction in the text and ktext segments,
+	 * and expand pseudoinstructions. Literals and .consts are resolved immediately;
+	 * references to labels (including [HI]/[LO] postfixes) are left for the Linker.
+	 * <p>
+	 * Must be called after doFirstPass(); the tokenized source is consumed.
+	 * @return a relocatable object module
+	 * @throws AssemblerError
+	 */
+	public ObjectModule assembleModule() throws AssemblerError
 	{
-		int immVal;
-		char[] operators = {'+', '-', '/', '*', '[', ']'};
-		int[] opPositions = new int[operators.length];
+		ArrayList<ArrayList<Integer>> textSegs = new ArrayList<>(2);
+		for(int i = 0; i < 2; i++)
+			textSegs.add(new ArrayList<Integer>());
 		
-		/*
-		 * First, parse postfixes.
-		 * Resolve labels if necessary.
-		 * Goal:
-		 * 		label[LO]+65536[HI]+2*3/label2 ->
-		 * 		44+1+2*3/label2
-		 */
-		int last = 0;
-		while(arg.indexOf('[') != -1)
+		for(Statement statement : statements)
 		{
-			int val = 0;
-			
-			String postfix = arg.substring(arg.indexOf('['), arg.indexOf(']'));
-			if ( ! (postfix.equals("[HI]") || postfix.equals("[LO]")))
-				throw new AssemblerError(ErrorID.LITERAL_POSTFIX_INVALID, postfix);
-			
-			String literal = arg.substring(last, arg.indexOf('['));
-			for(int i = 0; i < opPositions.length; i++)
-				opPositions[i] = literal.indexOf(operators[i]);
-			int a = findMin(opPositions);
-			while(a != -1)
-			{
-				literal = literal.substring(opPositions[a]);
-				opPositions[a] = literal.indexOf(operators[a]);
-				a = findMin(opPositions);
-			}
-			
 			try
 			{
-				val = Integer.parseInt(literal);
+				for(int word : encodeStatement(statement))
+					textSegs.get(statement.seg / 2).add(word);
 			}
-			catch (NumberFormatException e)
+			catch (AssemblerError e)
 			{
-				Integer symbol = symTbl.get(val);
-				if (symbol == null) 
-					symbol = Memory.TEXT_SEGMENT_START_ADDRESS;
+				e.setFileInformation(statement.filename, statement.line);
+				throw e;
 			}
 		}
 		
-		return false;
-		/*
-		char[] operators = {'+', '-', '/', '*', '[', ']'};
-		int[] opPositions = new int[operators.length];
-		for(int i = 0; i < opPositions.length; i++)
-			opPositions[i] = arg.indexOf(operators[i]);
-		while(findMin(opPositions) != -1)
+		return new ObjectModule(moduleName,
+				new int[][]{toIntArray(textSegs.get(0)), toIntArray(textSegs.get(1))},
+				new byte[][]{toByteArray(dataSegs.get(0)), toByteArray(dataSegs.get(1))},
+				symTbl, globals, relocations);
+	}
+	
+	/**
+	 * Determines how many instructions a statement assembles to, and for a pseudoinstruction,
+	 * which expansion to use. This is the part of the first pass that handles the text segments.
+	 * @param mnemonic the instruction or pseudoinstruction
+	 * @param operandTokens the tokens following it on the line
+	 * @param seg the segment the statement is in
+	 * @param index the value of the segment's location counter
+	 * @return the statement; its filename and line are left for the caller to fill in
+	 * @throws AssemblerError if the mnemonic is not recognized, or no expansion accepts the arguments
+	 */
+	Statement sizeStatement(String mnemonic, List<String> operandTokens, int seg, int index) throws AssemblerError
+	{
+		Statement statement = new Statement();
+		statement.mnemonic = mnemonic;
+		statement.operandTokens = operandTokens;
+		statement.seg = seg;
+		statement.index = index;
+		
+		if (InstructionSet.contains(mnemonic) && ! isAddressOperandForm(mnemonic, operandTokens))
+			statement.length = 1;
+		else
 		{
+			PseudoInstructionSet.Template[] templates = PseudoInstructionSet.getTemplates(mnemonic);
+			if (templates == null)
+				throw new AssemblerError(ErrorID.INSTRUCTION_INVALID, mnemonic);
 			
+			ArrayList<String> args = splitOperands(operandTokens);
+			int[] kinds = new int[args.size()];
+			for(int i = 0; i < kinds.length; i++)
+			{
+				/*
+				 * VERY simple heuristic to check whether argument is a register.
+				 * TODO: Write something more robust if this gives us problems.
+				 */
+				if (args.get(i).indexOf('$') != -1)
+					kinds[i] = PseudoInstructionSet.REG;
+				else if (InstructionSet.contains(mnemonic)) //A load or store given an address.
+					kinds[i] = isSignedInt16(args.get(i)) ? PseudoInstructionSet.IMM16 : PseudoInstructionSet.IMM32;
+				else
+					kinds[i] = isInt32(args.get(i)) ? PseudoInstructionSet.IMM32 : PseudoInstructionSet.IMM16;
+			}
+			statement.template = PseudoInstructionSet.select(templates, kinds);
+			if (statement.template == null)
+				throw new AssemblerError(ErrorID.PSI_ARGUMENT_TYPE_INVALID);
+			statement.length = statement.template.length();
 		}
 		
-		return false;
-		*/
+		return statement;
+	}
+	
+	/**
+	 * Determines whether a load or store is given an address (such as a label) in place of offset($base),
+	 * in which case it is expanded as a pseudoinstruction.
+	 * @param mnemonic a real instruction
+	 * @param operandTokens the tokens following it on the line
+	 * @return true if the instruction must be expanded
+	 */
+	private static boolean isAddressOperandForm(String mnemonic, List<String> operandTokens)
+	{
+		if ( ! PseudoInstructionSet.contains(mnemonic))
+			return false;
+		ArrayList<String> operands = splitOperands(operandTokens);
+		if (operands.isEmpty())
+			return false;
+		String operand = operands.get(operands.size() - 1);
+		int open = operand.lastIndexOf('(');
+		return ! (operand.endsWith(")") && open != -1 && operand.charAt(open + 1) == '$');
+	}
+	
+	/**
+	 * Encodes one statement, expanding it if it is a pseudoinstruction.
+	 * References to labels are added to the list of relocations.
+	 * @param statement a statement sized by the first pass
+	 * @return the instructions, which are to be placed at statement.index onward
+	 * @throws AssemblerError
+	 */
+	int[] encodeStatement(Statement statement) throws AssemblerError
+	{
+		ArrayList<String> operands = splitOperands(statement.operandTokens);
+		int[] result = new int[statement.length];
 		
-		/*
-		if (opPositions[4] != -1)
+		if (statement.template == null)
 		{
-			if (opPositions[5] - opPositions[4] < 0)
-				throw new AssemblerError(4);
-			
-			String postfix = arg.substring(opPositions[4], opPositions[5]);
-			if ( ! (postfix.equals("[HI]") || postfix.equals("[LO]")))
-				throw new AssemblerError(5, postfix);
-			return false;
+			result[0] = encode(statement.mnemonic, operands, statement.seg, statement.index, statement.line);
+			return result;
 		}
 		
-		int argImmVal;
-		String postfix = "";
-		try
-		{	
-			int hasPostfix = arg.indexOf('[');
-
-			
+		for(int i = 0; i < result.length; i++)
+		{
+			result[i] = encode(statement.template.mnemonics[i], statement.template.operands(i, operands),
+							   statement.seg, statement.index + i, statement.line);
 		}
-		catch (AssemblerError e)
+		return result;
+	}
+	
+	/**
+	 * Removes and returns the relocations recorded so far.
+	 * Used when statements are encoded one at a time, rather than into a module.
+	 * @return the relocations
+	 */
+	ArrayList<Relocation> drainRelocations()
+	{
+		ArrayList<Relocation> result = relocations;
+		relocations = new ArrayList<>();
+		return result;
+	}
+	
+	/**
+	 * Finds the labels and constants a statement's operands mention.
+	 * @param statement the statement
+	 * @return the names of the symbols
+	 */
+	static HashSet<String> symbolsIn(Statement statement)
+	{
+		HashSet<String> result = new HashSet<>();
+		for(String operand : splitOperands(statement.operandTokens))
 		{
-			throw e;
+			int open = operand.lastIndexOf('(');
+			if (operand.endsWith(")") && open != -1 && operand.charAt(open + 1) == '$')
+				operand = operand.substring(0, open); //offset($base)
+			if (operand.isEmpty() || operand.charAt(0) == '$')
+				continue;
+			try
+			{
+				Expression.parse(operand).addSymbols(result);
+			}
+			catch (AssemblerError e)
+			{
+				continue; //Reported when the statement is encoded.
+			}
 		}
-		catch (NumberFormatException e)
+		return result;
+	}
+	
+	/**
+	 * @param statement the statement
+	 * @return whether the statement is, or expands to, an instruction with a PC-relative operand (a branch)
+	 */
+	static boolean isPCRelative(Statement statement)
+	{
+		String[] mnemonics = (statement.template == null) ? 
+				new String[]{statement.mnemonic} : statement.template.mnemonics;
+		for(String mnemonic : mnemonics)
 		{
-			throw new AssemblerError(4);
+			if (InstructionSet.getAssemblerDirectives(mnemonic)[0] == 5)
+				return true;
 		}
-		
-		return immVal;
-		*/
+		return false;
+	}
+	
+	HashMap<String, int[]> getSymbolTable()
+	{
+		return symTbl;
+	}
+	
+	ArrayList<Statement> getStatements()
+	{
+		return statements;
 	}
 	
 	/**
-	 * Returns the index of the lowest element of an array
-	 * which is not equal to -1. If all elements of the array
-	 * are equal to -1, return -1.
-	 * @param a an array of integers
-	 * @return see above
+	 * Encodes a single (real) instruction, according to the operand interpretation
+	 * mode given for it in the InstructionSet.
+	 * @param mnemonic the instruction
+	 * @param operands its operands, already separated
+	 * @param seg the segment the instruction is in
+	 * @param index the number of the instruction within its segment
+	 * @param line the line the instruction is on (recorded in relocations)
+	 * @return the machine code, with zeroes in any field that must be relocated
+	 * @throws AssemblerError
 	 */
-	private int findMin(int[] a)
+	private int encode(String mnemonic, List<String> operands, int seg, int index, int line) throws AssemblerError
 	{
-		int result = 0;
-		int min = Integer.MAX_VALUE;
-		for(int i = 0; i < a.length; i++)
+		int[] directives = InstructionSet.getAssemblerDirectives(mnemonic);
+		int op = directives[1] << 26;
+		int funct = (directives.length > 2) ? directives[2] : 0;
+		
+		switch(directives[0])
 		{
-			if (a[i] == -1)
-				continue;
-			if (a[i] < min)
+		case 0: //rd, rs, rt
+			checkOperandCount(mnemonic, operands, 3);
+			return op | (parseRegister(operands.get(1)) << 21) | (parseRegister(operands.get(2)) << 16)
+					  | (parseRegister(operands.get(0)) << 11) | funct;
+		case 1: //rt, rs, imm
+			checkOperandCount(mnemonic, operands, 3);
+			return op | (parseRegister(operands.get(1)) << 21) | (parseRegister(operands.get(0)) << 16)
+					  | immediate16(operands.get(2), seg, index, line);
+		case 2: //target
+			checkOperandCount(mnemonic, operands, 1);
+			if (relocate(operands.get(0), Relocation.JUMP26, seg, index, line))
+				return op;
+			return op | ((evaluate(operands.get(0)) >>> 2) & 0x03FFFFFF);
+		case 3: //rd, rt, shamt
+			checkOperandCount(mnemonic, operands, 3);
+			int shamt = evaluate(operands.get(2));
+			if (shamt < 0 || shamt > 31)
+				throw new AssemblerError(ErrorID.IMMEDIATE_OUT_OF_RANGE, operands.get(2));
+			return op | (parseRegister(operands.get(1)) << 16) | (parseRegister(operands.get(0)) << 11)
+					  | (shamt << 6) | funct;
+		case 4: //rt, offset(rs)
+			checkOperandCount(mnemonic, operands, 2);
+			String arg = operands.get(1);
+			int open = arg.lastIndexOf('(');
+			if (open == -1 || arg.charAt(arg.length() - 1) != ')')
+				throw new AssemblerError(ErrorID.OPERAND_INVALID, arg);
+			int offset = (open == 0) ? 0 : immediate16(arg.substring(0, open), seg, index, line);
+			return op | (parseRegister(arg.substring(open + 1, arg.length() - 1)) << 21)
+					  | (parseRegister(operands.get(0)) << 16) | offset;
+		case 5: //rs, rt, label
+			checkOperandCount(mnemonic, operands, 3);
+			Expression.Reference target = expression(operands.get(2)).resolve(symTbl);
+			int targetAddress = target.addend;
+			if (target.symbol != null)
 			{
-				min = a[i];
-				result = i;
+				int[] symbol = symTbl.get(target.symbol);
+				if (symbol == null || symbol[1] != seg)
+				{
+					relocations.add(new Relocation(Relocation.BRANCH16, seg, index, target.symbol, target.addend, line));
+					return op | (parseRegister(operands.get(0)) << 21) | (parseRegister(operands.get(1)) << 16);
+				}
+				targetAddress += symbol[0]; //The distance does not change when the module is placed.
 			}
+			int address = CompiledProgram.getSegmentStartAddress(seg) + (index << 2);
+			int distance = (targetAddress - (address + 4)) >> 2;
+			if (distance < Short.MIN_VALUE || distance > Short.MAX_VALUE)
+				throw new AssemblerError(ErrorID.BRANCH_OUT_OF_RANGE, operands.get(2));
+			return op | (parseRegister(operands.get(0)) << 21) | (parseRegister(operands.get(1)) << 16)
+					  | (distance & 0xFFFF);
+		case 6: //rs
+			checkOperandCount(mnemonic, operands, 1);
+			return op | (parseRegister(operands.get(0)) << 21) | funct;
+		case 7: //rd
+			checkOperandCount(mnemonic, operands, 1);
+			return op | (parseRegister(operands.get(0)) << 11) | funct;
+		case 8: //rs, rt
+			checkOperandCount(mnemonic, operands, 2);
+			return op | (parseRegister(operands.get(0)) << 21) | (parseRegister(operands.get(1)) << 16) | funct;
+		case 9: //rt, imm
+			checkOperandCount(mnemonic, operands, 2);
+			return op | (parseRegister(operands.get(0)) << 16) | immediate16(operands.get(1), seg, index, line);
+		case 11: //rd, rt, rs
+			checkOperandCount(mnemonic, operands, 3);
+			return op | (parseRegister(operands.get(2)) << 21) | (parseRegister(operands.get(1)) << 16)
+					  | (parseRegister(operands.get(0)) << 11) | funct;
+		case 10: //no operands; the CO bit is set
+			checkOperandCount(mnemonic, operands, 0);
+			return op | (1 << 25) | funct;
+		default:
+			throw new AssemblerError(ErrorID.INSTRUCTION_INVALID, mnemonic);
 		}
-		return min == Integer.MAX_VALUE ? -1 : result;
+	}
+	
+	private static void checkOperandCount(String mnemonic, List<String> operands, int count) throws AssemblerError
+	{
+		if (operands.size() != count)
+			throw new AssemblerError(ErrorID.OPERAND_COUNT_INVALID, mnemonic);
+	}
+	
+	private static int parseRegister(String register) throws AssemblerError
+	{
+		int result = InstructionSet.getRegisterNumber(register);
+		if (result == -1)
+			throw new AssemblerError(ErrorID.REGISTER_INVALID, register);
+		return result;
+	}
+	
+	/**
+	 * Evaluates an operand which must fit into the 16-bit immediate field.
+	 * Both signed (-32768 to 32767) and unsigned (0 to 65535) values are accepted,
+	 * since whether the immediate is sign-extended depends on the instruction.
+	 * If the operand is a label, a relocation is recorded instead.
+	 * @param arg the operand
+	 * @param seg the segment of the instruction
+	 * @param index the number of the instruction within its segment
+	 * @param line the line the instruction is on
+	 * @return the low 16 bits of its value, or 0 if it must be relocated
+	 * @throws AssemblerError
+	 */
+	private int immediate16(String arg, int seg, int index, int line) throws AssemblerError
+	{
+		if (relocate(arg, Relocation.IMM16, seg, index, line))
+			return 0;
+		int value = evaluate(arg);
+		if (value < Short.MIN_VALUE || value > 0xFFFF)
+			throw new AssemblerError(ErrorID.IMMEDIATE_OUT_OF_RANGE, arg);
+		return value & 0xFFFF;
+	}
+	
+	/**
+	 * Separates the operands of a statement. The tokenizer splits only on whitespace, so
+	 * a single token may contain several operands ("$t1,$t2,") or part of one.
+	 * @param tokens the tokens following the mnemonic
+	 * @return the operands, without commas or whitespace
+	 */
+	static ArrayList<String> splitOperands(List<String> tokens)
+	{
+		StringBuilder joined = new StringBuilder();
+		for(String token : tokens)
+			joined.append(token);
+		
+		ArrayList<String> result = new ArrayList<>();
+		if (joined.length() == 0)
+			return result;
+		for(String operand : joined.toString().split(",", -1))
+			result.add(operand.trim());
+		return result;
+	}
+	
+	/**
+	 * Parses an operand, or finds it among the operands already parsed.
+	 * @param arg the operand
+	 * @return its expression tree
+	 * @throws AssemblerError if the operand is not a valid expression
+	 */
+	private Expression expression(String arg) throws AssemblerError
+	{
+		Expression result = expressions.get(arg);
+		if (result == null)
+		{
+			result = Expression.parse(arg);
+			expressions.put(arg, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Records a relocation if the value of an operand depends on the address of a label.
+	 * Labels not defined in this file are assumed to be defined in another; if they are not, 
+	 * the Linker reports the error.
+	 * @param arg the operand
+	 * @param type the type of relocation, if the operand has no [HI]/[HA]/[LO] postfix
+	 * @param seg the segment of the instruction
+	 * @param index the number of the instruction within its segment
+	 * @param line the line the instruction is on
+	 * @return whether a relocation was recorded
+	 * @throws AssemblerError if the operand is invalid, or is not a label plus a constant
+	 */
+	private boolean relocate(String arg, int type, int seg, int index, int line) throws AssemblerError
+	{
+		Expression e = expression(arg);
+		Expression.Reference reference = e.resolve(symTbl);
+		if (reference.symbol == null)
+			return false;
+		
+		if (e.kind == Expression.HI)
+			type = Relocation.HI16;
+		else if (e.kind == Expression.HA)
+			type = Relocation.HA16;
+		else if (e.kind == Expression.LO)
+			type = Relocation.LO16;
+		relocations.add(new Relocation(type, seg, index, reference.symbol, reference.addend, line));
+		return true;
+	}
+	
+	/**
+	 * Evaluates an integer operand. See Expression for the syntax.
+	 * @param arg the operand
+	 * @return its value
+	 * @throws AssemblerError if the operand is invalid or a symbol is not defined
+	 */
+	private int evaluate(String arg) throws AssemblerError
+	{
+		return expression(arg).evaluate(symTbl);
+	}
+	
+	/**
+	 * Parses an integer literal: decimal, or hexadecimal with a 0x prefix. A leading zero does not make
+	 * a literal octal (010 is ten). Literals may use all 32 bits (eg. 0xFFFFFFFF or 4294967295).
+	 * @param literal the literal
+	 * @return its value, or null if it is not an integer literal
+	 * @throws AssemblerError if the literal does not fit in 32 bits
+	 */
+	static Integer parseLiteral(String literal) throws AssemblerError
+	{
+		int radix = 10;
+		String digits = literal;
+		if (literal.startsWith("0x") || literal.startsWith("0X"))
+		{
+			radix = 16;
+			digits = literal.substring(2);
+		}
+		if (digits.isEmpty())
+			return null;
+		long value = 0;
+		for(int i = 0; i < digits.length(); i++)
+		{
+			int digit = Character.digit(digits.charAt(i), radix);
+			if (digit < 0)
+				return null;
+			value = value * radix + digit;
+			if (value > 0xFFFFFFFFL)
+				throw new AssemblerError(ErrorID.LITERAL_OUT_OF_RANGE, literal);
+		}
+		return (int) value;
+	}
+	
+	/**
+	 * Determines whether an argument to a pseudoinstruction needs a full 32 bits, or 
+	 * can be placed in a (zero-extended) 16-bit immediate field.
+	 * Since this is called during the first pass, a label which has not yet been defined
+	 * is assumed to need all 32 bits, as do negative values.
+	 * @param arg the argument
+	 * @return true if the argument cannot be represented as a zero-extended 16-bit immediate
+	 * @throws AssemblerError if the argument is not a valid expression
+	 */
+	public boolean isInt32(String arg) throws AssemblerError
+	{
+		Expression e = expression(arg);
+		if (e.isPostfix())
+			return false;
+		if ( ! e.isDefined(symTbl))
+			return true;
+		int value = e.evaluate(symTbl);
+		return (value < 0 || value > 0xFFFF);
+	}
+	
+	/**
+	 * Determines whether the address given to a load or store can be its (sign-extended) 16-bit offset
+	 * from $zero, or needs its upper half in $at. As in isInt32(), a label which has not yet been defined
+	 * is assumed to need the upper half.
+	 * @param arg the argument
+	 * @return true if the argument is from -32768 to 32767
+	 * @throws AssemblerError if the argument is not a valid expression
+	 */
+	private boolean isSignedInt16(String arg) throws AssemblerError
+	{
+		Expression e = expression(arg);
+		if (e.isPostfix())
+			return true;
+		if ( ! e.isDefined(symTbl))
+			return false;
+		int value = e.evaluate(symTbl);
+		return (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE);
+	}
+	
+	private static int[] toIntArray(ArrayList<Integer> list)
+	{
+		int[] result = new int[list.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = list.get(i);
+		return result;
+	}
+	
+	private static byte[] toByteArray(ArrayList<Byte> list)
+	{
+		byte[] result = new byte[list.size()];
+		for(int i = 0; i < result.length; i++)
+			result[i] = list.get(i);
+		return result;
 	}
 	
 	/**
@@ -473,7 +880,7 @@ public class Assembler {
 	 * @param toWhich the new segment
 	 * @throws AssemblerError if segment was already completed
 	 */
-	private static void switchSeg(int toWhich) throws AssemblerError
+	private void switchSeg(int toWhich) throws AssemblerError
 	{
 		if (segComplete[toWhich])
 			throw new AssemblerError(ErrorID.SEG_DECLARED_TWICE);
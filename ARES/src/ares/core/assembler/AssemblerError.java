@@ -20,6 +20,17 @@ public class AssemblerError extends Exception {
 		CONST_NOT_INTEGER,
 		SPACE_NEGATIVE,
 		SPACE_ARG_INVALID,
+		INSTRUCTION_INVALID,
+		OPERAND_COUNT_INVALID,
+		OPERAND_INVALID,
+		REGISTER_INVALID,
+		SYMBOL_UNDEFINED,
+		IMMEDIATE_OUT_OF_RANGE,
+		BRANCH_OUT_OF_RANGE,
+		GLOBAL_DEFINED_TWICE,
+		EXPRESSION_INVALID,
+		EXPRESSION_NOT_RELOCATABLE,
+		LITERAL_OUT_OF_RANGE,
 	}
 	
 	
@@ -76,6 +87,11 @@ public class AssemblerError extends Exception {
 		return result;
 	}
 	
+	public ErrorID getErrorID()
+	{
+		return errID;
+	}
+	
 	public String getErrorMessage()
 	{
 		String result = "";
@@ -97,6 +113,30 @@ public class AssemblerError extends Exception {
 			return result + "Arguments for pseudoinstructions may only be integers or registers.";
 		case LITERAL_POSTFIX_INVALID:
 			return result + "Unrecognized postfix in integer literal: " + errDetail;
+		case CONST_NOT_INTEGER:
+			return result + "Value of .const must be an integer.";
+		case INSTRUCTION_INVALID:
+			return result + "Unrecognized instruction or directive: " + errDetail;
+		case OPERAND_COUNT_INVALID:
+			return result + "Wrong number of operands for " + errDetail + ".";
+		case OPERAND_INVALID:
+			return result + "Operand is not of the form offset($register): " + errDetail;
+		case REGISTER_INVALID:
+			return result + "Unrecognized register: " + errDetail;
+		case SYMBOL_UNDEFINED:
+			return result + "Undefined label or constant: " + errDetail;
+		case IMMEDIATE_OUT_OF_RANGE:
+			return result + "Immediate value does not fit in the instruction: " + errDetail;
+		case BRANCH_OUT_OF_RANGE:
+			return result + "Branch target is too far away: " + errDetail;
+		case GLOBAL_DEFINED_TWICE:
+			return result + "Global label defined in more than one file: " + errDetail;
+		case EXPRESSION_INVALID:
+			return result + "Invalid expression: " + errDetail;
+		case EXPRESSION_NOT_RELOCATABLE:
+			return result + "Expression must be a label plus or minus a constant: " + errDetail;
+		case LITERAL_OUT_OF_RANGE:
+			return result + "Integer literal does not fit in 32 bits: " + errDetail;
 		default:
 			return result + "<unknown error: " + errID.name() + ">";	
 		}
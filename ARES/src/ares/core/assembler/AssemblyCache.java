@@ -0,0 +1,261 @@
+package ares.core.assembler;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An on-disk cache of object modules, so that a source file which has not changed
+ * need not be tokenized or assembled again.
+ * <p>
+ * Each module is stored in its own file, named by the SHA-256 hash of the assembler version,
+ * the options it was assembled with, the name of the source file and the contents of the file.
+ * The directory may be shared by several JVMs: entries are written to a temporary file and
+ * renamed into place, so a reader never sees a partial entry, and an entry which cannot be read,
+ * or whose checksum (a CRC-32 of the rest of the entry) does not match, is simply treated as a miss.
+ * <p>
+ * The total size of the entries is bounded. Every hit updates the entry's modification time,
+ * and when the bound is exceeded the entries least recently used are deleted.
+ * @author James Hester
+ *
+ */
+public class AssemblyCache
+{
+	private static final int MAGIC = 0x41524543; //"AREC"
+	private static final String SUFFIX = ".obj";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String LOCK_FILENAME = "evict.lock";
+	/** A temporary file this old was left by a JVM which died before renaming it into place. */
+	private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+	private File directory;
+	private long maxBytes;
+
+	/**
+	 * @param directory the directory holding the cache; created if it does not exist
+	 * @param maxBytes the maximum total size of the entries
+	 */
+	public AssemblyCache(File directory, long maxBytes)
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		directory.mkdirs();
+	}
+
+	/**
+	 * Looks up the module assembled from a source file.
+	 * @param source the contents of the file
+	 * @param filename the name of the file
+	 * @param options the options the file is to be assembled with
+	 * @return the module, or null if it is not in the cache
+	 */
+	ObjectModule get(byte[] source, String filename, String options)
+	{
+		File entry = new File(directory, key(source, filename, options) + SUFFIX);
+		if ( ! entry.isFile())
+			return null;
+		try
+		{
+			ObjectModule module;
+			CheckedInputStream checked = new CheckedInputStream(
+					new BufferedInputStream(Files.newInputStream(entry.toPath())), new CRC32());
+			DataInputStream in = new DataInputStream(checked);
+			try
+			{
+				if (in.readInt() != MAGIC)
+					throw new IOException("Not a cache entry: " + entry);
+				module = ObjectModule.read(in, entry.length());
+				long checksum = checked.getChecksum().getValue();
+				if (in.readLong() != checksum)
+					throw new IOException("Damaged cache entry: " + entry);
+			}
+			finally
+			{
+				in.close();
+			}
+			Files.setLastModifiedTime(entry.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+			return module;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			//Evicted by another JVM while we were reading it, or damaged. Either way, it is a miss.
+			entry.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the module assembled from a source file, then evicts entries if the cache is too large.
+	 * Failure to write the entry is ignored.
+	 * @param source the contents of the file
+	 * @param filename the name of the file
+	 * @param options the options the file was assembled with
+	 * @param module the module
+	 */
+	void put(byte[] source, String filename, String options, ObjectModule module)
+	{
+		String key = key(source, filename, options);
+		File entry = new File(directory, key + SUFFIX);
+		try
+		{
+			File temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+			try
+			{
+				CheckedOutputStream checked = new CheckedOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(temp.toPath())), new CRC32());
+				DataOutputStream out = new DataOutputStream(checked);
+				try
+				{
+					out.writeInt(MAGIC);
+					module.write(out);
+					out.writeLong(checked.getChecksum().getValue());
+				}
+				finally
+				{
+					out.close();
+				}
+				try
+				{
+					Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (AtomicMoveNotSupportedException e)
+				{
+					Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			finally
+			{
+				temp.delete();
+			}
+		}
+		catch (IOException e)
+		{
+			return;
+		}
+		evict();
+	}
+
+	/**
+	 * Deletes stale temporary files, then the entries least recently used until the cache is within its
+	 * size bound. Temporary files still being written count towards the bound.
+	 * Only one JVM evicts at a time; if another holds the lock, this one leaves the work to it.
+	 */
+	private void evict()
+	{
+		File[] entries = directory.listFiles();
+		if (entries == null)
+			return;
+		long total = 0;
+		long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+		for(File entry : entries)
+		{
+			if (entry.getName().endsWith(SUFFIX))
+				total += entry.length();
+			else if (entry.getName().endsWith(TEMP_SUFFIX))
+			{
+				long length = entry.length();
+				if (entry.lastModified() >= staleBefore || ! entry.delete())
+					total += length;
+			}
+		}
+		if (total <= maxBytes)
+			return;
+
+		try
+		{
+			RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILENAME), "rw");
+			try
+			{
+				FileLock lock;
+				try
+				{
+					lock = lockFile.getChannel().tryLock();
+				}
+				catch (OverlappingFileLockException e)
+				{
+					return; //Another thread of this JVM is evicting.
+				}
+				if (lock == null)
+					return;
+
+				final long[] lastModified = new long[entries.length];
+				Integer[] order = new Integer[entries.length];
+				for(int i = 0; i < entries.length; i++)
+				{
+					lastModified[i] = entries[i].lastModified();
+					order[i] = i;
+				}
+				Arrays.sort(order, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer a, Integer b)
+					{
+						return Long.compare(lastModified[a], lastModified[b]);
+					}
+				});
+				for(int i = 0; i < order.length && total > maxBytes; i++)
+				{
+					File entry = entries[order[i]];
+					if ( ! entry.getName().endsWith(SUFFIX))
+						continue;
+					long length = entry.length();
+					if (entry.delete())
+						total -= length;
+				}
+				lock.release();
+			}
+			finally
+			{
+				lockFile.close();
+			}
+		}
+		catch (IOException e)
+		{
+			return;
+		}
+	}
+
+	/**
+	 * @return the hexadecimal SHA-256 hash identifying a source file assembled with some options
+	 */
+	private static String key(byte[] source, String filename, String options)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e); //Every Java platform is required to support SHA-256.
+		}
+		Charset utf8 = Charset.forName("UTF-8");
+		for(String part : new String[]{Assembler.VERSION, options, filename})
+		{
+			digest.update(part.getBytes(utf8));
+			digest.update((byte) 0);
+		}
+		digest.update(source);
+
+		StringBuilder result = new StringBuilder();
+		for(byte b : digest.digest())
+			result.append(String.format("%02x", b & 0xFF));
+		return result.toString();
+	}
+}
@@ -0,0 +1,234 @@
+package ares.core.assembler;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ares.core.CompiledProgram;
+import ares.core.HazardModel;
+import ares.core.assembler.ObjectModule.Relocation;
+
+/**
+ * Static class which replaces the nops in the delay slots of branches and jumps with useful instructions.
+ * <p>
+ * First, an instruction from before a branch or jump is moved into its delay slot, if the branch or jump
+ * does not depend on it and no instruction between them depends on it (see Scheduler.isDependent()).
+ * The nop is removed, so the program becomes an instruction shorter. Since the delay slot is executed
+ * whether or not a branch is taken, this is safe for any branch or jump. Of the instructions which may be
+ * moved, the one adding the fewest stalls according to HazardModel (in the block, and at the start of the
+ * blocks which may follow it) is chosen; none is moved if it would add a stall.
+ * <p>
+ * Then, the delay slot of a j or jal whose target is a label in the same segment is filled with a copy
+ * of the instruction at the target, and the target is moved to the next instruction. The program does
+ * not become shorter, but one fewer instruction is executed each time the jump is taken. (The delay
+ * slot of a conditional branch is not filled this way, as the instruction would also be executed when
+ * the branch is not taken.)
+ * @author James Hester
+ *
+ */
+final class DelaySlotFiller
+{
+	private DelaySlotFiller()
+	{
+	}
+
+	/**
+	 * Fills the delay slots in the text and ktext segments of a module, in place.
+	 * @param module the module
+	 * @param forwarding whether the program will be simulated with forwarding enabled
+	 * @return the number of delay slots filled
+	 */
+	static int fill(ObjectModule module, boolean forwarding)
+	{
+		int filled = 0;
+		for(int seg = 0; seg <= 2; seg += 2)
+		{
+			if (module.textSegs[seg / 2].length == 0)
+				continue;
+			filled += fillFromBefore(module, seg, forwarding);
+			filled += fillFromTarget(module, seg);
+		}
+		return filled;
+	}
+
+	/**
+	 * @return whether the instruction at an index is a branch or jump with a nop in its delay slot, which
+	 * 			is not itself in a delay slot, and no label is on the delay slot
+	 */
+	private static boolean hasEmptySlot(int[] words, boolean[] leaders, int index)
+	{
+		return HazardModel.isControlTransfer(words[index]) && index + 1 < words.length && words[index + 1] == 0
+				&& ! leaders[index + 1] && ! (index > 0 && HazardModel.isControlTransfer(words[index - 1]));
+	}
+
+	private static int fillFromBefore(ObjectModule module, int seg, boolean forwarding)
+	{
+		int[] words = module.textSegs[seg / 2];
+		boolean[] leaders = Optimizer.findLeaders(module, seg);
+		int[] targets = findTargets(module, seg);
+		/* moveTo[i] is the delay slot instruction i is moved to, or -1; fillFrom is the reverse. */
+		int[] moveTo = new int[words.length], fillFrom = new int[words.length];
+		Arrays.fill(moveTo, -1);
+		Arrays.fill(fillFrom, -1);
+		int filled = 0;
+
+		int start = 0;
+		for(int branch = 0; branch < words.length; branch++)
+		{
+			if (leaders[branch])
+				start = branch;
+			if ( ! hasEmptySlot(words, leaders, branch))
+				continue;
+			int first = start;
+			if (first > 0 && HazardModel.isControlTransfer(words[first - 1]))
+				first++; //The block begins with a delay slot.
+
+			int[] successors = {branch + 2, targets[branch]};
+			int stallsBefore = stalls(words, start, branch, -1, successors, forwarding);
+			int best = -1, bestStalls = stallsBefore;
+			for(int candidate = branch - 1; candidate >= first; candidate--)
+			{
+				if ( ! canMoveIntoSlot(words, candidate, branch))
+					continue;
+				int stalls = stalls(words, start, branch, candidate, successors, forwarding);
+				if (stalls < bestStalls || (best == -1 && stalls == bestStalls))
+				{
+					best = candidate;
+					bestStalls = stalls;
+				}
+			}
+			if (best != -1)
+			{
+				moveTo[best] = branch + 1;
+				fillFrom[branch + 1] = best;
+				filled++;
+			}
+		}
+		if (filled == 0)
+			return 0;
+
+		int[] order = new int[words.length - filled];
+		int n = 0;
+		for(int i = 0; i < words.length; i++)
+		{
+			if (moveTo[i] == -1)
+				order[n++] = (fillFrom[i] != -1) ? fillFrom[i] : i;
+		}
+		Optimizer.rearrange(module, seg, order);
+		return filled;
+	}
+
+	/**
+	 * @return whether the instruction at candidate may be moved into the delay slot of the branch or jump
+	 * 			at branch, in the same basic block
+	 */
+	private static boolean canMoveIntoSlot(int[] words, int candidate, int branch)
+	{
+		int word = words[candidate];
+		if (word == 0 || ! Scheduler.isMovable(word))
+			return false;
+		for(int i = candidate + 1; i < branch; i++)
+		{
+			if (Scheduler.isDependent(word, words[i]))
+				return false;
+		}
+		long writes = Scheduler.registersWritten(word);
+		return (writes & (Scheduler.registersRead(words[branch]) | Scheduler.registersWritten(words[branch]))) == 0
+				&& (Scheduler.registersRead(word) & Scheduler.registersWritten(words[branch])) == 0;
+	}
+
+	/**
+	 * Predicts the stall cycles of a basic block, from its start through the delay slot of the branch ending it,
+	 * and of the first two instructions executed after it on each path out of it.
+	 * @param moved the instruction moved into the delay slot, or -1 for the block as it is
+	 * @param successors the indices of the instructions which may follow the delay slot, or -1 if unknown
+	 */
+	private static int stalls(int[] words, int start, int branch, int moved, int[] successors, boolean forwarding)
+	{
+		HazardModel.Timeline timeline = new HazardModel.Timeline(forwarding);
+		for(int i = start; i <= branch; i++)
+		{
+			if (i != moved)
+				timeline.issue(words[i]);
+		}
+		timeline.issue(words[(moved == -1) ? branch + 1 : moved]);
+		int result = (int) timeline.getStalls();
+		for(int successor : successors)
+		{
+			HazardModel.Timeline path = timeline.clone();
+			for(int i = successor; i >= 0 && i < successor + 2 && i < words.length; i++)
+				result += path.issue(words[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return for each branch or jump in a segment, the index of its target if it is in the segment, or -1
+	 */
+	private static int[] findTargets(ObjectModule module, int seg)
+	{
+		int[] words = module.textSegs[seg / 2];
+		int start = CompiledProgram.getSegmentStartAddress(seg);
+		int[] targets = new int[words.length];
+		Arrays.fill(targets, -1);
+		boolean[] relocated = new boolean[words.length];
+		for(Relocation r : module.relocations)
+		{
+			if (r.segment != seg)
+				continue;
+			relocated[r.index] = true;
+			int[] symbol = module.symbols.get(r.symbol);
+			if ((r.type == Relocation.JUMP26 || r.type == Relocation.BRANCH16) && symbol != null && symbol[1] == seg)
+				targets[r.index] = (symbol[0] + r.addend - start) >> 2;
+		}
+		for(int i = 0; i < words.length; i++)
+		{
+			if (HazardModel.isBranch(words[i]) && ! relocated[i])
+				targets[i] = i + 1 + (short) words[i];
+		}
+		return targets;
+	}
+
+	private static int fillFromTarget(ObjectModule module, int seg)
+	{
+		int[] words = module.textSegs[seg / 2];
+		boolean[] leaders = Optimizer.findLeaders(module, seg);
+		int start = CompiledProgram.getSegmentStartAddress(seg);
+		ArrayList<ArrayList<Relocation>> relocationsAt = new ArrayList<>(words.length);
+		for(int i = 0; i < words.length; i++)
+			relocationsAt.add(null);
+		for(Relocation r : module.relocations)
+		{
+			if (r.segment != seg)
+				continue;
+			if (relocationsAt.get(r.index) == null)
+				relocationsAt.set(r.index, new ArrayList<Relocation>(1));
+			relocationsAt.get(r.index).add(r);
+		}
+
+		int filled = 0;
+		for(int jump = 0; jump < words.length; jump++)
+		{
+			int opcode = words[jump] >>> 26;
+			if ((opcode != 0x02 && opcode != 0x03) || ! hasEmptySlot(words, leaders, jump) || relocationsAt.get(jump) == null)
+				continue;
+			Relocation r = relocationsAt.get(jump).get(0);
+			int[] symbol = module.symbols.get(r.symbol);
+			if (symbol == null || symbol[1] != seg)
+				continue;
+			int target = (symbol[0] + r.addend - start) >> 2;
+			if (target < 0 || target >= words.length || words[target] == 0 || ! Scheduler.isMovable(words[target])
+					|| (target > 0 && HazardModel.isControlTransfer(words[target - 1])))
+				continue;
+
+			words[jump + 1] = words[target];
+			module.relocations.remove(r);
+			module.relocations.add(new Relocation(r.type, r.segment, r.index, r.symbol, r.addend + 4, r.line));
+			if (relocationsAt.get(target) != null)
+			{
+				for(Relocation copied : relocationsAt.get(target))
+					module.relocations.add(new Relocation(copied.type, copied.segment, jump + 1, copied.symbol, copied.addend, copied.line));
+			}
+			filled++;
+		}
+		return filled;
+	}
+}
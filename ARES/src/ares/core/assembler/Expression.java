@@ -0,0 +1,436 @@
+package ares.core.assembler;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static ares.core.assembler.AssemblerError.ErrorID;
+
+/**
+ * An integer operand, parsed into a tree. Operands may combine integer literals, labels and
+ * .consts with the operators + - * / and parentheses, and may end with the postfix [HI], [HA] or [LO],
+ * which applies to the whole expression. [HI] is the upper 16 bits; [HA] is the upper 16 bits adjusted for
+ * the sign extension of [LO], so that [HA] shifted left 16 bits plus [LO] sign-extended is the value (as
+ * when [LO] is the offset of a load or store):
+ * <pre>
+ * 	operand := sum [ "[HI]" | "[HA]" | "[LO]" ]
+ * 	sum     := product { ("+" | "-") product }
+ * 	product := unary { ("*" | "/") unary }
+ * 	unary   := ("-" | "+") unary | literal | symbol | "(" sum ")"
+ * </pre>
+ * Subexpressions which consist only of literals are folded into a single node as the tree is built.
+ * Arithmetic is 32-bit, as on the processor.
+ * @author James Hester
+ *
+ */
+final class Expression
+{
+	static final int NUMBER = 0, SYMBOL = 1, NEGATE = 2, ADD = 3, SUBTRACT = 4, MULTIPLY = 5, DIVIDE = 6, HI = 7, LO = 8, HA = 9;
+
+	final int kind;
+	/** The value of a NUMBER. */
+	final int value;
+	/** The name of a SYMBOL. */
+	final String symbol;
+	/** The operands of an operator; right is null for NEGATE, HI, HA and LO. */
+	final Expression left, right;
+
+	/**
+	 * The result of splitting an expression for relocation: its value is the address of the
+	 * label plus the addend.
+	 */
+	static final class Reference
+	{
+		/** The label, or null if the value of the expression does not depend on where the module is placed. */
+		final String symbol;
+		final int addend;
+
+		Reference(String symbol, int addend)
+		{
+			this.symbol = symbol;
+			this.addend = addend;
+		}
+	}
+
+	private Expression(int kind, int value, String symbol, Expression left, Expression right)
+	{
+		this.kind = kind;
+		this.value = value;
+		this.symbol = symbol;
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Parses an operand.
+	 * @param text the operand
+	 * @return the tree, with constant subexpressions folded
+	 * @throws AssemblerError if the operand is not a valid expression
+	 */
+	static Expression parse(String text) throws AssemblerError
+	{
+		return new Parser(text).parseOperand();
+	}
+
+	/**
+	 * Evaluates the expression, taking labels to have the values given in the symbol table.
+	 * @param symbols the symbol table (see Assembler.symTbl)
+	 * @return the value
+	 * @throws AssemblerError if a symbol is undefined, or the expression divides by zero
+	 */
+	int evaluate(HashMap<String, int[]> symbols) throws AssemblerError
+	{
+		switch(kind)
+		{
+		case NUMBER:
+			return value;
+		case SYMBOL:
+			int[] entry = symbols.get(symbol);
+			if (entry == null)
+				throw new AssemblerError(ErrorID.SYMBOL_UNDEFINED, symbol);
+			return entry[0];
+		case NEGATE:
+			return -left.evaluate(symbols);
+		case ADD:
+			return left.evaluate(symbols) + right.evaluate(symbols);
+		case SUBTRACT:
+			return left.evaluate(symbols) - right.evaluate(symbols);
+		case MULTIPLY:
+			return left.evaluate(symbols) * right.evaluate(symbols);
+		case DIVIDE:
+			return divide(left.evaluate(symbols), right.evaluate(symbols));
+		case HI:
+			return left.evaluate(symbols) >>> 16;
+		case HA:
+			return (left.evaluate(symbols) + 0x8000) >>> 16;
+		case LO:
+		default:
+			return left.evaluate(symbols) & 0xFFFF;
+		}
+	}
+
+	/**
+	 * @return whether the expression ends with a [HI], [HA] or [LO] postfix
+	 */
+	boolean isPostfix()
+	{
+		return kind == HI || kind == HA || kind == LO;
+	}
+
+	/**
+	 * @param symbols the symbol table
+	 * @return whether every symbol the expression refers to is defined
+	 */
+	boolean isDefined(HashMap<String, int[]> symbols)
+	{
+		switch(kind)
+		{
+		case NUMBER:
+			return true;
+		case SYMBOL:
+			return symbols.containsKey(symbol);
+		default:
+			return left.isDefined(symbols) && (right == null || right.isDefined(symbols));
+		}
+	}
+
+	/**
+	 * Adds the names of the symbols the expression refers to to a collection.
+	 * @param result the collection
+	 */
+	void addSymbols(Collection<String> result)
+	{
+		if (kind == SYMBOL)
+			result.add(symbol);
+		else if (kind != NUMBER)
+		{
+			left.addSymbols(result);
+			if (right != null)
+				right.addSymbols(result);
+		}
+	}
+
+	/**
+	 * Splits the expression (ignoring any [HI]/[HA]/[LO] postfix) into a label plus an addend.
+	 * The expression must be linear in its labels. .consts, and labels defined in this module
+	 * which cancel out (as in end - start), are folded into the addend.
+	 * @param symbols the symbol table; a label not in it is assumed to be defined in another module
+	 * @return the label and addend
+	 * @throws AssemblerError if the value cannot be expressed as a single label plus a constant
+	 */
+	Reference resolve(HashMap<String, int[]> symbols) throws AssemblerError
+	{
+		Expression e = isPostfix() ? left : this;
+		HashMap<String, Integer> coefficients = new HashMap<>();
+		int addend = e.linearize(symbols, coefficients, 1);
+
+		/*
+		 * Labels in the same segment of this module move together when the module is placed,
+		 * as does an external label with itself. Each such group must have a net coefficient of
+		 * zero, except for at most one group with a net coefficient of one.
+		 */
+		HashMap<Integer, Integer> segmentSums = new HashMap<>();
+		HashMap<Integer, String> segmentLabels = new HashMap<>();
+		String result = null;
+		for(Map.Entry<String, Integer> term : coefficients.entrySet())
+		{
+			int coefficient = term.getValue();
+			if (coefficient == 0)
+				continue;
+			int[] entry = symbols.get(term.getKey());
+			if (entry == null)
+			{
+				if (coefficient != 1 || result != null)
+					throw new AssemblerError(ErrorID.EXPRESSION_NOT_RELOCATABLE, toString());
+				result = term.getKey();
+				continue;
+			}
+			addend += coefficient * entry[0];
+			Integer sum = segmentSums.get(entry[1]);
+			segmentSums.put(entry[1], (sum == null) ? coefficient : sum + coefficient);
+			segmentLabels.put(entry[1], term.getKey());
+		}
+		for(Map.Entry<Integer, Integer> sum : segmentSums.entrySet())
+		{
+			if (sum.getValue() == 0)
+				continue;
+			if (sum.getValue() != 1 || result != null)
+				throw new AssemblerError(ErrorID.EXPRESSION_NOT_RELOCATABLE, toString());
+			result = segmentLabels.get(sum.getKey());
+			addend -= symbols.get(result)[0];
+		}
+		return new Reference(result, addend);
+	}
+
+	/**
+	 * Adds scale times the coefficient of each label in the expression to coefficients.
+	 * @return scale times the constant part of the expression
+	 */
+	private int linearize(HashMap<String, int[]> symbols, HashMap<String, Integer> coefficients, int scale) throws AssemblerError
+	{
+		switch(kind)
+		{
+		case NUMBER:
+			return scale * value;
+		case SYMBOL:
+			int[] entry = symbols.get(symbol);
+			if (entry != null && entry[1] == 4) //.const
+				return scale * entry[0];
+			Integer old = coefficients.get(symbol);
+			coefficients.put(symbol, (old == null) ? scale : old + scale);
+			return 0;
+		case NEGATE:
+			return left.linearize(symbols, coefficients, -scale);
+		case ADD:
+			return left.linearize(symbols, coefficients, scale) + right.linearize(symbols, coefficients, scale);
+		case SUBTRACT:
+			return left.linearize(symbols, coefficients, scale) + right.linearize(symbols, coefficients, -scale);
+		case MULTIPLY:
+			if (left.isAbsolute(symbols))
+				return right.linearize(symbols, coefficients, scale * left.evaluate(symbols));
+			if (right.isAbsolute(symbols))
+				return left.linearize(symbols, coefficients, scale * right.evaluate(symbols));
+			throw new AssemblerError(ErrorID.EXPRESSION_NOT_RELOCATABLE, toString());
+		default:
+			if (isAbsolute(symbols))
+				return scale * evaluate(symbols);
+			throw new AssemblerError(ErrorID.EXPRESSION_NOT_RELOCATABLE, toString());
+		}
+	}
+
+	/**
+	 * @return whether the expression consists only of literals and .consts
+	 */
+	private boolean isAbsolute(HashMap<String, int[]> symbols)
+	{
+		switch(kind)
+		{
+		case NUMBER:
+			return true;
+		case SYMBOL:
+			int[] entry = symbols.get(symbol);
+			return entry != null && entry[1] == 4;
+		default:
+			return left.isAbsolute(symbols) && (right == null || right.isAbsolute(symbols));
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		switch(kind)
+		{
+		case NUMBER:	return Integer.toString(value);
+		case SYMBOL:	return symbol;
+		case NEGATE:	return "-" + left;
+		case ADD:		return "(" + left + "+" + right + ")";
+		case SUBTRACT:	return "(" + left + "-" + right + ")";
+		case MULTIPLY:	return "(" + left + "*" + right + ")";
+		case DIVIDE:	return "(" + left + "/" + right + ")";
+		case HI:		return left + "[HI]";
+		case HA:		return left + "[HA]";
+		case LO:
+		default:		return left + "[LO]";
+		}
+	}
+
+	private static int divide(int dividend, int divisor) throws AssemblerError
+	{
+		if (divisor == 0)
+			throw new AssemblerError(ErrorID.EXPRESSION_INVALID, "division by zero");
+		return dividend / divisor;
+	}
+
+	/*
+	 * Factories which fold constants.
+	 */
+
+	private static Expression number(int value)
+	{
+		return new Expression(NUMBER, value, null, null, null);
+	}
+
+	private static Expression unary(int kind, Expression operand)
+	{
+		if (operand.kind == NUMBER)
+		{
+			switch(kind)
+			{
+			case NEGATE:	return number(-operand.value);
+			case HI:		return number(operand.value >>> 16);
+			case HA:		return number((operand.value + 0x8000) >>> 16);
+			case LO:		return number(operand.value & 0xFFFF);
+			}
+		}
+		return new Expression(kind, 0, null, operand, null);
+	}
+
+	private static Expression binary(int kind, Expression left, Expression right) throws AssemblerError
+	{
+		if (left.kind == NUMBER && right.kind == NUMBER)
+		{
+			switch(kind)
+			{
+			case ADD:		return number(left.value + right.value);
+			case SUBTRACT:	return number(left.value - right.value);
+			case MULTIPLY:	return number(left.value * right.value);
+			case DIVIDE:	return number(divide(left.value, right.value));
+			}
+		}
+		return new Expression(kind, 0, null, left, right);
+	}
+
+	/**
+	 * A recursive-descent parser for the grammar above.
+	 */
+	private static final class Parser
+	{
+		private final String text;
+		private int position = 0;
+
+		Parser(String text)
+		{
+			this.text = text;
+		}
+
+		Expression parseOperand() throws AssemblerError
+		{
+			Expression result = parseSum();
+			if (peek() == '[')
+			{
+				int close = text.indexOf(']', position);
+				String postfix = (close == -1) ? text.substring(position) : text.substring(position, close + 1);
+				if (postfix.equals("[HI]"))
+					result = unary(HI, result);
+				else if (postfix.equals("[HA]"))
+					result = unary(HA, result);
+				else if (postfix.equals("[LO]"))
+					result = unary(LO, result);
+				else
+					throw new AssemblerError(ErrorID.LITERAL_POSTFIX_INVALID, postfix);
+				position += postfix.length();
+			}
+			if (peek() != 0)
+				throw invalid();
+			return result;
+		}
+
+		private Expression parseSum() throws AssemblerError
+		{
+			Expression result = parseProduct();
+			while(peek() == '+' || peek() == '-')
+			{
+				int kind = (text.charAt(position++) == '+') ? ADD : SUBTRACT;
+				result = binary(kind, result, parseProduct());
+			}
+			return result;
+		}
+
+		private Expression parseProduct() throws AssemblerError
+		{
+			Expression result = parseUnary();
+			while(peek() == '*' || peek() == '/')
+			{
+				int kind = (text.charAt(position++) == '*') ? MULTIPLY : DIVIDE;
+				result = binary(kind, result, parseUnary());
+			}
+			return result;
+		}
+
+		private Expression parseUnary() throws AssemblerError
+		{
+			char c = peek();
+			if (c == '-')
+			{
+				position++;
+				return unary(NEGATE, parseUnary());
+			}
+			if (c == '+')
+			{
+				position++;
+				return parseUnary();
+			}
+			if (c == '(')
+			{
+				position++;
+				Expression result = parseSum();
+				if (peek() != ')')
+					throw invalid();
+				position++;
+				return result;
+			}
+
+			int start = position;
+			while(position < text.length() && isSymbolCharacter(text.charAt(position)))
+				position++;
+			if (start == position)
+				throw invalid();
+			String word = text.substring(start, position);
+			if (Character.isDigit(c))
+			{
+				Integer value = Assembler.parseLiteral(word);
+				if (value == null)
+					throw invalid();
+				return number(value);
+			}
+			return new Expression(SYMBOL, 0, word, null, null);
+		}
+
+		/**
+		 * @return the next character, or 0 at the end of the text
+		 */
+		private char peek()
+		{
+			return (position < text.length()) ? text.charAt(position) : 0;
+		}
+
+		private AssemblerError invalid()
+		{
+			return new AssemblerError(ErrorID.EXPRESSION_INVALID, text);
+		}
+
+		private static boolean isSymbolCharacter(char c)
+		{
+			return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+		}
+	}
+}
@@ -0,0 +1,385 @@
+package ares.core.assembler;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+import ares.core.CompiledProgram;
+import ares.core.assembler.Assembler.Statement;
+import ares.core.assembler.ObjectModule.Relocation;
+import static ares.core.assembler.AssemblerError.ErrorID;
+
+/**
+ * Assembles a single source file which is being edited, keeping the symbol table, the statement
+ * on each line (with its location counter) and the encoded text segments between edits.
+ * <p>
+ * When a line in the text or ktext segment is replaced, only that line is tokenized and encoded.
+ * If its length changes, the statements and labels after it are moved, and the statements which
+ * refer to a moved label (or which are branches that moved) are encoded again.
+ * Anything else--an edit to the data segment, or a line containing a directive--causes the
+ * whole file to be assembled again.
+ * @author James Hester
+ *
+ */
+public class IncrementalAssembler
+{
+	private String filename;
+	private ArrayList<String> lines = new ArrayList<>();
+
+	/** The assembler holding the symbol table; null if the last assembly failed. */
+	private Assembler assembler;
+	/** The last program assembled successfully. */
+	private CompiledProgram program;
+
+	/*
+	 * Per-line tables, indexed by line number - 1.
+	 */
+	/** The segment in effect at the end of each line (4 if no segment has been declared yet). */
+	private int[] lineSegs;
+	/** The statement on each line, or null. */
+	private Statement[] lineStatements;
+
+	/** The line each label is defined on. */
+	private HashMap<String, Integer> labelLines = new HashMap<>();
+	/** For each symbol, the statements which refer to it. */
+	private HashMap<String, HashSet<Statement>> references = new HashMap<>();
+
+	private int[][] textSegs = new int[2][];
+	private byte[][] dataSegs = new byte[2][];
+
+	/**
+	 * @param filename the name of the file (used in error reporting)
+	 * @param source the contents of the file
+	 */
+	public IncrementalAssembler(String filename, String source)
+	{
+		this.filename = filename;
+		lines.addAll(Arrays.asList(source.split("\n", -1)));
+	}
+
+	/**
+	 * Assembles the whole file.
+	 * @return the program
+	 * @throws AssemblerError
+	 */
+	public CompiledProgram assemble() throws AssemblerError
+	{
+		assembler = null;
+		StringBuilder source = new StringBuilder();
+		for(String line : lines)
+			source.append(line).append('\n');
+
+		Assembler a = new Assembler(tokenize(source.toString(), filename));
+		a.doFirstPass();
+		CompiledProgram p = Linker.link(Collections.singletonList(a.assembleModule()));
+		a.drainRelocations();
+
+		lineSegs = new int[lines.size()];
+		lineStatements = new Statement[lines.size()];
+		labelLines.clear();
+		references.clear();
+		int seg = 4;
+		for(int i = 0; i < lines.size(); i++)
+		{
+			for(String token : tokenize(lines.get(i) + '\n', null))
+			{
+				switch(token)
+				{
+				case ".text":	seg = 0; break;
+				case ".data":	seg = 1; break;
+				case ".ktext":	seg = 2; break;
+				case ".kdata":	seg = 3; break;
+				}
+				if (token.charAt(token.length() - 1) == ':')
+				{
+					labelLines.put(token.substring(0, token.length() - 1), i + 1);
+					if (seg == 4)
+						seg = 0;
+				}
+			}
+			lineSegs[i] = seg;
+		}
+		for(Statement statement : a.getStatements())
+		{
+			lineStatements[statement.line - 1] = statement;
+			addReferences(statement);
+		}
+
+		for(int i = 0; i < 2; i++)
+		{
+			textSegs[i] = p.getTextSegment(2 * i);
+			dataSegs[i] = p.getDataSegment(2 * i + 1);
+		}
+		assembler = a;
+		program = p;
+		return program;
+	}
+
+	/**
+	 * @return the last program assembled successfully, or null if there is none
+	 */
+	public CompiledProgram getProgram()
+	{
+		return program;
+	}
+
+	public int getLineCount()
+	{
+		return lines.size();
+	}
+
+	/**
+	 * Replaces a line of the file, and assembles the result.
+	 * @param lineNumber the line to replace (the first line is 1)
+	 * @param text the new contents of the line. If it contains newlines, it replaces the line with several.
+	 * @return the program
+	 * @throws AssemblerError if the edited file does not assemble. The next edit will assemble the whole file.
+	 */
+	public CompiledProgram replaceLine(int lineNumber, String text) throws AssemblerError
+	{
+		String oldText = lines.get(lineNumber - 1);
+		if (text.indexOf('\n') != -1)
+		{
+			lines.remove(lineNumber - 1);
+			lines.addAll(lineNumber - 1, Arrays.asList(text.split("\n", -1)));
+			return assemble();
+		}
+		lines.set(lineNumber - 1, text);
+
+		if (assembler == null)
+			return assemble();
+		try
+		{
+			if ( ! reassembleLine(lineNumber, oldText, text))
+				return assemble();
+		}
+		catch (AssemblerError e)
+		{
+			return assemble(); //Report the error exactly as a full assembly would.
+		}
+		program = new CompiledProgram(textSegs[0], dataSegs[0], textSegs[1], dataSegs[1]);
+		return program;
+	}
+
+	/**
+	 * Attempts to update the program after a line in a text segment was replaced.
+	 * @return false if the edit cannot be handled incrementally
+	 * @throws AssemblerError
+	 */
+	private boolean reassembleLine(int lineNumber, String oldText, String newText) throws AssemblerError
+	{
+		int seg = lineSegs[lineNumber - 1];
+		if (seg % 2 != 0)
+			return false;
+		LinkedList<String> oldTokens = tokenize(oldText + '\n', null);
+		LinkedList<String> newTokens = tokenize(newText + '\n', null);
+		if (hasDirective(oldTokens) || hasDirective(newTokens))
+			return false;
+
+		HashMap<String, int[]> symTbl = assembler.getSymbolTable();
+		for(int i = 0; i < 2; i++)
+			textSegs[i] = textSegs[i].clone(); //The last program returned shares these arrays.
+		Statement oldStatement = lineStatements[lineNumber - 1];
+		int index = (oldStatement != null) ? oldStatement.index : nextIndex(lineNumber, seg);
+		int oldLength = (oldStatement != null) ? oldStatement.length : 0;
+		HashSet<String> changedSymbols = new HashSet<>();
+
+		/*
+		 * Remove the labels defined on the old line, and size the new statement.
+		 */
+		for(String label : removeLabels(oldTokens))
+		{
+			symTbl.remove(label);
+			labelLines.remove(label);
+			changedSymbols.add(label);
+		}
+		ArrayList<String> newLabels = removeLabels(newTokens);
+		Statement newStatement = null;
+		if ( ! newTokens.isEmpty())
+		{
+			if (seg == 4)
+				return false; //The line would begin the text segment.
+			String mnemonic = newTokens.pop();
+			newStatement = assembler.sizeStatement(mnemonic, new ArrayList<>(newTokens), seg, index);
+			newStatement.filename = filename;
+			newStatement.line = lineNumber;
+		}
+		int newLength = (newStatement != null) ? newStatement.length : 0;
+		int delta = newLength - oldLength;
+
+		/*
+		 * Move everything after the line.
+		 */
+		ArrayList<Statement> moved = new ArrayList<>();
+		if (delta != 0)
+		{
+			for(int i = lineNumber; i < lineStatements.length; i++)
+			{
+				if (lineStatements[i] != null && lineStatements[i].seg == seg)
+				{
+					lineStatements[i].index += delta;
+					moved.add(lineStatements[i]);
+				}
+			}
+			for(Map.Entry<String, Integer> label : labelLines.entrySet())
+			{
+				int[] symbol = symTbl.get(label.getKey());
+				if (label.getValue() > lineNumber && symbol != null && symbol[1] == seg)
+				{
+					symbol[0] += delta << 2;
+					changedSymbols.add(label.getKey());
+				}
+			}
+
+			int[] words = textSegs[seg / 2];
+			int[] resized = new int[words.length + delta];
+			System.arraycopy(words, 0, resized, 0, index);
+			System.arraycopy(words, index + oldLength, resized, index + newLength, words.length - index - oldLength);
+			textSegs[seg / 2] = resized;
+		}
+		for(String label : newLabels)
+		{
+			if (seg == 4)
+				return false;
+			symTbl.put(label, new int[]{CompiledProgram.getSegmentStartAddress(seg) + (index << 2), seg});
+			labelLines.put(label, lineNumber);
+			changedSymbols.add(label);
+		}
+
+		if (oldStatement != null)
+			removeReferences(oldStatement);
+		lineStatements[lineNumber - 1] = newStatement;
+		if (newStatement != null)
+			addReferences(newStatement);
+
+		/*
+		 * Encode the new statement, and patch the statements that depend on what moved.
+		 */
+		LinkedHashSet<Statement> dirty = new LinkedHashSet<>();
+		if (newStatement != null)
+			dirty.add(newStatement);
+		for(String symbol : changedSymbols)
+		{
+			if (references.containsKey(symbol))
+				dirty.addAll(references.get(symbol));
+		}
+		for(Statement statement : moved)
+		{
+			if (Assembler.isPCRelative(statement))
+				dirty.add(statement);
+		}
+		for(Statement statement : dirty)
+			encode(statement, symTbl);
+
+		return true;
+	}
+
+	/**
+	 * Encodes a statement, resolves its references to labels immediately, and
+	 * places the result into its text segment.
+	 */
+	private void encode(Statement statement, HashMap<String, int[]> symTbl) throws AssemblerError
+	{
+		int[] words = assembler.encodeStatement(statement);
+		for(Relocation r : assembler.drainRelocations())
+		{
+			int[] symbol = symTbl.get(r.symbol);
+			if (symbol == null)
+				throw new AssemblerError(ErrorID.SYMBOL_UNDEFINED, r.symbol);
+			int address = CompiledProgram.getSegmentStartAddress(r.segment) + (r.index << 2);
+			words[r.index - statement.index] |= Linker.relocationField(r, symbol[0] + r.addend, address);
+		}
+		System.arraycopy(words, 0, textSegs[statement.seg / 2], statement.index, words.length);
+	}
+
+	/**
+	 * Gives the location counter at which a statement on a line without one would be placed:
+	 * that of the next statement in the same segment, or the end of the segment.
+	 */
+	private int nextIndex(int lineNumber, int seg)
+	{
+		for(int i = lineNumber; i < lineStatements.length; i++)
+		{
+			if (lineStatements[i] != null && lineStatements[i].seg == seg)
+				return lineStatements[i].index;
+		}
+		return (seg == 4) ? 0 : textSegs[seg / 2].length;
+	}
+
+	private void addReferences(Statement statement)
+	{
+		for(String symbol : Assembler.symbolsIn(statement))
+		{
+			if ( ! references.containsKey(symbol))
+				references.put(symbol, new HashSet<Statement>());
+			references.get(symbol).add(statement);
+		}
+	}
+
+	private void removeReferences(Statement statement)
+	{
+		for(String symbol : Assembler.symbolsIn(statement))
+		{
+			if (references.containsKey(symbol))
+				references.get(symbol).remove(statement);
+		}
+	}
+
+	/**
+	 * Removes the labels from the start of a tokenized line.
+	 * @return the labels, without their colons
+	 */
+	private static ArrayList<String> removeLabels(LinkedList<String> tokens)
+	{
+		ArrayList<String> result = new ArrayList<>();
+		while( ! tokens.isEmpty() && tokens.peek().charAt(tokens.peek().length() - 1) == ':')
+		{
+			String label = tokens.pop();
+			result.add(label.substring(0, label.length() - 1));
+		}
+		return result;
+	}
+
+	private static boolean hasDirective(LinkedList<String> tokens)
+	{
+		for(String token : tokens)
+		{
+			if (token.charAt(0) == '.')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tokenizes source code held in memory.
+	 * @param source the source code, ending in a newline (the Tokenizer drops a final token not followed by whitespace)
+	 * @param filename the name of the file, or null to omit the filename token and newlines
+	 * @return the tokens
+	 */
+	private static LinkedList<String> tokenize(String source, String filename)
+	{
+		LinkedList<String> tokens;
+		try
+		{
+			tokens = Tokenizer.tokenize(new BufferedReader(new StringReader(source)),
+					(filename == null) ? "" : filename);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e); //Cannot happen when reading from a String.
+		}
+		if (filename == null)
+		{
+			tokens.pop();
+			tokens.removeAll(Collections.singleton("\n"));
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,153 @@
+package ares.core.assembler;
+import java.util.HashMap;
+import java.util.List;
+
+import ares.core.CompiledProgram;
+import ares.core.assembler.ObjectModule.Relocation;
+import static ares.core.assembler.AssemblerError.ErrorID;
+
+/**
+ * Static class which combines object modules into a single program.
+ * <p>
+ * Each segment of the program consists of the corresponding segments of the modules,
+ * placed one after another in the order the modules are given (so the first module's
+ * text segment begins at the start of the text segment). Data segments are word-aligned.
+ * A label referenced by a module is looked up first among that module's own labels,
+ * then among the labels other modules declared with .globl.
+ * @author James Hester
+ *
+ */
+public final class Linker
+{
+	public static CompiledProgram link(List<ObjectModule> modules) throws AssemblerError
+	{
+		/*
+		 * Lay out the segments: bases[m][seg] is the offset, in bytes, of
+		 * module m's part of segment seg from the start of the segment.
+		 */
+		int[][] bases = new int[modules.size()][4];
+		int[] segSizes = new int[4];
+		for(int m = 0; m < modules.size(); m++)
+		{
+			ObjectModule module = modules.get(m);
+			for(int seg = 0; seg < 4; seg++)
+			{
+				bases[m][seg] = segSizes[seg];
+				if (seg % 2 == 0)
+					segSizes[seg] += module.textSegs[seg / 2].length << 2;
+				else
+					segSizes[seg] += (module.dataSegs[seg / 2].length + 3) & ~3;
+			}
+		}
+
+		/*
+		 * Build the global symbol table.
+		 */
+		HashMap<String, Integer> globalSymbols = new HashMap<>();
+		for(int m = 0; m < modules.size(); m++)
+		{
+			ObjectModule module = modules.get(m);
+			for(String name : module.globals)
+			{
+				int[] symbol = module.symbols.get(name);
+				if (symbol == null)
+					continue;
+				if (globalSymbols.containsKey(name))
+				{
+					AssemblerError e = new AssemblerError(ErrorID.GLOBAL_DEFINED_TWICE, name);
+					e.setFileInformation(module.getName(), 0);
+					throw e;
+				}
+				globalSymbols.put(name, relocatedValue(symbol, bases[m]));
+			}
+		}
+
+		/*
+		 * Concatenate the segments and apply the relocations.
+		 */
+		int[][] textSegs = {new int[segSizes[0] >> 2], new int[segSizes[2] >> 2]};
+		byte[][] dataSegs = {new byte[segSizes[1]], new byte[segSizes[3]]};
+		for(int m = 0; m < modules.size(); m++)
+		{
+			ObjectModule module = modules.get(m);
+			for(int i = 0; i < 2; i++)
+			{
+				System.arraycopy(module.textSegs[i], 0, textSegs[i], bases[m][2 * i] >> 2, module.textSegs[i].length);
+				System.arraycopy(module.dataSegs[i], 0, dataSegs[i], bases[m][2 * i + 1], module.dataSegs[i].length);
+			}
+
+			for(Relocation r : module.relocations)
+			{
+				Integer value;
+				int[] symbol = module.symbols.get(r.symbol);
+				if (symbol != null)
+					value = relocatedValue(symbol, bases[m]);
+				else
+					value = globalSymbols.get(r.symbol);
+
+				int index = (bases[m][r.segment] >> 2) + r.index;
+				int address = CompiledProgram.getSegmentStartAddress(r.segment) + (index << 2);
+				try
+				{
+					if (value == null)
+						throw new AssemblerError(ErrorID.SYMBOL_UNDEFINED, r.symbol);
+					textSegs[r.segment / 2][index] |= relocationField(r, value + r.addend, address);
+				}
+				catch (AssemblerError e)
+				{
+					e.setFileInformation(module.getName(), r.line);
+					throw e;
+				}
+			}
+		}
+
+		return new CompiledProgram(textSegs[0], dataSegs[0], textSegs[1], dataSegs[1]);
+	}
+
+	/**
+	 * Gives the final value of a symbol from a module.
+	 * @param symbol the symbol table entry (value, segment ID)
+	 * @param bases the offsets of the module's segments
+	 * @return the value of a constant, or the address of a label
+	 */
+	private static int relocatedValue(int[] symbol, int[] bases)
+	{
+		if (symbol[1] == 4)
+			return symbol[0];
+		return symbol[0] + bases[symbol[1]];
+	}
+
+	/**
+	 * Computes the bits a relocation contributes to an instruction. The instruction
+	 * was assembled with zeroes in that field.
+	 * @param r the relocation
+	 * @param value the address of the label referenced, plus the addend
+	 * @param address the address of the instruction
+	 * @return the field, in place
+	 * @throws AssemblerError if the value does not fit into the field
+	 */
+	static int relocationField(Relocation r, int value, int address) throws AssemblerError
+	{
+		switch(r.type)
+		{
+		case Relocation.HI16:
+			return value >>> 16;
+		case Relocation.HA16:
+			return (value + 0x8000) >>> 16;
+		case Relocation.LO16:
+			return value & 0xFFFF;
+		case Relocation.IMM16:
+			if (value < Short.MIN_VALUE || value > 0xFFFF)
+				throw new AssemblerError(ErrorID.IMMEDIATE_OUT_OF_RANGE, r.symbol);
+			return value & 0xFFFF;
+		case Relocation.JUMP26:
+			return (value >>> 2) & 0x03FFFFFF;
+		case Relocation.BRANCH16:
+		default:
+			int distance = (value - (address + 4)) >> 2;
+			if (distance < Short.MIN_VALUE || distance > Short.MAX_VALUE)
+				throw new AssemblerError(ErrorID.BRANCH_OUT_OF_RANGE, r.symbol);
+			return distance & 0xFFFF;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package ares.core.assembler;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * The result of assembling a single source file: its four segments, assembled as though
+ * each began at the start of its segment, along with everything the Linker needs to
+ * move them elsewhere.
+ * <p>
+ * Every reference to a label (as opposed to a literal or a .const) is recorded as a
+ * relocation, since the address of the label is not known until the modules are linked.
+ * @author James Hester
+ *
+ */
+public class ObjectModule
+{
+	/**
+	 * A reference from an instruction to a label, plus a constant (as in "label+4").
+	 */
+	static class Relocation
+	{
+		/** The upper 16 bits of the address, as produced by the [HI] postfix. */
+		static final int HI16 = 0;
+		/** The lower 16 bits of the address, as produced by the [LO] postfix. */
+		static final int LO16 = 1;
+		/** The whole address, which must fit into the 16-bit immediate field. */
+		static final int IMM16 = 2;
+		/** The 26-bit target field of a J-format instruction. */
+		static final int JUMP26 = 3;
+		/** The PC-relative offset of a branch. */
+		static final int BRANCH16 = 4;
+		/** The upper 16 bits of the address, adjusted for the sign extension of LO16, as produced by the [HA] postfix. */
+		static final int HA16 = 5;
+
+		final int type, segment, index, line, addend;
+		final String symbol;
+
+		/**
+		 * @param type one of HI16, LO16, IMM16, JUMP26, BRANCH16 or HA16
+		 * @param segment the segment of the instruction (0 or 2)
+		 * @param index the number of the instruction within its segment
+		 * @param symbol the label referenced
+		 * @param addend the constant added to the address of the label
+		 * @param line the line of the source file containing the instruction (used in error reporting)
+		 */
+		Relocation(int type, int segment, int index, String symbol, int addend, int line)
+		{
+			this.type = type;
+			this.segment = segment;
+			this.index = index;
+			this.symbol = symbol;
+			this.addend = addend;
+			this.line = line;
+		}
+	}
+
+	private String name;
+	int[][] textSegs;
+	byte[][] dataSegs;
+	/** Labels and constants; see Assembler.symTbl for the format. */
+	HashMap<String, int[]> symbols;
+	/** Labels declared with .globl, which other modules may reference. */
+	HashSet<String> globals;
+	ArrayList<Relocation> relocations;
+
+	ObjectModule(String name, int[][] textSegs, byte[][] dataSegs, HashMap<String, int[]> symbols,
+				 HashSet<String> globals, ArrayList<Relocation> relocations)
+	{
+		this.name = name;
+		this.textSegs = textSegs;
+		this.dataSegs = dataSegs;
+		this.symbols = symbols;
+		this.globals = globals;
+		this.relocations = relocations;
+	}
+
+	/**
+	 * @return the name of the source file this module was assembled from
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Writes the module in the format read by read().
+	 * @param out the stream to write to
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out) throws IOException
+	{
+		out.writeUTF(name);
+		for(int i = 0; i < 2; i++)
+		{
+			out.writeInt(textSegs[i].length);
+			for(int word : textSegs[i])
+				out.writeInt(word);
+			out.writeInt(dataSegs[i].length);
+			out.write(dataSegs[i]);
+		}
+		out.writeInt(symbols.size());
+		for(Map.Entry<String, int[]> symbol : symbols.entrySet())
+		{
+			out.writeUTF(symbol.getKey());
+			out.writeInt(symbol.getValue()[0]);
+			out.writeInt(symbol.getValue()[1]);
+		}
+		out.writeInt(globals.size());
+		for(String global : globals)
+			out.writeUTF(global);
+		out.writeInt(relocations.size());
+		for(Relocation r : relocations)
+		{
+			out.writeByte(r.type);
+			out.writeByte(r.segment);
+			out.writeInt(r.index);
+			out.writeInt(r.line);
+			out.writeInt(r.addend);
+			out.writeUTF(r.symbol);
+		}
+	}
+
+	/**
+	 * Reads a module written by write(). Since the stream may be damaged, every length, segment and
+	 * index is checked before it is used, so that damage is reported as an IOException rather than as
+	 * an enormous allocation or an out-of-bounds index later.
+	 * @param in the stream to read from
+	 * @param limit the most bytes the module can occupy (for example, the size of the file it is read from)
+	 * @return the module
+	 * @throws IOException if the stream ends early or is not in the expected format
+	 */
+	static ObjectModule read(DataInputStream in, long limit) throws IOException
+	{
+		String name = in.readUTF();
+		int[][] textSegs = new int[2][];
+		byte[][] dataSegs = new byte[2][];
+		for(int i = 0; i < 2; i++)
+		{
+			textSegs[i] = new int[readLength(in, limit, 4)];
+			for(int j = 0; j < textSegs[i].length; j++)
+				textSegs[i][j] = in.readInt();
+			dataSegs[i] = new byte[readLength(in, limit, 1)];
+			in.readFully(dataSegs[i]);
+		}
+		HashMap<String, int[]> symbols = new HashMap<>();
+		for(int count = readLength(in, limit, 10); count > 0; count--)
+		{
+			int[] symbol = {0, 0};
+			String symbolName = in.readUTF();
+			symbol[0] = in.readInt();
+			symbol[1] = in.readInt();
+			if (symbol[1] < 0 || symbol[1] > 4)
+				throw new IOException("Invalid segment of symbol " + symbolName);
+			symbols.put(symbolName, symbol);
+		}
+		HashSet<String> globals = new HashSet<>();
+		for(int count = readLength(in, limit, 2); count > 0; count--)
+			globals.add(in.readUTF());
+		ArrayList<Relocation> relocations = new ArrayList<>();
+		for(int count = readLength(in, limit, 16); count > 0; count--)
+		{
+			int type = in.readByte(), segment = in.readByte(), index = in.readInt(), line = in.readInt(), addend = in.readInt();
+			if (type < Relocation.HI16 || type > Relocation.HA16 || (segment != 0 && segment != 2)
+					|| index < 0 || index >= textSegs[segment / 2].length)
+				throw new IOException("Invalid relocation");
+			relocations.add(new Relocation(type, segment, index, in.readUTF(), addend, line));
+		}
+		return new ObjectModule(name, textSegs, dataSegs, symbols, globals, relocations);
+	}
+
+	/**
+	 * Reads the number of elements which follow.
+	 * @param limit the most bytes the module can occupy
+	 * @param minimumBytes the fewest bytes each element occupies
+	 * @throws IOException if that many elements cannot fit
+	 */
+	private static int readLength(DataInputStream in, long limit, int minimumBytes) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0 || (long) length * minimumBytes > limit)
+			throw new IOException("Invalid length: " + length);
+		return length;
+	}
+}
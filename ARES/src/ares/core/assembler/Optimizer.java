@@ -0,0 +1,265 @@
+package ares.core.assembler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ares.core.CompiledProgram;
+import ares.core.HazardModel;
+import ares.core.assembler.ObjectModule.Relocation;
+
+/**
+ * The optional passes the assembler may run over each object module once it is assembled,
+ * and the statistics they report. All passes are disabled by default.
+ * <p>
+ * An Optimizer may be given to ParallelAssembler, which runs it on every module (on the
+ * fork/join pool, so the statistics are accumulated atomically). The passes assume that
+ * control enters the text segments only at labels, at the targets of branches and jumps,
+ * and after the delay slot of a branch or jump; code reached by a jump to a computed address
+ * which is none of these may be broken.
+ * @author James Hester
+ *
+ */
+public class Optimizer
+{
+	private volatile boolean peepholeEnabled = false;
+	private volatile boolean schedulingEnabled = false;
+	private volatile boolean delaySlotFillingEnabled = false;
+	private volatile boolean forwardingEnabled = true;
+
+	private final AtomicLong cyclesSaved = new AtomicLong();
+	private final AtomicLong stallsRemoved = new AtomicLong();
+	private final AtomicLong delaySlotsFilled = new AtomicLong();
+
+	/**
+	 * Enables the pass which simplifies the instructions produced by pseudoinstructions, and removes redundant ones.
+	 * It runs before the other passes.
+	 * @see Peephole
+	 */
+	public void setPeepholeEnabled(boolean enabled)
+	{
+		peepholeEnabled = enabled;
+	}
+
+	public boolean isPeepholeEnabled()
+	{
+		return peepholeEnabled;
+	}
+
+	/**
+	 * Enables the pass which reorders instructions within basic blocks to avoid pipeline stalls.
+	 * @see Scheduler
+	 */
+	public void setSchedulingEnabled(boolean enabled)
+	{
+		schedulingEnabled = enabled;
+	}
+
+	public boolean isSchedulingEnabled()
+	{
+		return schedulingEnabled;
+	}
+
+	/**
+	 * Enables the pass which fills the delay slots of branches and jumps with useful instructions in place of nops.
+	 * It runs after the Scheduler.
+	 * @see DelaySlotFiller
+	 */
+	public void setDelaySlotFillingEnabled(boolean enabled)
+	{
+		delaySlotFillingEnabled = enabled;
+	}
+
+	public boolean isDelaySlotFillingEnabled()
+	{
+		return delaySlotFillingEnabled;
+	}
+
+	/**
+	 * Sets whether the program will be simulated with forwarding enabled, as the passes
+	 * predict stalls with the same rules as the Simulator.
+	 * @see ares.core.Simulator#setForwardingEnabled(boolean)
+	 */
+	public void setForwardingEnabled(boolean enabled)
+	{
+		forwardingEnabled = enabled;
+	}
+
+	public boolean isForwardingEnabled()
+	{
+		return forwardingEnabled;
+	}
+
+	/**
+	 * @return the number of cycles the Peephole pass predicts it has saved (counting each basic block once),
+	 * 			over every module optimized
+	 */
+	public long getCyclesSaved()
+	{
+		return cyclesSaved.get();
+	}
+
+	/**
+	 * @return the number of stall cycles the Scheduler predicts it has removed, over every module optimized
+	 */
+	public long getStallsRemoved()
+	{
+		return stallsRemoved.get();
+	}
+
+	/**
+	 * @return the number of delay slots the DelaySlotFiller has filled, over every module optimized
+	 */
+	public long getDelaySlotsFilled()
+	{
+		return delaySlotsFilled.get();
+	}
+
+	/**
+	 * Runs the enabled passes over a module, in place.
+	 * @param module the module, as produced by Assembler.assembleModule()
+	 */
+	void optimize(ObjectModule module)
+	{
+		if (peepholeEnabled)
+			cyclesSaved.addAndGet(Peephole.optimize(module, forwardingEnabled));
+		if (schedulingEnabled)
+			stallsRemoved.addAndGet(Scheduler.schedule(module, forwardingEnabled));
+		if (delaySlotFillingEnabled)
+			delaySlotsFilled.addAndGet(DelaySlotFiller.fill(module, forwardingEnabled));
+	}
+
+	/**
+	 * Finds the instructions of a text segment at which basic blocks begin: the first instruction,
+	 * those with labels, the targets of branches and jumps within the segment, the targets of
+	 * references to labels with an offset (as in "la $t0, label+8"), and those following a delay slot.
+	 * @param module the module
+	 * @param seg the segment (0 or 2)
+	 * @return for each instruction, whether a basic block begins there. The extra last element
+	 * 			(for the end of the segment) is always true.
+	 */
+	static boolean[] findLeaders(ObjectModule module, int seg)
+	{
+		int[] words = module.textSegs[seg / 2];
+		int start = CompiledProgram.getSegmentStartAddress(seg);
+		boolean[] leaders = new boolean[words.length + 1];
+		leaders[0] = leaders[words.length] = true;
+
+		for(int[] symbol : module.symbols.values())
+		{
+			if (symbol[1] == seg)
+				mark(leaders, (symbol[0] - start) >> 2);
+		}
+		boolean[] relocated = new boolean[words.length];
+		for(Relocation r : module.relocations)
+		{
+			if (r.segment != seg)
+				continue;
+			relocated[r.index] = true;
+			int[] symbol = module.symbols.get(r.symbol);
+			if (symbol != null && symbol[1] == seg)
+				mark(leaders, (symbol[0] + r.addend - start) >> 2);
+		}
+
+		for(int i = 0; i < words.length; i++)
+		{
+			int word = words[i];
+			if ( ! HazardModel.isControlTransfer(word))
+				continue;
+			mark(leaders, i + 2);
+			if (relocated[i])
+				continue;
+			if (HazardModel.isBranch(word))
+				mark(leaders, i + 1 + (short) word);
+			else if ((word >>> 26) != 0) //j or jal to an address given literally
+				mark(leaders, ((((start & 0xF0000000) | ((word & 0x03FFFFFF) << 2))) - start) >> 2);
+		}
+		return leaders;
+	}
+
+	private static void mark(boolean[] leaders, int index)
+	{
+		if (index >= 0 && index < leaders.length)
+			leaders[index] = true;
+	}
+
+	/**
+	 * Rearranges the instructions of a text segment, and removes some of them.
+	 * <p>
+	 * Labels stay where they are, except that each moves back by one instruction for every instruction
+	 * removed before it (so a label on a removed instruction ends up on the instruction after it). The
+	 * relocations move with their instructions, and the offsets of branches to this segment, and the targets
+	 * of jumps to addresses in it given literally, are corrected.
+	 * So an instruction may be moved only within its basic block, and only past instructions without labels.
+	 * @param module the module
+	 * @param seg the segment (0 or 2)
+	 * @param order order[i] is the index of the instruction to place at index i. Instructions
+	 * 			not in the array are removed.
+	 */
+	static void rearrange(ObjectModule module, int seg, int[] order)
+	{
+		int[] words = module.textSegs[seg / 2];
+		int start = CompiledProgram.getSegmentStartAddress(seg);
+		int[] newIndex = new int[words.length];
+		Arrays.fill(newIndex, -1);
+		for(int i = 0; i < order.length; i++)
+			newIndex[order[i]] = i;
+		/* positions[i] is where a label on instruction i ends up: the number of instructions kept before it. */
+		int[] positions = new int[words.length + 1];
+		for(int i = 0; i < words.length; i++)
+			positions[i + 1] = positions[i] + ((newIndex[i] != -1) ? 1 : 0);
+
+		boolean[] relocated = new boolean[words.length];
+		ArrayList<Relocation> relocations = new ArrayList<>(module.relocations.size());
+		for(Relocation r : module.relocations)
+		{
+			if (r.segment != seg)
+			{
+				relocations.add(r);
+				continue;
+			}
+			relocated[r.index] = true;
+			if (newIndex[r.index] == -1)
+				continue;
+			int addend = r.addend;
+			int[] symbol = module.symbols.get(r.symbol);
+			if (symbol != null && symbol[1] == seg)
+				addend = moved(symbol[0] + r.addend, start, positions) - moved(symbol[0], start, positions);
+			relocations.add(new Relocation(r.type, r.segment, newIndex[r.index], r.symbol, addend, r.line));
+		}
+		module.relocations = relocations;
+
+		int[] result = new int[order.length];
+		for(int i = 0; i < order.length; i++)
+		{
+			int word = words[order[i]];
+			int target = order[i] + 1 + (short) word;
+			if (HazardModel.isBranch(word) && ! relocated[order[i]] && target >= 0 && target <= words.length)
+				word = (word & 0xFFFF0000) | ((positions[target] - (i + 1)) & 0xFFFF);
+			else if (HazardModel.isControlTransfer(word) && (word >>> 26) != 0 && ! relocated[order[i]])
+			{
+				//j or jal to an address given literally, which findLeaders() takes to be in this segment
+				int address = (start & 0xF0000000) | ((word & 0x03FFFFFF) << 2);
+				word = (word & 0xFC000000) | ((moved(address, start, positions) >>> 2) & 0x03FFFFFF);
+			}
+			result[i] = word;
+		}
+		module.textSegs[seg / 2] = result;
+
+		for(int[] symbol : module.symbols.values())
+		{
+			if (symbol[1] == seg)
+				symbol[0] = moved(symbol[0], start, positions);
+		}
+	}
+
+	/**
+	 * @return the address in a rearranged segment corresponding to an address in the original
+	 */
+	private static int moved(int address, int start, int[] positions)
+	{
+		int index = (address - start) >> 2;
+		if (index < 0 || index >= positions.length)
+			return address;
+		return start + (positions[index] << 2) + ((address - start) & 3);
+	}
+}
@@ -0,0 +1,153 @@
+package ares.core.assembler;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ares.core.CompiledProgram;
+
+/**
+ * Static class which assembles a program split across several source files.
+ * Each file is tokenized and assembled into an ObjectModule independently, on a fork/join pool,
+ * and the modules are then linked in the order the files were given.
+ * If an AssemblyCache is given, a file found in it is neither tokenized nor assembled.
+ * If an Optimizer is given, it is run on each module (after the module is stored in the cache,
+ * so the cache does not depend on the optimizations enabled).
+ * @author James Hester
+ *
+ */
+public final class ParallelAssembler
+{
+	private static final ForkJoinPool pool = ForkJoinPool.commonPool();
+	/** The options modules are assembled with, as part of the AssemblyCache key. */
+	private static final String OPTIONS = "";
+
+	/**
+	 * Assembles one file. Since compute() cannot throw checked exceptions,
+	 * any error is kept and rethrown by the thread that joins the task.
+	 */
+	private static class ModuleTask extends RecursiveTask<ObjectModule>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private File file;
+		private AssemblyCache cache;
+		private Optimizer optimizer;
+		private AssemblerError assemblerError;
+		private IOException ioException;
+
+		ModuleTask(File file, AssemblyCache cache, Optimizer optimizer)
+		{
+			this.file = file;
+			this.cache = cache;
+			this.optimizer = optimizer;
+		}
+
+		@Override
+		protected ObjectModule compute()
+		{
+			ObjectModule module = assembleModule();
+			if (module != null && optimizer != null)
+				optimizer.optimize(module);
+			return module;
+		}
+
+		private ObjectModule assembleModule()
+		{
+			try
+			{
+				byte[] source = Files.readAllBytes(file.toPath());
+				if (cache != null)
+				{
+					ObjectModule module = cache.get(source, file.getName(), OPTIONS);
+					if (module != null)
+						return module;
+				}
+
+				BufferedReader theFile = new BufferedReader(
+						new InputStreamReader(
+								new ByteArrayInputStream(source), Charset.forName("UTF-8")));
+				Assembler assembler = new Assembler(Tokenizer.tokenize(theFile, file.getName()));
+				assembler.doFirstPass();
+				ObjectModule module = assembler.assembleModule();
+				if (cache != null)
+					cache.put(source, file.getName(), OPTIONS, module);
+				return module;
+			}
+			catch (AssemblerError e)
+			{
+				assemblerError = e;
+			}
+			catch (IOException e)
+			{
+				ioException = e;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Assembles and links a program.
+	 * @param files the source files; the first is placed at the start of each segment
+	 * @return the linked program
+	 * @throws AssemblerError the error in the earliest file (in the order given) that failed to assemble, or a link error
+	 * @throws IOException if a file could not be read
+	 */
+	public static CompiledProgram assemble(List<File> files) throws AssemblerError, IOException
+	{
+		return assemble(files, null);
+	}
+
+	/**
+	 * Assembles and links a program, reusing modules from a cache.
+	 * @param files the source files; the first is placed at the start of each segment
+	 * @param cache the cache to look modules up in and store them to, or null
+	 * @return the linked program
+	 * @throws AssemblerError the error in the earliest file (in the order given) that failed to assemble, or a link error
+	 * @throws IOException if a file could not be read
+	 */
+	public static CompiledProgram assemble(List<File> files, AssemblyCache cache) throws AssemblerError, IOException
+	{
+		return assemble(files, cache, null);
+	}
+
+	/**
+	 * Assembles, optimizes and links a program, reusing modules from a cache.
+	 * @param files the source files; the first is placed at the start of each segment
+	 * @param cache the cache to look modules up in and store them to, or null
+	 * @param optimizer the passes to run on each module (which accumulates their statistics), or null
+	 * @return the linked program
+	 * @throws AssemblerError the error in the earliest file (in the order given) that failed to assemble, or a link error
+	 * @throws IOException if a file could not be read
+	 */
+	public static CompiledProgram assemble(List<File> files, AssemblyCache cache, Optimizer optimizer) throws AssemblerError, IOException
+	{
+		ArrayList<ModuleTask> tasks = new ArrayList<>(files.size());
+		for(File file : files)
+		{
+			ModuleTask task = new ModuleTask(file, cache, optimizer);
+			tasks.add(task);
+			pool.execute(task);
+		}
+
+		ArrayList<ObjectModule> modules = new ArrayList<>(files.size());
+		for(ModuleTask task : tasks)
+		{
+			ObjectModule module = task.join();
+			if (task.assemblerError != null)
+				throw task.assemblerError;
+			if (task.ioException != null)
+				throw task.ioException;
+			modules.add(module);
+		}
+
+		return Linker.link(modules);
+	}
+}
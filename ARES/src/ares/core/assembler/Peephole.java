@@ -0,0 +1,344 @@
+package ares.core.assembler;
+import java.util.Arrays;
+
+import ares.core.HazardModel;
+import ares.core.assembler.ObjectModule.Relocation;
+
+/**
+ * Static class which simplifies the instructions within each basic block of an object module,
+ * chiefly those produced by pseudoinstructions such as li.
+ * <p>
+ * Within a block, the value of each register set from constants is followed (computing exactly as the Simulator
+ * does), and:
+ * <li>	an instruction which sets a register to the value it already holds is removed;						</li>
+ * <li>	an instruction which computes a constant from registers is replaced by one which loads the constant
+ * 		directly, if one instruction can (so "lui $t0, 0xFFFF / ori $t0, $t0, 0xFFFB" becomes
+ * 		"addiu $t0, $zero, -5", and the lui is then removed as below);											</li>
+ * <li>	two instructions adding constants to a register one after the other are merged, if the sum fits;	</li>
+ * <li>	an instruction which leaves its destination unchanged (such as "move $t0, $t0"), or whose
+ * 		destination is $zero, is removed; and																	</li>
+ * <li>	an instruction is removed if the register it sets is set again, without being read, before the
+ * 		block ends.																								</li>
+ * Only arithmetic and logical instructions which cannot raise an exception are changed (so add, sub and addi
+ * never are), and the instruction in a delay slot is never removed. nops are left alone, as they may be
+ * intended to separate instructions.
+ * @author James Hester
+ *
+ */
+final class Peephole
+{
+	private Peephole()
+	{
+	}
+
+	/**
+	 * Simplifies the text and ktext segments of a module, in place.
+	 * @param module the module
+	 * @param forwarding whether the program will be simulated with forwarding enabled
+	 * @return the number of cycles predicted to be saved, each time every block is executed once
+	 */
+	static int optimize(ObjectModule module, boolean forwarding)
+	{
+		int saved = 0;
+		for(int seg = 0; seg <= 2; seg += 2)
+		{
+			int[] words = module.textSegs[seg / 2];
+			if (words.length == 0)
+				continue;
+			boolean[] leaders = Optimizer.findLeaders(module, seg);
+			boolean[] relocated = new boolean[words.length];
+			for(Relocation r : module.relocations)
+			{
+				if (r.segment == seg)
+					relocated[r.index] = true;
+			}
+
+			int[] simplified = words.clone();
+			boolean[] removed = new boolean[words.length];
+			int removedCount = 0;
+			int start = 0;
+			for(int i = 1; i <= words.length; i++)
+			{
+				if ( ! leaders[i])
+					continue;
+				propagateConstants(simplified, relocated, start, i, removed);
+				removeDeadInstructions(simplified, start, i, removed);
+				saved += cycles(words, start, i, null, forwarding) - cycles(simplified, start, i, removed, forwarding);
+				start = i;
+			}
+
+			for(boolean r : removed)
+				removedCount += r ? 1 : 0;
+			if (removedCount == 0 && Arrays.equals(words, simplified))
+				continue;
+			module.textSegs[seg / 2] = simplified;
+			int[] order = new int[words.length - removedCount];
+			int n = 0;
+			for(int i = 0; i < words.length; i++)
+			{
+				if ( ! removed[i])
+					order[n++] = i;
+			}
+			Optimizer.rearrange(module, seg, order);
+		}
+		return saved;
+	}
+
+	/**
+	 * Follows the values of registers set from constants through a block, removing and replacing instructions.
+	 */
+	private static void propagateConstants(int[] words, boolean[] relocated, int start, int end, boolean[] removed)
+	{
+		boolean[] known = new boolean[32];
+		int[] values = new int[32];
+		known[0] = true;
+		int previous = -1; //The last instruction not removed
+
+		for(int i = start; i < end; i++)
+		{
+			int word = words[i];
+			boolean inDelaySlot = i > 0 && HazardModel.isControlTransfer(words[i - 1]);
+			if (word == 0)
+				continue;
+			if (relocated[i] || ! isPure(word))
+			{
+				long written = Scheduler.registersWritten(word);
+				for(int r = 1; r < 32; r++)
+				{
+					if ((written & (1L << r)) != 0)
+						known[r] = false;
+				}
+				previous = i;
+				continue;
+			}
+
+			int dest = destination(word);
+			if ((dest == 0 || isIdentity(word)) && ! inDelaySlot)
+			{
+				removed[i] = true;
+				continue;
+			}
+			if (dest == 0)
+			{
+				previous = i;
+				continue;
+			}
+
+			int rs = HazardModel.rs(word), rt = HazardModel.rt(word);
+			boolean inputsKnown = ( ! readsRs(word) || known[rs]) && ( ! readsRt(word) || known[rt]);
+			if ( ! inputsKnown)
+			{
+				/*
+				 * Merge "addiu $x, $x, a / addiu $x, $x, b".
+				 */
+				if (previous != -1 && ! relocated[previous] && ! inDelaySlot && isAddImmediate(word) && isAddImmediate(words[previous])
+						&& rs == dest && HazardModel.rs(words[previous]) == dest && HazardModel.rt(words[previous]) == dest)
+				{
+					int sum = (short) words[previous] + (short) word;
+					if (sum == (short) sum)
+					{
+						words[previous] = (words[previous] & 0xFFFF0000) | (sum & 0xFFFF);
+						removed[i] = true;
+						continue;
+					}
+				}
+				known[dest] = false;
+				previous = i;
+				continue;
+			}
+
+			int value = evaluate(word, values[rs], values[rt]);
+			if (known[dest] && values[dest] == value && ! inDelaySlot)
+			{
+				removed[i] = true;
+				continue;
+			}
+			if ((readsRs(word) && rs != 0) || (readsRt(word) && rt != 0))
+			{
+				int replacement = load(dest, value);
+				if (replacement != 0)
+					words[i] = replacement;
+			}
+			known[dest] = true;
+			values[dest] = value;
+			previous = i;
+		}
+	}
+
+	/**
+	 * Removes the instructions in a block whose results are overwritten before they are read.
+	 * Every register is assumed to be read after the block, and by any instruction which is not pure.
+	 */
+	private static void removeDeadInstructions(int[] words, int start, int end, boolean[] removed)
+	{
+		long live = ~0L;
+		for(int i = end - 1; i >= start; i--)
+		{
+			int word = words[i];
+			if (removed[i] || word == 0)
+				continue;
+			if ( ! isPure(word))
+			{
+				live = Scheduler.isMovable(word) ? (live & ~Scheduler.registersWritten(word)) | Scheduler.registersRead(word) : ~0L;
+				continue;
+			}
+			boolean inDelaySlot = i > 0 && HazardModel.isControlTransfer(words[i - 1]);
+			long written = 1L << destination(word);
+			if ((live & written) == 0 && ! inDelaySlot)
+			{
+				removed[i] = true;
+				continue;
+			}
+			live = (live & ~written) | Scheduler.registersRead(word);
+		}
+	}
+
+	/**
+	 * Predicts the cycles a block takes: one for each instruction, plus stalls.
+	 */
+	private static int cycles(int[] words, int start, int end, boolean[] removed, boolean forwarding)
+	{
+		HazardModel.Timeline timeline = new HazardModel.Timeline(forwarding);
+		int result = 0;
+		for(int i = start; i < end; i++)
+		{
+			if (removed == null || ! removed[i])
+				result += 1 + timeline.issue(words[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return whether the instruction only computes a value from registers and constants, and writes it to
+	 * 			a general-purpose register, without the possibility of an exception
+	 */
+	private static boolean isPure(int word)
+	{
+		int opcode = word >>> 26;
+		if (opcode == 0)
+		{
+			switch(word & 0b111111)
+			{
+			case 0x00: case 0x02: case 0x03: case 0x04: case 0x06: case 0x07:
+			case 0x21: case 0x23: case 0x24: case 0x25: case 0x26: case 0x27: case 0x2a: case 0x2b:
+				return true;
+			default:
+				return false;
+			}
+		}
+		switch(opcode)
+		{
+		case 0x09: case 0x0a: case 0x0b: case 0x0c: case 0x0d: case 0x0f:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the register a pure instruction writes
+	 */
+	private static int destination(int word)
+	{
+		return ((word >>> 26) == 0) ? HazardModel.rd(word) : HazardModel.rt(word);
+	}
+
+	private static boolean readsRs(int word)
+	{
+		int opcode = word >>> 26;
+		if (opcode == 0x0f)
+			return false;
+		if (opcode != 0)
+			return true;
+		int funct = word & 0b111111;
+		return funct != 0x00 && funct != 0x02 && funct != 0x03;
+	}
+
+	private static boolean readsRt(int word)
+	{
+		return (word >>> 26) == 0;
+	}
+
+	private static boolean isAddImmediate(int word)
+	{
+		return (word >>> 26) == 0x09;
+	}
+
+	/**
+	 * @return whether a pure instruction always leaves its destination unchanged, as "move $t0, $t0" does
+	 */
+	private static boolean isIdentity(int word)
+	{
+		int rs = HazardModel.rs(word), rt = HazardModel.rt(word), dest = destination(word);
+		int opcode = word >>> 26;
+		if (opcode == 0x09 || opcode == 0x0d)
+			return rs == dest && (word & 0xFFFF) == 0;
+		if (opcode != 0)
+			return false;
+		switch(word & 0b111111)
+		{
+		case 0x00: case 0x02: case 0x03: //sll, srl, sra by 0
+			return rt == dest && ((word >> 6) & 0b11111) == 0;
+		case 0x21: case 0x25: case 0x26: //addu, or, xor with $zero
+			return (rs == dest && rt == 0) || (rt == dest && rs == 0) || ((word & 0b111111) == 0x25 && rs == dest && rt == dest);
+		case 0x23: //subu $zero
+			return rs == dest && rt == 0;
+		case 0x24: //and with itself
+			return rs == dest && rt == dest;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Computes the result of a pure instruction, as the Simulator does.
+	 */
+	static int evaluate(int word, int rs, int rt)
+	{
+		int imm = (short) word;
+		switch(word >>> 26)
+		{
+		case 0x00:
+			int shamt = (word >> 6) & 0b11111;
+			switch(word & 0b111111)
+			{
+			case 0x00: return rt << shamt;
+			case 0x02: return rt >>> shamt;
+			case 0x03: return rt >> shamt;
+			case 0x04: return rt << (rs & 0b11111);
+			case 0x06: return rt >>> (rs & 0b11111);
+			case 0x07: return rt >> (rs & 0b11111);
+			case 0x21: return rs + rt;
+			case 0x23: return rs - rt;
+			case 0x24: return rs & rt;
+			case 0x25: return rs | rt;
+			case 0x26: return rs ^ rt;
+			case 0x27: return ~(rs | rt);
+			case 0x2a: return (rs < rt) ? 1 : 0;
+			case 0x2b: return (Integer.compareUnsigned(rs, rt) < 0) ? 1 : 0;
+			default: throw new IllegalArgumentException();
+			}
+		case 0x09: return rs + imm;
+		case 0x0a: return (rs < imm) ? 1 : 0;
+		case 0x0b: return (Integer.compareUnsigned(rs, imm) < 0) ? 1 : 0;
+		case 0x0c: return rs & imm; //The Simulator sign-extends the immediate of andi.
+		case 0x0d: return rs | (imm & 0xFFFF);
+		case 0x0f: return (imm & 0xFFFF) << 16;
+		default: throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * @return a single instruction which sets a register to a constant, or 0 if there is none
+	 */
+	private static int load(int register, int value)
+	{
+		if ((value & 0xFFFF0000) == 0)
+			return (0x0d << 26) | (register << 16) | value; //ori $r, $zero, value
+		if (value == (short) value)
+			return (0x09 << 26) | (register << 16) | (value & 0xFFFF); //addiu $r, $zero, value
+		if ((value & 0xFFFF) == 0)
+			return (0x0f << 26) | (register << 16) | (value >>> 16); //lui $r, value
+		return 0;
+	}
+}
@@ -1,49 +1,184 @@
 package ares.core.assembler;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import ares.core.InstructionSet;
 
 
-public final class PseudoInstructionSet 
+public final class PseudoInstructionSet
 {
-	private static final HashMap<String, String[]> pseudoInstructionSet = new HashMap<>();
-	static
+	/*
+	 * The kinds of argument a pseudoinstruction's signature may name.
+	 */
+	static final int REG = 0, IMM16 = 1, IMM32 = 2;
+	private static final String[] KIND_NAMES = {"reg", "imm16", "imm32"};
+
+	/**
+	 * A pseudoinstruction expansion, compiled from its list of tokens once, when the class is loaded.
+	 * Each operand of each real instruction is either literal text, or an argument of the
+	 * pseudoinstruction with text before and/or after it (such as the "[HI]" in "%2[HI]").
+	 */
+	static final class Template
 	{
-		pseudoInstructionSet.put("[li, reg, imm32]", new String[]{"lui", "%1,", "%2[HI]", "ori", "%1,", "%2[LO]"});
-		pseudoInstructionSet.put("[li, reg, imm16]", new String[]{"ori", "%1,", "%2"});
+		/** The signature, such as "[li, reg, imm32]". */
+		final String signature;
+		final int[] kinds;
+		/** The real instructions the pseudoinstruction expands to. */
+		final String[] mnemonics;
+		/** argumentNumbers[i][j] is the argument (1, 2, ...) substituted into operand j of instruction i, or 0 if the operand is literal. */
+		final int[][] argumentNumbers;
+		final String[][] prefixes, suffixes;
+
+		private Template(String signature, String[] tokens)
+		{
+			this.signature = signature;
+			String[] parts = signature.substring(1, signature.length() - 1).split(", ");
+			kinds = new int[parts.length - 1];
+			for(int i = 0; i < kinds.length; i++)
+			{
+				for(int kind = 0; kind < KIND_NAMES.length; kind++)
+				{
+					if (KIND_NAMES[kind].equals(parts[i + 1]))
+						kinds[i] = kind;
+				}
+			}
+
+			ArrayList<String> instructions = new ArrayList<>();
+			ArrayList<ArrayList<String>> operands = new ArrayList<>();
+			for(String token : tokens)
+			{
+				if (InstructionSet.contains(token))
+				{
+					instructions.add(token);
+					operands.add(new ArrayList<String>());
+				}
+				else
+					operands.get(operands.size() - 1).add(token.endsWith(",") ? token.substring(0, token.length() - 1) : token);
+			}
+
+			mnemonics = instructions.toArray(new String[instructions.size()]);
+			argumentNumbers = new int[mnemonics.length][];
+			prefixes = new String[mnemonics.length][];
+			suffixes = new String[mnemonics.length][];
+			for(int i = 0; i < mnemonics.length; i++)
+			{
+				int count = operands.get(i).size();
+				argumentNumbers[i] = new int[count];
+				prefixes[i] = new String[count];
+				suffixes[i] = new String[count];
+				for(int j = 0; j < count; j++)
+				{
+					String operand = operands.get(i).get(j);
+					int percent = operand.indexOf('%');
+					if (percent == -1)
+					{
+						prefixes[i][j] = operand;
+						continue;
+					}
+					int end = percent + 1;
+					while(end < operand.length() && Character.isDigit(operand.charAt(end)))
+						end++;
+					argumentNumbers[i][j] = Integer.parseInt(operand.substring(percent + 1, end));
+					prefixes[i][j] = operand.substring(0, percent);
+					suffixes[i][j] = operand.substring(end);
+				}
+			}
+		}
+
+		/**
+		 * @return the number of real instructions the pseudoinstruction expands to
+		 */
+		int length()
+		{
+			return mnemonics.length;
+		}
+
+		/**
+		 * Gives the operands of one of the real instructions.
+		 * @param instruction the instruction (0 for the first)
+		 * @param arguments the arguments of the pseudoinstruction
+		 * @return the operands
+		 */
+		ArrayList<String> operands(int instruction, List<String> arguments)
+		{
+			int[] numbers = argumentNumbers[instruction];
+			ArrayList<String> result = new ArrayList<>(numbers.length);
+			for(int j = 0; j < numbers.length; j++)
+			{
+				if (numbers[j] == 0)
+					result.add(prefixes[instruction][j]);
+				else
+					result.add(prefixes[instruction][j] + arguments.get(numbers[j] - 1) + suffixes[instruction][j]);
+			}
+			return result;
+		}
 	}
-		
-	public static boolean contains(String mnemonic)
+
+	/**
+	 * For each pseudoinstruction mnemonic, its expansions (one per signature).
+	 */
+	private static final HashMap<String, Template[]> pseudoInstructionSet = new HashMap<>();
+	static
 	{
-		for(String pseudoInstructionHeader : pseudoInstructionSet.keySet())
+		put("[li, reg, imm32]", "lui", "%1,", "%2[HI]", "ori", "%1,", "%1,", "%2[LO]");
+		put("[li, reg, imm16]", "ori", "%1,", "$zero,", "%2");
+		put("[la, reg, imm32]", "lui", "%1,", "%2[HI]", "ori", "%1,", "%1,", "%2[LO]");
+		put("[la, reg, imm16]", "ori", "%1,", "$zero,", "%2");
+		put("[move, reg, reg]", "addu", "%1,", "$zero,", "%2");
+		put("[nop]", "sll", "$zero,", "$zero,", "0");
+		/*
+		 * Loads and stores given an address, rather than offset($base), in place of the real instruction.
+		 * The offset is sign-extended, so imm16 here means -32768 to 32767, and the upper half is [HA].
+		 */
+		for(String mnemonic : new String[]{"lw", "lh", "lhu", "lb", "lbu", "sw", "sh", "sb"})
 		{
-			String m = "[" + mnemonic + ",";
-			if (pseudoInstructionHeader.contains(m))
-				return true;
+			put("[" + mnemonic + ", reg, imm32]", "lui", "$at,", "%2[HA]", mnemonic, "%1,", "%2[LO]($at)");
+			put("[" + mnemonic + ", reg, imm16]", mnemonic, "%1,", "%2($zero)");
 		}
-		return false;
 	}
-	
+
+	private static void put(String signature, String... expansion)
+	{
+		Template template = new Template(signature, expansion);
+		String mnemonic = signature.substring(1, signature.length() - 1).split(", ")[0];
+		Template[] old = pseudoInstructionSet.get(mnemonic);
+		Template[] templates = new Template[(old == null) ? 1 : old.length + 1];
+		if (old != null)
+			System.arraycopy(old, 0, templates, 0, old.length);
+		templates[templates.length - 1] = template;
+		pseudoInstructionSet.put(mnemonic, templates);
+	}
+
+	public static boolean contains(String mnemonic)
+	{
+		return pseudoInstructionSet.containsKey(mnemonic);
+	}
+
 	/**
-	 * Gives number of real instructions inside of a pseudoinstruction.
+	 * Gives the expansions of a pseudoinstruction.
 	 * @param mnemonic the pseudoinstruction
-	 * @return number of real MIPS instructions
+	 * @return its expansions, one for each signature, or null if there is no such pseudoinstruction
+	 */
+	static Template[] getTemplates(String mnemonic)
+	{
+		return pseudoInstructionSet.get(mnemonic);
+	}
+
+	/**
+	 * Chooses the expansion whose signature matches the kinds of the arguments given.
+	 * @param templates the expansions of a pseudoinstruction, from getTemplates()
+	 * @param kinds the kind (REG, IMM16 or IMM32) of each argument
+	 * @return the expansion, or null if none accepts those arguments
 	 */
-	public static int getInstructionLength(String header)
+	static Template select(Template[] templates, int[] kinds)
 	{
-		if ( ! pseudoInstructionSet.containsKey(header))
-			return -1;
-		String[] mac = pseudoInstructionSet.get(header);
-		if (mac == null)
-			return -1;
-		
-		int result = 0;
-		for(String inst : mac)
+		for(Template template : templates)
 		{
-			if (InstructionSet.contains(inst))
-				result++;
+			if (Arrays.equals(template.kinds, kinds))
+				return template;
 		}
-
-		return result;
+		return null;
 	}
 }
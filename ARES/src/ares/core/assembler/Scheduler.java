@@ -0,0 +1,298 @@
+package ares.core.assembler;
+import ares.core.HazardModel;
+
+/**
+ * Static class which reorders the instructions within each basic block of an object module
+ * so that fewer pipeline stalls occur, without changing what the program computes.
+ * <p>
+ * The branch or jump that ends a block, and its delay slot, never move; neither does the delay slot
+ * that begins a block (if a label is placed on one). Among the other instructions, one must stay after
+ * another if it reads a register the other writes, writes a register the other reads or writes, or
+ * (treating HI and LO as a register) the same for the MultiplyUnit; a store must stay in order with every
+ * load and store. Instructions the Simulator does not execute like the others--syscall, break, coprocessor
+ * instructions and unrecognized instructions--stay in order with everything.
+ * <p>
+ * The instructions are list scheduled: each is chosen, from those whose predecessors have been placed,
+ * to add the fewest stalls according to HazardModel, breaking ties by the length of the longest chain
+ * of instructions depending on it. The new order is kept only if the block as a whole, including its
+ * branch and delay slot, is predicted to stall for fewer cycles. The pipeline is assumed to enter each block
+ * from the one before it.
+ * @author James Hester
+ *
+ */
+final class Scheduler
+{
+	/** The bit of a register mask standing for HI and LO. */
+	private static final long HILO = 1L << 32;
+
+	private Scheduler()
+	{
+	}
+
+	/**
+	 * Schedules the text and ktext segments of a module, in place.
+	 * @param module the module
+	 * @param forwarding whether the program will be simulated with forwarding enabled
+	 * @return the number of stall cycles predicted to be removed
+	 */
+	static int schedule(ObjectModule module, boolean forwarding)
+	{
+		int removed = 0;
+		for(int seg = 0; seg <= 2; seg += 2)
+		{
+			int[] words = module.textSegs[seg / 2];
+			if (words.length == 0)
+				continue;
+			boolean[] leaders = Optimizer.findLeaders(module, seg);
+			int[] order = new int[words.length];
+			for(int i = 0; i < order.length; i++)
+				order[i] = i;
+
+			HazardModel.Timeline entry = new HazardModel.Timeline(forwarding);
+			int blockStart = 0;
+			for(int i = 1; i <= words.length; i++)
+			{
+				if ( ! leaders[i])
+					continue;
+				removed += scheduleBlock(words, blockStart, i, order, entry);
+				for(int j = blockStart; j < i; j++)
+					entry.issue(words[order[j]]);
+				blockStart = i;
+			}
+			Optimizer.rearrange(module, seg, order);
+		}
+		return removed;
+	}
+
+	/**
+	 * Schedules one basic block.
+	 * @param words the instructions of the segment, in their original order
+	 * @param start the index of the first instruction of the block
+	 * @param end the index after the last
+	 * @param order the order of the instructions of the segment, which is updated if the block is reordered
+	 * @param entry the timeline of the pipeline when the block is entered (not modified)
+	 * @return the number of stall cycles predicted to be removed
+	 */
+	private static int scheduleBlock(int[] words, int start, int end, int[] order, HazardModel.Timeline entry)
+	{
+		int first = start, last = end;
+		if (start > 0 && HazardModel.isControlTransfer(words[start - 1]))
+			first++; //The block begins with a delay slot.
+		for(int i = first; i < end; i++)
+		{
+			if (HazardModel.isControlTransfer(words[i]))
+			{
+				last = i;
+				break;
+			}
+		}
+		int count = last - first;
+		if (count < 2)
+			return 0;
+
+		/*
+		 * Build the dependence graph: successors[i][j] is true if instruction j (of the block's body)
+		 * must remain after instruction i.
+		 */
+		boolean[][] successors = new boolean[count][count];
+		int[] predecessorCounts = new int[count];
+		for(int j = 1; j < count; j++)
+		{
+			for(int i = 0; i < j; i++)
+			{
+				if (isDependent(words[first + i], words[first + j]))
+				{
+					successors[i][j] = true;
+					predecessorCounts[j]++;
+				}
+			}
+		}
+		int[] heights = new int[count];
+		for(int i = count - 1; i >= 0; i--)
+		{
+			int word = words[first + i];
+			int latency = 1 + (HazardModel.isLoad(word) ? 1 : 0) + HazardModel.multiplyLatency(word);
+			for(int j = i + 1; j < count; j++)
+			{
+				if (successors[i][j])
+					heights[i] = Math.max(heights[i], heights[j] + latency);
+			}
+		}
+
+		/*
+		 * Choose the instructions one at a time.
+		 */
+		HazardModel.Timeline timeline = entry.clone();
+		for(int i = start; i < first; i++)
+			timeline.issue(words[i]);
+		int[] body = new int[count];
+		boolean[] placed = new boolean[count];
+		for(int n = 0; n < count; n++)
+		{
+			int best = -1, bestStalls = 0;
+			for(int i = 0; i < count; i++)
+			{
+				if (placed[i] || predecessorCounts[i] != 0)
+					continue;
+				int stalls = timeline.clone().issue(words[first + i]);
+				if (best == -1 || stalls < bestStalls || (stalls == bestStalls && heights[i] > heights[best]))
+				{
+					best = i;
+					bestStalls = stalls;
+				}
+			}
+			placed[best] = true;
+			body[n] = best;
+			timeline.issue(words[first + best]);
+			for(int j = 0; j < count; j++)
+			{
+				if (successors[best][j])
+					predecessorCounts[j]--;
+			}
+		}
+
+		int before = stalls(words, start, end, first, null, entry);
+		int after = stalls(words, start, end, first, body, entry);
+		if (after >= before)
+			return 0;
+		for(int n = 0; n < count; n++)
+			order[first + n] = first + body[n];
+		return before - after;
+	}
+
+	/**
+	 * Predicts the stall cycles of a block.
+	 * @param body the order of the instructions from first onward (relative to first), or null for the original order
+	 */
+	private static int stalls(int[] words, int start, int end, int first, int[] body, HazardModel.Timeline entry)
+	{
+		HazardModel.Timeline timeline = entry.clone();
+		int result = 0;
+		for(int i = start; i < end; i++)
+		{
+			int index = i;
+			if (body != null && i >= first && i - first < body.length)
+				index = first + body[i - first];
+			result += timeline.issue(words[index]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return whether the instruction may be moved past others which do not depend on it. Instructions the
+	 * 			Simulator does not execute like the others, and branches and jumps, may not.
+	 */
+	static boolean isMovable(int word)
+	{
+		int opcode = word >>> 26;
+		if (opcode == 0)
+		{
+			switch(word & 0b111111)
+			{
+			case 0x00: case 0x02: case 0x03: case 0x04: case 0x06: case 0x07: //shifts
+			case 0x10: case 0x11: case 0x12: case 0x13: //mfhi, mthi, mflo, mtlo
+			case 0x18: case 0x19: case 0x1a: case 0x1b: //mult, multu, div, divu
+			case 0x20: case 0x21: case 0x22: case 0x23: case 0x24: case 0x25: case 0x26: case 0x27: case 0x2a: case 0x2b:
+				return true;
+			default:
+				return false;
+			}
+		}
+		switch(opcode)
+		{
+		case 0x08: case 0x09: case 0x0a: case 0x0b: case 0x0c: case 0x0d: case 0x0f:
+		case 0x20: case 0x21: case 0x23: case 0x24: case 0x25: //loads
+		case 0x29: case 0x2b: //sh, sw
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return a mask of the registers an instruction reads, other than $zero (bit 32 stands for HI and LO)
+	 */
+	static long registersRead(int word)
+	{
+		long rs = 1L << HazardModel.rs(word), rt = 1L << HazardModel.rt(word);
+		long result;
+		switch(word >>> 26)
+		{
+		case 0x00:
+			switch(word & 0b111111)
+			{
+			case 0x08: case 0x09: case 0x11: case 0x13: //jr, jalr, mthi, mtlo
+				result = rs;
+				break;
+			case 0x10: case 0x12: //mfhi, mflo
+				result = HILO;
+				break;
+			default:
+				result = rs | rt;
+				break;
+			}
+			break;
+		case 0x02: case 0x03: case 0x0f: //j, jal, lui
+			result = 0;
+			break;
+		case 0x04: case 0x05: case 0x28: case 0x29: case 0x2b: case 0x38: //beq, bne, stores
+			result = rs | rt;
+			break;
+		default:
+			result = rs;
+			break;
+		}
+		return result & ~1L;
+	}
+
+	/**
+	 * @return a mask of the registers an instruction writes, other than $zero (bit 32 stands for HI and LO)
+	 */
+	static long registersWritten(int word)
+	{
+		long result;
+		switch(word >>> 26)
+		{
+		case 0x00:
+			switch(word & 0b111111)
+			{
+			case 0x08: //jr
+				result = 0;
+				break;
+			case 0x11: case 0x13: case 0x18: case 0x19: case 0x1a: case 0x1b: //mthi, mtlo, mult, multu, div, divu
+				result = HILO;
+				break;
+			default:
+				result = 1L << HazardModel.rd(word);
+				break;
+			}
+			break;
+		case 0x03: //jal
+			result = 1L << 31;
+			break;
+		case 0x08: case 0x09: case 0x0a: case 0x0b: case 0x0c: case 0x0d: case 0x0f:
+		case 0x20: case 0x21: case 0x23: case 0x24: case 0x25:
+			result = 1L << HazardModel.rt(word);
+			break;
+		default:
+			result = 0;
+			break;
+		}
+		return result & ~1L;
+	}
+
+	/**
+	 * @return whether instruction b, which follows instruction a, must stay after it
+	 */
+	static boolean isDependent(int a, int b)
+	{
+		if ( ! isMovable(a) || ! isMovable(b))
+			return true;
+		long readsA = registersRead(a), writesA = registersWritten(a);
+		long readsB = registersRead(b), writesB = registersWritten(b);
+		return (writesA & (readsB | writesB)) != 0
+				|| (readsA & writesB) != 0
+				|| (HazardModel.isStore(a) && (HazardModel.isStore(b) || HazardModel.isLoad(b)))
+				|| (HazardModel.isLoad(a) && HazardModel.isStore(b));
+	}
+}
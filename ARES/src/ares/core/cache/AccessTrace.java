@@ -0,0 +1,46 @@
+package ares.core.cache;
+import java.util.Arrays;
+
+/**
+ * A record of the addresses a program accessed, in order, so that they may be replayed against caches
+ * after the program has run.
+ * @author James Hester
+ *
+ */
+public class AccessTrace
+{
+	private int[] addresses = new int[1024];
+	private int size = 0;
+
+	public void add(int address)
+	{
+		if (size == addresses.length)
+			addresses = Arrays.copyOf(addresses, size * 2);
+		addresses[size++] = address;
+	}
+
+	public int get(int index)
+	{
+		if (index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return addresses[index];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * @return a copy of the addresses
+	 */
+	public int[] toArray()
+	{
+		return Arrays.copyOf(addresses, size);
+	}
+}
@@ -0,0 +1,933 @@
+package ares.core.cache;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A model of a cache, independent of any display, which determines whether each access is a hit or a miss.
+ * Only the performance of the cache is simulated, so the contents of memory are not stored.
+ * <p>
+ * The cache may be direct mapped (a set size of 1 block), fully associative (a set size of the whole cache)
+ * or set associative. An address is divided into [ tag | set | word | byte ]; the set is searched from its
+ * first block, and an address not found is placed in the first empty block of its set, or else in the block
+ * chosen by the replacement policy. A cache with sets of INDEXED_SET_SIZE blocks or more is searched instead
+ * through a hash table of the blocks it holds, so a lookup takes constant time whatever the associativity.
+ * <p>
+ * The blocks are stored as parallel arrays, indexed by block number, rather than as objects, so a cache of any
+ * size is only a few arrays. This is the model used by CacheSimulator, and gives the same results.
+ * <p>
+ * The valid blocks of each set are also linked in the order they were used (LRU) or placed (FIFO), so either
+ * policy finds its victim at the end of the list in constant time; and, for sets of a power of 2 blocks, a
+ * binary tree of bits per set points toward the block tree-PLRU replaces. Both are kept whatever the policy, so
+ * the policy may be changed at any time.
+ * <p>
+ * A cache may hold instructions, data or both (a unified cache); the accesses of each stream are also counted
+ * separately.
+ * <p>
+ * A store either marks its block dirty, to be written to the next level when it is replaced (WRITE_BACK), or is
+ * written to the next level at once (WRITE_THROUGH); and a store which misses either reads its block into the
+ * cache like a load (write-allocate) or leaves the cache unchanged. The bytes each policy moves to and from the
+ * next level are counted, to estimate the bandwidth it needs.
+ * <p>
+ * A Prefetcher may place blocks in the cache before they are accessed. Such a block is marked until it is
+ * accessed; if it is replaced first, the prefetch is counted as useless.
+ * <p>
+ * Optionally, a small fully associative victim cache holds the blocks most recently replaced; an access which
+ * misses but finds its block there swaps it back, and is counted as a hit, even a store under no-write-allocate.
+ * (Dirty blocks are written back as they are replaced, before they enter the victim cache.) And a MissClassifier may sort the misses, of the
+ * cache and victim cache together, into compulsory, capacity and conflict misses.
+ * @author James Hester
+ *
+ */
+public class Cache
+{
+	/** Replacement policies, matching the order of the choices in CacheSimulator. */
+	public static final int LRU = 0, RANDOM = 1, FIFO = 2, PLRU = 3;
+	public static final String[] REPLACEMENT_POLICY_NAMES = {"LRU", "Random", "FIFO", "Tree-PLRU"};
+
+	/** The streams of accesses, which are counted separately. */
+	public static final int DATA = 0, INSTRUCTION = 1;
+
+	/** Write policies. */
+	public static final int WRITE_BACK = 0, WRITE_THROUGH = 1;
+	public static final String[] WRITE_POLICY_NAMES = {"Write-back", "Write-through"};
+
+	/** The outcomes of an access. MISS_NOT_ALLOCATED is a store which missed and was not placed in the cache. */
+	public static final int HIT = 0, MISS = 1, MISS_SET_FULL = 2, MISS_NOT_ALLOCATED = 3;
+
+	/** The smallest set size for which the blocks are found through the hash table rather than by searching. */
+	public static final int INDEXED_SET_SIZE = 16;
+	private static final int EMPTY = -1;
+
+	private final int numberOfBlocks, blockSizeInWords, setSizeInBlocks, numberOfSets;
+	private int replacementPolicy = LRU;
+	private int writePolicy = WRITE_BACK;
+	private boolean writeAllocate = true;
+	private Random random;
+
+	private final int[] tags;
+	private final boolean[] valid;
+	/** The number of valid blocks in each set. */
+	private final int[] validCounts;
+	/**
+	 * If the sets have at least INDEXED_SET_SIZE blocks, an open-addressing hash table from the block address
+	 * (the address / the block size, so never EMPTY) of each valid block to the block holding it; otherwise null.
+	 */
+	private final int[] indexKeys, indexBlocks;
+	/** Whether each block has been stored to since it was read, and so must be written back when it is replaced. */
+	private final boolean[] dirty;
+	/** Whether each block was placed by prefetch() and has not been accessed since. */
+	private final boolean[] prefetched;
+	private boolean lastHitPrefetched;
+	private int uselessPrefetchCount;
+
+	/** The victim cache, or null; and the number of accesses found there. */
+	private Cache victimCache = null;
+	private int victimHitCount;
+	private MissClassifier missClassifier = null;
+	/** The value of clock at the most recent access of each block, or -1 if it has never been accessed. */
+	private final int[] lastAccessTimes;
+	/**
+	 * For each block, the next block of its set toward the oldest and toward the newest, or -1; and for each
+	 * set, its newest and oldest blocks, or -1 if it is empty. Only valid blocks are linked.
+	 */
+	private final int[] older, newer, newestBlocks, oldestBlocks;
+	/**
+	 * For each set, setSizeInBlocks - 1 bits, of which bit n (from 1) is a node of a binary tree whose leaves are
+	 * the blocks of the set, and is set if the block to replace is in its right subtree; or null if the set size
+	 * is not a power of 2.
+	 */
+	private final boolean[] treeBits;
+	/** Counts accesses and fills; without fills, it equals accessCount. */
+	private int clock;
+	/** Whether a block has been invalidated since the reset, so the valid blocks of a set may not be its first ones. */
+	private boolean holes;
+	private boolean evicted, evictedDirty;
+	private int evictedAddress;
+	/** The block the most recent access or fill was found or placed in. */
+	private int referencedBlock;
+
+	private int accessCount, hitCount, missCount;
+	private int writeCount, writeHitCount, writeBackCount;
+	/** The bytes read from and written to the next level. */
+	private long bytesRead, bytesWritten;
+	/** The counts of each stream, indexed by DATA or INSTRUCTION. */
+	private final int[] streamAccessCounts = new int[2], streamHitCounts = new int[2];
+	/** The results of the most recent access of each stream, indexed by DATA or INSTRUCTION. */
+	private final int[] lastBlocks = new int[2], lastOutcomes = new int[2], lastReplacedAccessTimes = new int[2];
+	private final boolean[] lastVictimHits = new boolean[2];
+
+	/**
+	 * Creates an empty cache.
+	 * @param numberOfBlocks the total number of blocks
+	 * @param blockSizeInWords the number of words in each block
+	 * @param setSizeInBlocks the number of blocks in each set, which must divide numberOfBlocks
+	 * @param random the generator used by the RANDOM policy, which may be shared (to continue one stream of
+	 * 			choices across several caches) or seeded (for reproducible results)
+	 */
+	public Cache(int numberOfBlocks, int blockSizeInWords, int setSizeInBlocks, Random random)
+	{
+		if (numberOfBlocks <= 0 || blockSizeInWords <= 0 || setSizeInBlocks <= 0 || numberOfBlocks % setSizeInBlocks != 0)
+			throw new IllegalArgumentException("Invalid cache organization");
+		this.numberOfBlocks = numberOfBlocks;
+		this.blockSizeInWords = blockSizeInWords;
+		this.setSizeInBlocks = setSizeInBlocks;
+		this.numberOfSets = numberOfBlocks / setSizeInBlocks;
+		this.random = random;
+		tags = new int[numberOfBlocks];
+		valid = new boolean[numberOfBlocks];
+		validCounts = new int[numberOfSets];
+		if (setSizeInBlocks >= INDEXED_SET_SIZE)
+		{
+			//At least twice as many slots as blocks, so the table is never more than half full.
+			indexKeys = new int[Integer.highestOneBit(numberOfBlocks) << 2];
+			indexBlocks = new int[indexKeys.length];
+		}
+		else
+			indexKeys = indexBlocks = null;
+		dirty = new boolean[numberOfBlocks];
+		prefetched = new boolean[numberOfBlocks];
+		lastAccessTimes = new int[numberOfBlocks];
+		older = new int[numberOfBlocks];
+		newer = new int[numberOfBlocks];
+		newestBlocks = new int[numberOfSets];
+		oldestBlocks = new int[numberOfSets];
+		treeBits = (Integer.bitCount(setSizeInBlocks) == 1) ? new boolean[numberOfBlocks] : null;
+		reset();
+	}
+
+	/**
+	 * Creates an empty cache whose RANDOM policy uses a generator with the seed 0.
+	 */
+	public Cache(int numberOfBlocks, int blockSizeInWords, int setSizeInBlocks)
+	{
+		this(numberOfBlocks, blockSizeInWords, setSizeInBlocks, new Random(0));
+	}
+
+	/**
+	 * Empties the cache and clears the counts, reusing its storage.
+	 */
+	public void reset()
+	{
+		Arrays.fill(tags, 0);
+		Arrays.fill(valid, false);
+		Arrays.fill(validCounts, 0);
+		if (indexKeys != null)
+			Arrays.fill(indexKeys, EMPTY);
+		Arrays.fill(dirty, false);
+		Arrays.fill(prefetched, false);
+		lastHitPrefetched = false;
+		uselessPrefetchCount = 0;
+		victimHitCount = 0;
+		Arrays.fill(lastVictimHits, false);
+		if (victimCache != null)
+			victimCache.reset();
+		if (missClassifier != null)
+			missClassifier.reset();
+		Arrays.fill(lastAccessTimes, -1);
+		Arrays.fill(older, -1);
+		Arrays.fill(newer, -1);
+		Arrays.fill(newestBlocks, -1);
+		Arrays.fill(oldestBlocks, -1);
+		if (treeBits != null)
+			Arrays.fill(treeBits, false);
+		accessCount = hitCount = missCount = clock = 0;
+		writeCount = writeHitCount = writeBackCount = 0;
+		bytesRead = bytesWritten = 0;
+		holes = evicted = evictedDirty = false;
+		evictedAddress = 0;
+		Arrays.fill(streamAccessCounts, 0);
+		Arrays.fill(streamHitCounts, 0);
+		Arrays.fill(lastBlocks, 0);
+		Arrays.fill(lastOutcomes, 0);
+		Arrays.fill(lastReplacedAccessTimes, 0);
+	}
+
+	/**
+	 * Sets the policy used to choose a block to replace when a set is full. It may be changed at any time.
+	 * @param policy LRU, RANDOM, FIFO or PLRU (only for sets of a power of 2 blocks)
+	 */
+	public void setReplacementPolicy(int policy)
+	{
+		if (policy < LRU || policy > PLRU)
+			throw new IllegalArgumentException("Unknown replacement policy " + policy);
+		if (policy == PLRU && treeBits == null)
+			throw new IllegalArgumentException("Tree-PLRU needs a set size which is a power of 2");
+		replacementPolicy = policy;
+	}
+
+	public int getReplacementPolicy()
+	{
+		return replacementPolicy;
+	}
+
+	/**
+	 * Sets how stores reach the next level. It may be changed at any time; blocks already dirty are still
+	 * written back when they are replaced.
+	 * @param policy WRITE_BACK or WRITE_THROUGH
+	 */
+	public void setWritePolicy(int policy)
+	{
+		if (policy != WRITE_BACK && policy != WRITE_THROUGH)
+			throw new IllegalArgumentException("Unknown write policy " + policy);
+		writePolicy = policy;
+	}
+
+	public int getWritePolicy()
+	{
+		return writePolicy;
+	}
+
+	/**
+	 * @param allocate whether a store which misses reads its block into the cache
+	 */
+	public void setWriteAllocate(boolean allocate)
+	{
+		writeAllocate = allocate;
+	}
+
+	public boolean isWriteAllocate()
+	{
+		return writeAllocate;
+	}
+
+	/**
+	 * Accesses data at an address, reading its block into the cache if it is not already there.
+	 * @param address the byte address
+	 * @return whether the access was a hit
+	 */
+	public boolean access(int address)
+	{
+		return access(address, DATA);
+	}
+
+	/**
+	 * Adds or removes the victim cache, emptying it. It should be set before the first access.
+	 * @param blocks the number of blocks of the victim cache, or 0 for none
+	 */
+	public void setVictimCacheSize(int blocks)
+	{
+		if (blocks == getVictimCacheSize())
+		{
+			if (victimCache != null)
+				victimCache.reset();
+		}
+		else
+			victimCache = (blocks == 0) ? null : new Cache(blocks, blockSizeInWords, blocks);
+	}
+
+	/**
+	 * @return the number of blocks of the victim cache, or 0 if there is none
+	 */
+	public int getVictimCacheSize()
+	{
+		return (victimCache == null) ? 0 : victimCache.getNumberOfBlocks();
+	}
+
+	/**
+	 * Starts or stops classifying misses. It should be set before the first access.
+	 */
+	public void setMissClassification(boolean classify)
+	{
+		if ( ! classify)
+			missClassifier = null;
+		else if (missClassifier == null)
+			missClassifier = new MissClassifier(numberOfBlocks, blockSizeInWords);
+	}
+
+	/**
+	 * @return the MissClassifier sorting the misses of the cache, or null if they are not classified
+	 */
+	public MissClassifier getMissClassifier()
+	{
+		return missClassifier;
+	}
+
+	/**
+	 * Reads an address, reading its block into the cache if it is not already there.
+	 * @param address the byte address
+	 * @param stream DATA or INSTRUCTION
+	 * @return whether the access was a hit
+	 */
+	public boolean access(int address, int stream)
+	{
+		return access(address, stream, false, 4);
+	}
+
+	/**
+	 * Loads from or stores to an address. A load, or a store under write-allocate, reads its block into the
+	 * cache if it is not already there; a store under no-write-allocate only swaps its block back from the
+	 * victim cache.
+	 * @param address the byte address
+	 * @param stream DATA or INSTRUCTION
+	 * @param write whether the access is a store
+	 * @param size the number of bytes accessed: 1, 2 or 4
+	 * @return whether the access was a hit
+	 */
+	public boolean access(int address, int stream, boolean write, int size)
+	{
+		accessCount++;
+		streamAccessCounts[stream]++;
+		if (write)
+			writeCount++;
+		boolean hit;
+		if (write && ! writeAllocate && find(address) == -1 && (victimCache == null || ! victimCache.probe(address)))
+		{
+			clock++;
+			evicted = evictedDirty = lastHitPrefetched = false;
+			record(stream, -1, MISS_NOT_ALLOCATED);
+			hit = false;
+		}
+		else
+		{
+			hit = reference(address, stream);
+			if ( ! hit && victimCache != null)
+			{
+				//Swap the block with the one just replaced.
+				boolean found = victimCache.invalidate(address);
+				if (evicted)
+					victimCache.fill(evictedAddress);
+				if (found)
+				{
+					victimHitCount++;
+					hit = true;
+				}
+			}
+			if ( ! hit)
+				bytesRead += blockSizeInWords << 2;
+			if (write && writePolicy == WRITE_BACK)
+				dirty[referencedBlock] = true;
+		}
+		lastVictimHits[stream] = hit && lastOutcomes[stream] != HIT;
+		if (missClassifier != null)
+			missClassifier.access(address, ! hit);
+		if (write && (writePolicy == WRITE_THROUGH || lastOutcomes[stream] == MISS_NOT_ALLOCATED))
+			bytesWritten += size;
+		if (hit)
+		{
+			hitCount++;
+			streamHitCounts[stream]++;
+			if (write)
+				writeHitCount++;
+			return true;
+		}
+		missCount++;
+		return false;
+	}
+
+	/**
+	 * Places an address's block in the cache, as the most recently used, if it is not already there. Unlike
+	 * access(), this is not counted, so it may be used to move blocks between the levels of a hierarchy.
+	 */
+	public void fill(int address)
+	{
+		fill(address, false);
+	}
+
+	/**
+	 * Places an address's block in the cache, as fill(address) does.
+	 * @param modified whether the block holds data not yet written to the next level, as when a dirty block is
+	 * 			written back from the level above; if so, it is marked dirty, or under WRITE_THROUGH written on
+	 */
+	public void fill(int address, boolean modified)
+	{
+		reference(address, -1);
+		if ( ! modified)
+			return;
+		if (writePolicy == WRITE_BACK)
+			dirty[referencedBlock] = true;
+		else
+			bytesWritten += blockSizeInWords << 2;
+	}
+
+	/**
+	 * Places an address's block in the cache, if it is not already there, marked as prefetched. This is not
+	 * counted as an access.
+	 * @return the block it was placed in, or -1 if it was already in the cache
+	 */
+	public int prefetch(int address)
+	{
+		if (reference(address, -1))
+			return -1;
+		prefetched[referencedBlock] = true;
+		return referencedBlock;
+	}
+
+	/**
+	 * @return whether the most recent access was a hit on a block placed by prefetch() and not accessed before
+	 */
+	public boolean wasPrefetchHit()
+	{
+		return lastHitPrefetched;
+	}
+
+	/**
+	 * @return the number of prefetched blocks replaced or invalidated before they were accessed
+	 */
+	public int getUselessPrefetchCount()
+	{
+		return uselessPrefetchCount;
+	}
+
+	/**
+	 * @param stream DATA or INSTRUCTION
+	 * @return whether the most recent access of the stream missed in the cache but was found in the victim cache
+	 * 			(and so counted as a hit)
+	 */
+	public boolean wasVictimHit(int stream)
+	{
+		return lastVictimHits[stream];
+	}
+
+	/**
+	 * @return the number of accesses found in the victim cache, which are included in the hits
+	 */
+	public int getVictimHitCount()
+	{
+		return victimHitCount;
+	}
+
+	/**
+	 * @return whether an address's block is in the cache and dirty
+	 */
+	public boolean isDirty(int address)
+	{
+		int block = find(address);
+		return block != -1 && dirty[block];
+	}
+
+	/**
+	 * @return whether an address's block is in the cache. Nothing is changed or counted.
+	 */
+	public boolean probe(int address)
+	{
+		return find(address) != -1;
+	}
+
+	/**
+	 * Removes an address's block from the cache, if it is there.
+	 * @return whether it was there
+	 */
+	public boolean invalidate(int address)
+	{
+		int block = find(address);
+		if (block == -1)
+			return false;
+		valid[block] = false;
+		validCounts[block / setSizeInBlocks]--;
+		unindex((address >>> 2) / blockSizeInWords);
+		dirty[block] = false;
+		if (prefetched[block])
+			uselessPrefetchCount++;
+		prefetched[block] = false;
+		lastAccessTimes[block] = -1;
+		unlink(block, block / setSizeInBlocks);
+		holes = true;
+		return true;
+	}
+
+	/**
+	 * @return whether the most recent access or fill replaced a block
+	 */
+	public boolean hasEvicted()
+	{
+		return evicted;
+	}
+
+	/**
+	 * @return whether the block the most recent access or fill replaced was dirty, and so was written back
+	 */
+	public boolean hasEvictedDirty()
+	{
+		return evictedDirty;
+	}
+
+	/**
+	 * @return if the most recent access or fill replaced a block, the address of the start of that block
+	 */
+	public int getEvictedAddress()
+	{
+		return evictedAddress;
+	}
+
+	/**
+	 * @return the block holding an address, or -1
+	 */
+	private int find(int address)
+	{
+		if (indexKeys != null)
+			return lookUp((address >>> 2) / blockSizeInWords);
+		int tag = getTag(address);
+		int first = getFirstBlockToSearch(address);
+		for(int block = first; block < first + setSizeInBlocks; block++)
+		{
+			if (valid[block] && tags[block] == tag)
+				return block;
+		}
+		return -1;
+	}
+
+	/**
+	 * Looks an address up, placing its block in the first empty block of its set or else in the block chosen
+	 * by the replacement policy, and records the result for the stream (unless it is -1).
+	 * @return whether it was a hit
+	 */
+	private boolean reference(int address, int stream)
+	{
+		clock++;
+		evicted = evictedDirty = false;
+		if (stream != -1)
+			lastHitPrefetched = false;
+		int tag = getTag(address);
+		int set = getSetNumber(address);
+		int first = set * setSizeInBlocks;
+		int last = first + setSizeInBlocks - 1;
+		int found = -1, empty = -1;
+		if (indexKeys != null)
+		{
+			found = lookUp((address >>> 2) / blockSizeInWords);
+			if (found == -1 && validCounts[set] < setSizeInBlocks)
+			{
+				//Unless a block has been invalidated, the valid blocks are the first ones.
+				empty = first + validCounts[set];
+				if (holes)
+				{
+					for(empty = first; valid[empty]; empty++)
+						;
+				}
+			}
+		}
+		else
+		{
+			for(int block = first; block <= last; block++)
+			{
+				if (valid[block] && tags[block] == tag)
+				{
+					found = block;
+					break;
+				}
+				if ( ! valid[block] && empty == -1)
+				{
+					empty = block;
+					if ( ! holes)
+						break; //Every block after the first empty one is empty.
+				}
+			}
+		}
+		if (found != -1)
+		{
+			lastAccessTimes[found] = clock;
+			if (replacementPolicy != FIFO)
+			{
+				unlink(found, set);
+				linkNewest(found, set);
+			}
+			touchTree(found - first, first);
+			referencedBlock = found;
+			if (stream != -1)
+			{
+				lastHitPrefetched = prefetched[found];
+				prefetched[found] = false;
+			}
+			record(stream, found, HIT);
+			return true;
+		}
+		if (empty != -1)
+		{
+			valid[empty] = true;
+			validCounts[set]++;
+			index((address >>> 2) / blockSizeInWords, empty);
+			dirty[empty] = false;
+			tags[empty] = tag;
+			lastAccessTimes[empty] = clock;
+			linkNewest(empty, set);
+			touchTree(empty - first, first);
+			referencedBlock = empty;
+			record(stream, empty, MISS);
+			return false;
+		}
+		int block = selectBlockToReplace(set, first, last);
+		if (stream != -1)
+			lastReplacedAccessTimes[stream] = lastAccessTimes[block];
+		evicted = true;
+		evictedAddress = ((tags[block] * numberOfSets + (block / setSizeInBlocks)) * blockSizeInWords) << 2;
+		if (dirty[block])
+		{
+			evictedDirty = true;
+			writeBackCount++;
+			bytesWritten += blockSizeInWords << 2;
+			dirty[block] = false;
+		}
+		if (prefetched[block])
+			uselessPrefetchCount++;
+		prefetched[block] = false;
+		unindex(tags[block] * numberOfSets + set);
+		index((address >>> 2) / blockSizeInWords, block);
+		tags[block] = tag;
+		lastAccessTimes[block] = clock;
+		unlink(block, set);
+		linkNewest(block, set);
+		touchTree(block - first, first);
+		referencedBlock = block;
+		record(stream, block, MISS_SET_FULL);
+		return false;
+	}
+
+	/**
+	 * @return the block holding a block address, found through the hash table, or -1
+	 */
+	private int lookUp(int blockAddress)
+	{
+		int mask = indexKeys.length - 1;
+		for(int slot = hash(blockAddress) & mask; indexKeys[slot] != EMPTY; slot = (slot + 1) & mask)
+		{
+			if (indexKeys[slot] == blockAddress)
+				return indexBlocks[slot];
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a block address, not already there, to the hash table, if there is one.
+	 */
+	private void index(int blockAddress, int block)
+	{
+		if (indexKeys == null)
+			return;
+		int mask = indexKeys.length - 1;
+		int slot = hash(blockAddress) & mask;
+		while (indexKeys[slot] != EMPTY)
+			slot = (slot + 1) & mask;
+		indexKeys[slot] = blockAddress;
+		indexBlocks[slot] = block;
+	}
+
+	/**
+	 * Removes a block address, which must be there, from the hash table, if there is one. Rather than leaving
+	 * a marker, the later keys of the run are moved back into the gap where they would otherwise not be found.
+	 */
+	private void unindex(int blockAddress)
+	{
+		if (indexKeys == null)
+			return;
+		int mask = indexKeys.length - 1;
+		int gap = hash(blockAddress) & mask;
+		while (indexKeys[gap] != blockAddress)
+			gap = (gap + 1) & mask;
+		for(int slot = (gap + 1) & mask; indexKeys[slot] != EMPTY; slot = (slot + 1) & mask)
+		{
+			//The key may fill the gap if the gap lies between the slot it hashes to and the one it is in.
+			int home = hash(indexKeys[slot]) & mask;
+			if (((slot - home) & mask) >= ((slot - gap) & mask))
+			{
+				indexKeys[gap] = indexKeys[slot];
+				indexBlocks[gap] = indexBlocks[slot];
+				gap = slot;
+			}
+		}
+		indexKeys[gap] = EMPTY;
+	}
+
+	private static int hash(int key)
+	{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void record(int stream, int block, int outcome)
+	{
+		if (stream == -1)
+			return;
+		lastBlocks[stream] = block;
+		lastOutcomes[stream] = outcome;
+	}
+
+	/**
+	 * Chooses a block to replace in a full set, by the replacement policy.
+	 */
+	private int selectBlockToReplace(int set, int first, int last)
+	{
+		if (first == last)
+			return first;
+		switch (replacementPolicy)
+		{
+			case RANDOM:
+				return first + random.nextInt(last - first + 1);
+			case PLRU:
+				int node = 1;
+				while (node < setSizeInBlocks)
+					node = 2 * node + (treeBits[first + node] ? 1 : 0);
+				return first + node - setSizeInBlocks;
+			default: //LRU and FIFO
+				return oldestBlocks[set];
+		}
+	}
+
+	/**
+	 * Makes a block the newest of its set.
+	 */
+	private void linkNewest(int block, int set)
+	{
+		int newest = newestBlocks[set];
+		older[block] = newest;
+		newer[block] = -1;
+		if (newest == -1)
+			oldestBlocks[set] = block;
+		else
+			newer[newest] = block;
+		newestBlocks[set] = block;
+	}
+
+	private void unlink(int block, int set)
+	{
+		if (older[block] == -1)
+			oldestBlocks[set] = newer[block];
+		else
+			newer[older[block]] = newer[block];
+		if (newer[block] == -1)
+			newestBlocks[set] = older[block];
+		else
+			older[newer[block]] = older[block];
+		older[block] = newer[block] = -1;
+	}
+
+	/**
+	 * Points every node on the path from the root of a set's tree to one of its blocks away from that block.
+	 * @param way the position of the block in its set
+	 * @param first the first block of the set, at which its bits start
+	 */
+	private void touchTree(int way, int first)
+	{
+		if (treeBits == null)
+			return;
+		for(int node = way + setSizeInBlocks; node > 1; node >>= 1)
+			treeBits[first + (node >> 1)] = (node & 1) == 0;
+	}
+
+	/*
+	 * These work regardless of placement: for direct mapping, #sets == #blocks, and for full associativity,
+	 * #sets == 1, so anything % #sets == 0. Addresses are unsigned, so kernel addresses may be cached.
+	 */
+
+	public int getSetNumber(int address)
+	{
+		return (address >>> 2) / blockSizeInWords % numberOfSets;
+	}
+
+	public int getTag(int address)
+	{
+		return (address >>> 2) / blockSizeInWords / numberOfSets;
+	}
+
+	/**
+	 * @return the number of the first block of the set an address maps to
+	 */
+	public int getFirstBlockToSearch(int address)
+	{
+		return getSetNumber(address) * setSizeInBlocks;
+	}
+
+	/**
+	 * @param stream DATA or INSTRUCTION
+	 * @return the block in which the most recent access of the stream was found or placed, or -1 if it
+	 * 			was not placed
+	 */
+	public int getLastBlock(int stream)
+	{
+		return lastBlocks[stream];
+	}
+
+	/**
+	 * @param stream DATA or INSTRUCTION
+	 * @return HIT, MISS (placed in an empty block), MISS_SET_FULL (placed in a block which was replaced) or
+	 * 			MISS_NOT_ALLOCATED (a store not placed in the cache) for the most recent access of the stream
+	 */
+	public int getLastOutcome(int stream)
+	{
+		return lastOutcomes[stream];
+	}
+
+	/**
+	 * @param stream DATA or INSTRUCTION
+	 * @return if the most recent access of the stream replaced a block, the access count at which that block
+	 * 			was last used
+	 */
+	public int getLastReplacedAccessTime(int stream)
+	{
+		return lastReplacedAccessTimes[stream];
+	}
+
+	public int getNumberOfBlocks()
+	{
+		return numberOfBlocks;
+	}
+
+	public int getNumberOfSets()
+	{
+		return numberOfSets;
+	}
+
+	public int getSetSizeInBlocks()
+	{
+		return setSizeInBlocks;
+	}
+
+	public int getBlockSizeInWords()
+	{
+		return blockSizeInWords;
+	}
+
+	public int getCacheSizeInBytes()
+	{
+		return numberOfBlocks * blockSizeInWords * 4;
+	}
+
+	public int getAccessCount()
+	{
+		return accessCount;
+	}
+
+	public int getHitCount()
+	{
+		return hitCount;
+	}
+
+	public int getMissCount()
+	{
+		return missCount;
+	}
+
+	public double getHitRate()
+	{
+		return (accessCount == 0) ? 0.0 : hitCount / (double) accessCount;
+	}
+
+	/**
+	 * @return the number of stores; the rest of the accesses were loads and fetches
+	 */
+	public int getWriteCount()
+	{
+		return writeCount;
+	}
+
+	public int getWriteHitCount()
+	{
+		return writeHitCount;
+	}
+
+	/**
+	 * @return the number of dirty blocks replaced, and so written back
+	 */
+	public int getWriteBackCount()
+	{
+		return writeBackCount;
+	}
+
+	/**
+	 * @return the number of bytes read from the next level: a block for each miss placed in the cache
+	 */
+	public long getBytesRead()
+	{
+		return bytesRead;
+	}
+
+	/**
+	 * @return the number of bytes written to the next level: a block for each write-back, and the bytes of
+	 * 			each store written through or not allocated
+	 */
+	public long getBytesWritten()
+	{
+		return bytesWritten;
+	}
+
+	/**
+	 * @param stream DATA or INSTRUCTION
+	 */
+	public int getAccessCount(int stream)
+	{
+		return streamAccessCounts[stream];
+	}
+
+	/**
+	 * @param stream DATA or INSTRUCTION
+	 */
+	public int getHitCount(int stream)
+	{
+		return streamHitCounts[stream];
+	}
+
+	/**
+	 * @param stream DATA or INSTRUCTION
+	 */
+	public int getMissCount(int stream)
+	{
+		return streamAccessCounts[stream] - streamHitCounts[stream];
+	}
+
+	/**
+	 * @param stream DATA or INSTRUCTION
+	 */
+	public double getHitRate(int stream)
+	{
+		return (streamAccessCounts[stream] == 0) ? 0.0 : streamHitCounts[stream] / (double) streamAccessCounts[stream];
+	}
+}
@@ -0,0 +1,346 @@
+package ares.core.cache;
+import java.util.Arrays;
+
+/**
+ * Two levels of caches in front of memory: a first-level instruction cache (L1I) and data cache (L1D), both
+ * backed by a shared second-level cache (L2). Each level, and memory, has a latency: the number of cycles it
+ * takes to look an address up. An access costs the latencies of every level down to (and including) the one
+ * its block is found in, and the pipeline stalls for all but the first cycle.
+ * <p>
+ * The levels are ordinary Caches, each with its own organization and replacement policy, but the counts kept
+ * here are those of the hierarchy: an access of L2 is an L1 miss, and an access of memory an L2 miss. The
+ * blocks held by L1 and L2 follow one of three policies:
+ * <ul>
+ * <li>INCLUSIVE: every block in an L1 is also in L2. A block L2 replaces is invalidated in both L1s.</li>
+ * <li>NON_INCLUSIVE: a block read from memory is placed in both levels, but each replaces blocks independently.</li>
+ * <li>EXCLUSIVE: no block is in both levels. A block found in L2 moves to L1, and only a block an L1 replaces is
+ * placed in L2, which acts as a victim cache.</li>
+ * </ul>
+ * Stores follow L1D's write policy. What L1D writes to the next level, whether a dirty block it replaces or a
+ * store it writes through, is written into L2 (in EXCLUSIVE, only if L2 holds the block; otherwise to memory),
+ * and L2 writes to memory by its own policy. Writes are buffered, so they never stall the pipeline; only reads
+ * do. The bytes moved to and from memory are counted, to estimate the bandwidth the hierarchy needs.
+ * @author James Hester
+ *
+ */
+public class CacheHierarchy
+{
+	/** The inclusion policies. */
+	public static final int INCLUSIVE = 0, NON_INCLUSIVE = 1, EXCLUSIVE = 2;
+	public static final String[] INCLUSION_POLICY_NAMES = {"Inclusive", "Non-inclusive", "Exclusive"};
+
+	/** The levels, which index the counts and latencies. */
+	public static final int L1I = 0, L1D = 1, L2 = 2, MEMORY = 3;
+	public static final String[] LEVEL_NAMES = {"L1I", "L1D", "L2", "Memory"};
+
+	private final Cache[] caches = new Cache[3];
+	private final int[] latencies = new int[4];
+	private final int inclusionPolicy;
+
+	private final long[] accessCounts = new long[4], hitCounts = new long[4];
+	private long stallCycles = 0;
+	/** The bytes moved to and from memory other than by L2's own misses and write-backs, which it counts. */
+	private long memoryBytesRead = 0, memoryBytesWritten = 0;
+
+	/**
+	 * Creates a hierarchy of empty caches. The caches are reset, and should not be accessed except through it.
+	 * @param l1i the instruction cache, or null to leave fetches unsimulated
+	 * @param l1d the data cache
+	 * @param l2 the second-level cache, or null for L1 misses to go straight to memory
+	 * @param l1Latency the cycles taken by an access that hits in an L1, at least 1
+	 * @param l2Latency the cycles L2 adds to an L1 miss
+	 * @param memoryLatency the cycles memory adds to a miss in every level
+	 * @param inclusionPolicy INCLUSIVE, NON_INCLUSIVE or EXCLUSIVE
+	 */
+	public CacheHierarchy(Cache l1i, Cache l1d, Cache l2, int l1Latency, int l2Latency, int memoryLatency, int inclusionPolicy)
+	{
+		if (l1d == null || l1i == l1d || (l2 != null && (l2 == l1i || l2 == l1d)))
+			throw new IllegalArgumentException("Each level needs its own cache");
+		if (l1Latency < 1 || l2Latency < 0 || memoryLatency < 0)
+			throw new IllegalArgumentException("Invalid latency");
+		if (inclusionPolicy != INCLUSIVE && inclusionPolicy != NON_INCLUSIVE && inclusionPolicy != EXCLUSIVE)
+			throw new IllegalArgumentException("Unknown inclusion policy " + inclusionPolicy);
+		if (l2 != null)
+		{
+			for(Cache l1 : new Cache[] {l1i, l1d})
+			{
+				if (l1 == null)
+					continue;
+				if (inclusionPolicy == INCLUSIVE && l1.getBlockSizeInWords() > l2.getBlockSizeInWords())
+					throw new IllegalArgumentException("An inclusive L2 needs blocks at least as large as the L1s'");
+				if (inclusionPolicy == EXCLUSIVE && l1.getBlockSizeInWords() != l2.getBlockSizeInWords())
+					throw new IllegalArgumentException("An exclusive L2 needs blocks the same size as the L1s'");
+			}
+		}
+		caches[L1I] = l1i;
+		caches[L1D] = l1d;
+		caches[L2] = l2;
+		latencies[L1I] = latencies[L1D] = l1Latency;
+		latencies[L2] = l2Latency;
+		latencies[MEMORY] = memoryLatency;
+		this.inclusionPolicy = inclusionPolicy;
+		reset();
+	}
+
+	/**
+	 * Empties every cache and clears the counts.
+	 */
+	public void reset()
+	{
+		for(Cache cache : caches)
+		{
+			if (cache != null)
+				cache.reset();
+		}
+		Arrays.fill(accessCounts, 0);
+		Arrays.fill(hitCounts, 0);
+		stallCycles = memoryBytesRead = memoryBytesWritten = 0;
+	}
+
+	/**
+	 * Fetches the instruction at an address through L1I.
+	 * @return the number of cycles the pipeline stalls for; 0 if there is no L1I
+	 */
+	public int fetch(int address)
+	{
+		if (caches[L1I] == null)
+			return 0;
+		return access(L1I, address, Cache.INSTRUCTION, false, 4);
+	}
+
+	/**
+	 * Loads the word at an address through L1D.
+	 * @return the number of cycles the pipeline stalls for
+	 */
+	public int accessData(int address)
+	{
+		return accessData(address, false, 4);
+	}
+
+	/**
+	 * Loads from or stores to an address through L1D.
+	 * @param write whether the access is a store
+	 * @param size the number of bytes accessed: 1, 2 or 4
+	 * @return the number of cycles the pipeline stalls for
+	 */
+	public int accessData(int address, boolean write, int size)
+	{
+		return access(L1D, address, Cache.DATA, write, size);
+	}
+
+	private int access(int level, int address, int stream, boolean write, int size)
+	{
+		Cache l1 = caches[level];
+		Cache l2 = caches[L2];
+		int cycles = latencies[level];
+		accessCounts[level]++;
+		boolean hit = l1.access(address, stream, write, size);
+		boolean allocated = l1.getLastOutcome(stream) != Cache.MISS_NOT_ALLOCATED;
+		boolean l1Evicted = l1.hasEvicted(), l1EvictedDirty = l1.hasEvictedDirty();
+		int victim = l1.getEvictedAddress();
+		if (hit)
+			hitCounts[level]++;
+		else if (allocated)
+		{
+			boolean found = false;
+			if (l2 != null)
+			{
+				cycles += latencies[L2];
+				accessCounts[L2]++;
+				if (inclusionPolicy == EXCLUSIVE)
+				{
+					//The block moves up, taking with it any data not yet written to memory.
+					if (l2.isDirty(address))
+					{
+						if (l1.getWritePolicy() == Cache.WRITE_BACK)
+							l1.fill(address, true);
+						else
+							memoryBytesWritten += l2.getBlockSizeInWords() << 2;
+					}
+					found = l2.invalidate(address);
+					if (l1Evicted && ! l1EvictedDirty)
+						l2.fill(victim);
+				}
+				else
+				{
+					found = l2.access(address, stream);
+					if (inclusionPolicy == INCLUSIVE && l2.hasEvicted())
+						invalidateL1(l2.getEvictedAddress(), l2.getBlockSizeInWords() << 2);
+				}
+				if (found)
+					hitCounts[L2]++;
+			}
+			if ( ! found)
+			{
+				cycles += latencies[MEMORY];
+				accessCounts[MEMORY]++;
+				hitCounts[MEMORY]++;
+				if (l2 != null && inclusionPolicy == EXCLUSIVE)
+					memoryBytesRead += l1.getBlockSizeInWords() << 2;
+			}
+		}
+		if (l1EvictedDirty)
+			writeBelow(victim, l1.getBlockSizeInWords() << 2);
+		if (write && (l1.getWritePolicy() == Cache.WRITE_THROUGH || ! allocated))
+			writeBelow(address, size);
+		stallCycles += cycles - 1;
+		return cycles - 1;
+	}
+
+	/**
+	 * Writes data an L1 replaced or wrote through into L2. If there is no L2, it is written to memory, and the
+	 * L1 has counted the bytes.
+	 */
+	private void writeBelow(int address, int bytes)
+	{
+		Cache l2 = caches[L2];
+		if (l2 == null)
+			return;
+		boolean present = l2.probe(address);
+		if (inclusionPolicy == EXCLUSIVE && ! present && bytes < l2.getBlockSizeInWords() << 2)
+		{
+			memoryBytesWritten += bytes; //Only whole blocks an L1 replaces are kept by an exclusive L2.
+			return;
+		}
+		if ( ! present && bytes < l2.getBlockSizeInWords() << 2)
+			memoryBytesRead += l2.getBlockSizeInWords() << 2; //The rest of the block must be read first.
+		l2.fill(address, true);
+		if (inclusionPolicy == INCLUSIVE && l2.hasEvicted())
+			invalidateL1(l2.getEvictedAddress(), l2.getBlockSizeInWords() << 2);
+	}
+
+	/**
+	 * Invalidates, in both L1s, every block holding part of a block of L2. Dirty blocks are written to memory.
+	 */
+	private void invalidateL1(int blockAddress, int blockSizeInBytes)
+	{
+		for(int level = L1I; level <= L1D; level++)
+		{
+			Cache l1 = caches[level];
+			if (l1 == null)
+				continue;
+			int step = l1.getBlockSizeInWords() << 2;
+			for(int offset = 0; offset < blockSizeInBytes; offset += step)
+			{
+				if (l1.isDirty(blockAddress + offset))
+					memoryBytesWritten += step;
+				l1.invalidate(blockAddress + offset);
+			}
+		}
+	}
+
+	/**
+	 * @param level L1I, L1D or L2
+	 * @return the cache at a level, or null if there is none
+	 */
+	public Cache getCache(int level)
+	{
+		return caches[level];
+	}
+
+	public int getInclusionPolicy()
+	{
+		return inclusionPolicy;
+	}
+
+	/**
+	 * @param level L1I, L1D, L2 or MEMORY
+	 */
+	public int getLatency(int level)
+	{
+		return latencies[level];
+	}
+
+	/**
+	 * @param level L1I, L1D, L2 or MEMORY
+	 * @return the number of accesses which reached a level
+	 */
+	public long getAccessCount(int level)
+	{
+		return accessCounts[level];
+	}
+
+	/**
+	 * @param level L1I, L1D, L2 or MEMORY
+	 * @return the number of accesses which found their block at a level; at MEMORY, every one
+	 */
+	public long getHitCount(int level)
+	{
+		return hitCounts[level];
+	}
+
+	/**
+	 * @param level L1I, L1D, L2 or MEMORY
+	 */
+	public long getMissCount(int level)
+	{
+		return accessCounts[level] - hitCounts[level];
+	}
+
+	/**
+	 * @param level L1I, L1D, L2 or MEMORY
+	 * @return the hit rate local to a level: its hits over the accesses which reached it
+	 */
+	public double getHitRate(int level)
+	{
+		return (accessCounts[level] == 0) ? 0.0 : hitCounts[level] / (double) accessCounts[level];
+	}
+
+	/**
+	 * @return the total number of cycles every access has stalled for
+	 */
+	public long getStallCycles()
+	{
+		return stallCycles;
+	}
+
+	/**
+	 * @return the average number of cycles an access takes, from L1 onward
+	 */
+	public double getAverageAccessTime()
+	{
+		long accesses = accessCounts[L1I] + accessCounts[L1D];
+		return (accesses == 0) ? 0.0 : 1.0 + stallCycles / (double) accesses;
+	}
+
+	/**
+	 * @return the number of bytes read from memory
+	 */
+	public long getMemoryBytesRead()
+	{
+		Cache lowest = (caches[L2] != null) ? caches[L2] : caches[L1D];
+		long result = memoryBytesRead + lowest.getBytesRead();
+		if (caches[L2] == null && caches[L1I] != null)
+			result += caches[L1I].getBytesRead();
+		return result;
+	}
+
+	/**
+	 * @return the number of bytes written to memory
+	 */
+	public long getMemoryBytesWritten()
+	{
+		Cache lowest = (caches[L2] != null) ? caches[L2] : caches[L1D];
+		return memoryBytesWritten + lowest.getBytesWritten();
+	}
+
+	/**
+	 * @return a table of the counts of each level
+	 */
+	public String getReport()
+	{
+		StringBuilder result = new StringBuilder();
+		result.append(String.format("%s hierarchy%n%-8s %8s %12s %12s %12s %9s%n", INCLUSION_POLICY_NAMES[inclusionPolicy],
+				"Level", "Latency", "Accesses", "Hits", "Misses", "Hit rate"));
+		for(int level = L1I; level <= MEMORY; level++)
+		{
+			if (level != MEMORY && caches[level] == null)
+				continue;
+			result.append(String.format("%-8s %8d %12d %12d %12d %8.2f%%%n", LEVEL_NAMES[level], latencies[level],
+					accessCounts[level], hitCounts[level], getMissCount(level), 100 * getHitRate(level)));
+		}
+		result.append(String.format("Average access time %.3f cycles; %d cycles stalled%n", getAverageAccessTime(), stallCycles));
+		result.append(String.format("Memory traffic: %d bytes read, %d bytes written%n", getMemoryBytesRead(), getMemoryBytesWritten()));
+		return result.toString();
+	}
+}
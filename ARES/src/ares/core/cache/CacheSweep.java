@@ -0,0 +1,82 @@
+package ares.core.cache;
+
+/**
+ * The hit counts of many cache organizations on the same stream of accesses: every combination of a block size,
+ * a number of blocks and a set size which is a power of 2 no greater than the number of blocks (as offered by
+ * CacheSimulator).
+ * @author James Hester
+ *
+ */
+public abstract class CacheSweep
+{
+	protected final int[] blockSizes, blockCounts;
+
+	/**
+	 * @param blockSizesInWords the block sizes of interest
+	 * @param blockCounts the numbers of blocks of interest, each a power of 2
+	 */
+	protected CacheSweep(int[] blockSizesInWords, int[] blockCounts)
+	{
+		for(int count : blockCounts)
+		{
+			if (Integer.bitCount(count) != 1)
+				throw new IllegalArgumentException("The number of blocks must be a power of 2");
+		}
+		this.blockSizes = blockSizesInWords.clone();
+		this.blockCounts = blockCounts.clone();
+	}
+
+	public abstract long getAccessCount();
+
+	/**
+	 * @return the number of hits a cache of the given organization had, which must be one of those swept
+	 */
+	public abstract long getHitCount(int blockSizeInWords, int numberOfBlocks, int setSizeInBlocks);
+
+	/**
+	 * @return the heading of the report, such as the replacement policy
+	 */
+	protected abstract String getTitle();
+
+	protected static int indexOf(int[] array, int value)
+	{
+		for(int i = 0; i < array.length; i++)
+		{
+			if (array[i] == value)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a table of the hit rate of every organization, for each block size: one row for each number of blocks,
+	 * 			and one column for each set size
+	 */
+	public String getReport()
+	{
+		long accessCount = getAccessCount();
+		StringBuilder result = new StringBuilder();
+		result.append(String.format("%s (%%) over %d accesses%n", getTitle(), accessCount));
+		int maxBlocks = 0;
+		for(int count : blockCounts)
+			maxBlocks = Math.max(maxBlocks, count);
+		for(int blockSize : blockSizes)
+		{
+			result.append(String.format("%nBlock size %d words. Rows: number of blocks; columns: set size (blocks)%n%6s", blockSize, ""));
+			for(int setSize = 1; setSize <= maxBlocks; setSize <<= 1)
+				result.append(String.format(" %6d", setSize));
+			result.append(String.format("%n"));
+			for(int count : blockCounts)
+			{
+				result.append(String.format("%6d", count));
+				for(int setSize = 1; setSize <= count; setSize <<= 1)
+				{
+					double rate = (accessCount == 0) ? 0 : 100.0 * getHitCount(blockSize, count, setSize) / accessCount;
+					result.append(String.format(" %6.2f", rate));
+				}
+				result.append(String.format("%n"));
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,331 @@
+package ares.core.cache;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures the locality of a stream of accesses directly, independent of any cache, as two histograms:
+ * <ul>
+ * <li>reuse distances: for each access to a block accessed before, the number of distinct other blocks accessed
+ * since. A fully associative LRU cache of n blocks hits exactly the accesses at a distance below n.</li>
+ * <li>working set sizes: for each access, and for each of several window lengths, the number of distinct blocks
+ * accessed in the window of that many cycles ending with it.</li>
+ * </ul>
+ * Both are binned by powers of 2: bin 0 holds 0, and bin k holds 2<sup>k-1</sup> to 2<sup>k</sup> - 1.
+ * <p>
+ * Each block's most recent access is marked, by its position in the stream, in a Fenwick tree, so that the
+ * distinct blocks accessed since any position are counted in logarithmic time. When the positions run out, the
+ * marks are moved to the front, keeping their order, so the storage is proportional to the number of distinct
+ * blocks rather than the number of accesses.
+ * @author James Hester
+ *
+ */
+public class LocalityAnalysis
+{
+	/** The number of bins of each histogram: enough for any int. */
+	public static final int BIN_COUNT = 32;
+
+	private static final int EMPTY = -1;
+
+	private final int blockSizeInBytes;
+	private final int[] windowLengths;
+
+	/*
+	 * An open-addressing hash table from each block number accessed (address / block size, so never EMPTY) to
+	 * the position of its most recent access.
+	 */
+	private int[] blocks, lastPositions;
+	private int blockCount = 0;
+
+	/*
+	 * The Fenwick tree, 1-based, counting the marks at positions 0 to capacity - 1; the cycle of the access at
+	 * each position, which never decreases from one position to the next; and the next position.
+	 */
+	private int[] tree;
+	private long[] cycles;
+	private int position = 0;
+
+	private long accessCount = 0, firstAccessCount = 0;
+	private final long[] reuseDistanceCounts = new long[BIN_COUNT];
+	private final long[][] workingSetCounts;
+	private final long[] workingSetSums;
+
+	/**
+	 * @param blockSizeInWords the size of the blocks accesses are counted by
+	 * @param windowLengths the lengths, in cycles, of the windows whose working sets are measured
+	 */
+	public LocalityAnalysis(int blockSizeInWords, int[] windowLengths)
+	{
+		for(int length : windowLengths)
+		{
+			if (length <= 0)
+				throw new IllegalArgumentException("Invalid window length");
+		}
+		blockSizeInBytes = blockSizeInWords << 2;
+		this.windowLengths = windowLengths.clone();
+		workingSetCounts = new long[windowLengths.length][BIN_COUNT];
+		workingSetSums = new long[windowLengths.length];
+		blocks = new int[1024];
+		lastPositions = new int[1024];
+		Arrays.fill(blocks, EMPTY);
+		tree = new int[1024 + 1];
+		cycles = new long[1024];
+	}
+
+	/**
+	 * Forgets every access and clears the histograms, keeping the storage.
+	 */
+	public void reset()
+	{
+		Arrays.fill(blocks, EMPTY);
+		blockCount = 0;
+		Arrays.fill(tree, 0);
+		position = 0;
+		accessCount = firstAccessCount = 0;
+		Arrays.fill(reuseDistanceCounts, 0);
+		for(long[] counts : workingSetCounts)
+			Arrays.fill(counts, 0);
+		Arrays.fill(workingSetSums, 0);
+	}
+
+	/**
+	 * Records an access.
+	 * @param address the byte address
+	 * @param cycle the cycle of the access, which must not decrease from one access to the next
+	 */
+	public void access(int address, long cycle)
+	{
+		if (position == cycles.length)
+			makeRoom();
+		accessCount++;
+		int block = Integer.divideUnsigned(address, blockSizeInBytes);
+		int slot = find(block);
+		if (blocks[slot] == EMPTY)
+		{
+			firstAccessCount++;
+			blocks[slot] = block;
+			if (++blockCount * 2 > blocks.length)
+			{
+				growTable();
+				slot = find(block);
+			}
+		}
+		else
+		{
+			int last = lastPositions[slot];
+			reuseDistanceCounts[bin(countFrom(last + 1))]++;
+			add(last, -1);
+		}
+		lastPositions[slot] = position;
+		cycles[position] = cycle;
+		add(position, 1);
+		position++;
+
+		for(int w = 0; w < windowLengths.length; w++)
+		{
+			int size = countFrom(firstPositionAfter(cycle - windowLengths[w]));
+			workingSetCounts[w][bin(size)]++;
+			workingSetSums[w] += size;
+		}
+	}
+
+	/**
+	 * @return the histogram bin of a distance or size
+	 */
+	public static int bin(int value)
+	{
+		return 32 - Integer.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * @return the number of marks at the position and after it
+	 */
+	private int countFrom(int from)
+	{
+		int sum = blockCount;
+		for(int i = from; i > 0; i -= i & -i)
+			sum -= tree[i];
+		return sum;
+	}
+
+	private void add(int at, int delta)
+	{
+		for(int i = at + 1; i < tree.length; i += i & -i)
+			tree[i] += delta;
+	}
+
+	/**
+	 * @return the first position whose access came after a cycle, or the next position if none did
+	 */
+	private int firstPositionAfter(long cycle)
+	{
+		int low = 0, high = position;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (cycles[middle] > cycle)
+				high = middle;
+			else
+				low = middle + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Moves the marks to the front, in order, doubling the positions first if more than half are marked.
+	 */
+	private void makeRoom()
+	{
+		//Sort the marked positions as one long key per block: the position, then the slot.
+		long[] order = new long[blockCount];
+		int n = 0;
+		for(int slot = 0; slot < blocks.length; slot++)
+		{
+			if (blocks[slot] != EMPTY)
+				order[n++] = ((long) lastPositions[slot] << 32) | slot;
+		}
+		Arrays.sort(order);
+		if (blockCount * 2 > cycles.length)
+		{
+			cycles = Arrays.copyOf(cycles, cycles.length * 2);
+			tree = new int[cycles.length + 1];
+		}
+		//Each block moves to a position no later than its old one, so no cycle is overwritten before it is read.
+		for(int i = 0; i < blockCount; i++)
+		{
+			cycles[i] = cycles[(int) (order[i] >>> 32)];
+			lastPositions[(int) order[i]] = i;
+		}
+		position = blockCount;
+
+		//Build the tree in linear time: each node adds itself to its parent.
+		Arrays.fill(tree, 0);
+		for(int i = 1; i <= blockCount; i++)
+			tree[i] = 1;
+		for(int i = 1; i < tree.length; i++)
+		{
+			int parent = i + (i & -i);
+			if (parent < tree.length)
+				tree[parent] += tree[i];
+		}
+	}
+
+	/**
+	 * @return the slot holding the block, or the empty slot where it belongs
+	 */
+	private int find(int block)
+	{
+		int mask = blocks.length - 1;
+		int slot = hash(block) & mask;
+		while (blocks[slot] != EMPTY && blocks[slot] != block)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void growTable()
+	{
+		int[] oldBlocks = blocks, oldLastPositions = lastPositions;
+		blocks = new int[oldBlocks.length * 2];
+		lastPositions = new int[oldBlocks.length * 2];
+		Arrays.fill(blocks, EMPTY);
+		for(int i = 0; i < oldBlocks.length; i++)
+		{
+			if (oldBlocks[i] == EMPTY)
+				continue;
+			int slot = find(oldBlocks[i]);
+			blocks[slot] = oldBlocks[i];
+			lastPositions[slot] = oldLastPositions[i];
+		}
+	}
+
+	private static int hash(int key)
+	{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	public int getBlockSizeInWords()
+	{
+		return blockSizeInBytes >> 2;
+	}
+
+	public long getAccessCount()
+	{
+		return accessCount;
+	}
+
+	/**
+	 * @return the number of accesses to blocks not accessed before, which have no reuse distance
+	 */
+	public long getFirstAccessCount()
+	{
+		return firstAccessCount;
+	}
+
+	/**
+	 * @return the number of accesses whose reuse distance is in a bin
+	 */
+	public long getReuseDistanceCount(int bin)
+	{
+		return reuseDistanceCounts[bin];
+	}
+
+	public int[] getWindowLengths()
+	{
+		return windowLengths.clone();
+	}
+
+	/**
+	 * @param window the index of the window length
+	 * @return the number of accesses whose working set, in that window, is in a bin
+	 */
+	public long getWorkingSetCount(int window, int bin)
+	{
+		return workingSetCounts[window][bin];
+	}
+
+	/**
+	 * @param window the index of the window length
+	 */
+	public double getAverageWorkingSetSize(int window)
+	{
+		return (accessCount == 0) ? 0.0 : workingSetSums[window] / (double) accessCount;
+	}
+
+	/**
+	 * @return the histograms as comma-separated values: a row for each bin up to the last one used, giving the
+	 * 			range of the bin, the number of reuse distances in it and the number of working set sizes in it
+	 * 			for each window length; then a row of the accesses with no reuse distance, and one of the
+	 * 			average working set sizes
+	 */
+	public String getCSV()
+	{
+		int bins = 0;
+		for(int bin = 0; bin < BIN_COUNT; bin++)
+		{
+			boolean used = reuseDistanceCounts[bin] != 0;
+			for(long[] counts : workingSetCounts)
+				used |= counts[bin] != 0;
+			if (used)
+				bins = bin + 1;
+		}
+		StringBuilder result = new StringBuilder("from,to,reuse_distance");
+		for(int length : windowLengths)
+			result.append(",working_set_").append(length).append("_cycles");
+		result.append('\n');
+		for(int bin = 0; bin < bins; bin++)
+		{
+			long from = (bin == 0) ? 0 : 1L << (bin - 1);
+			result.append(from).append(',').append((bin == 0) ? 0 : 2 * from - 1).append(',').append(reuseDistanceCounts[bin]);
+			for(long[] counts : workingSetCounts)
+				result.append(',').append(counts[bin]);
+			result.append('\n');
+		}
+		result.append("first access,,").append(firstAccessCount);
+		for(int w = 0; w < windowLengths.length; w++)
+			result.append(',');
+		result.append("\naverage,,");
+		for(int w = 0; w < windowLengths.length; w++)
+			result.append(',').append(String.format(Locale.ROOT, "%.2f", getAverageWorkingSetSize(w)));
+		return result.append('\n').toString();
+	}
+}
@@ -0,0 +1,142 @@
+package ares.core.cache;
+import java.util.Arrays;
+
+/**
+ * Sorts the misses of a cache into three kinds (the "3 Cs"), by simulating beside it a fully associative LRU
+ * cache of the same size and block size, and an infinite cache:
+ * <ul>
+ * <li>compulsory: the first access to a block, which would miss in any cache;</li>
+ * <li>capacity: a miss the fully associative cache would also have had, so only a larger cache avoids it;</li>
+ * <li>conflict: a miss the fully associative cache would not have had, so more associativity avoids it.</li>
+ * </ul>
+ * The infinite cache is the set of blocks ever accessed, kept in an open-addressing hash table of ints.
+ * @author James Hester
+ *
+ */
+public class MissClassifier
+{
+	/** The kinds of miss, which index the counts. */
+	public static final int COMPULSORY = 0, CAPACITY = 1, CONFLICT = 2;
+	public static final String[] MISS_KIND_NAMES = {"Compulsory", "Capacity", "Conflict"};
+
+	private static final int EMPTY = -1;
+
+	private final Cache fullyAssociative;
+	private final int blockSizeInBytes;
+	/** The block numbers ever accessed (address / block size, so never EMPTY), or EMPTY. */
+	private int[] blocksSeen = new int[1024];
+	private int blocksSeenCount = 0;
+	private final long[] missCounts = new long[3];
+
+	/**
+	 * @param numberOfBlocks the number of blocks of the cache whose misses are classified
+	 * @param blockSizeInWords its block size
+	 */
+	public MissClassifier(int numberOfBlocks, int blockSizeInWords)
+	{
+		fullyAssociative = new Cache(numberOfBlocks, blockSizeInWords, numberOfBlocks);
+		blockSizeInBytes = blockSizeInWords << 2;
+		Arrays.fill(blocksSeen, EMPTY);
+	}
+
+	/**
+	 * Forgets every access and clears the counts, keeping the storage.
+	 */
+	public void reset()
+	{
+		fullyAssociative.reset();
+		Arrays.fill(blocksSeen, EMPTY);
+		blocksSeenCount = 0;
+		Arrays.fill(missCounts, 0);
+	}
+
+	/**
+	 * Records an access of the cache, and classifies it if it missed. Every access must be recorded, hit or miss.
+	 * @param address the byte address
+	 * @param missed whether the access missed in the cache
+	 * @return COMPULSORY, CAPACITY or CONFLICT; or -1 if it did not miss
+	 */
+	public int access(int address, boolean missed)
+	{
+		boolean firstAccess = addBlock(Integer.divideUnsigned(address, blockSizeInBytes));
+		boolean fullyAssociativeHit = fullyAssociative.access(address);
+		if ( ! missed)
+			return -1;
+		int kind = firstAccess ? COMPULSORY : (fullyAssociativeHit ? CONFLICT : CAPACITY);
+		missCounts[kind]++;
+		return kind;
+	}
+
+	/**
+	 * @return whether the block was not already in the set
+	 */
+	private boolean addBlock(int block)
+	{
+		int mask = blocksSeen.length - 1;
+		int slot = hash(block) & mask;
+		while (blocksSeen[slot] != EMPTY)
+		{
+			if (blocksSeen[slot] == block)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		blocksSeen[slot] = block;
+		if (++blocksSeenCount * 2 > blocksSeen.length)
+			grow();
+		return true;
+	}
+
+	private void grow()
+	{
+		int[] old = blocksSeen;
+		blocksSeen = new int[old.length * 2];
+		Arrays.fill(blocksSeen, EMPTY);
+		int mask = blocksSeen.length - 1;
+		for(int block : old)
+		{
+			if (block == EMPTY)
+				continue;
+			int slot = hash(block) & mask;
+			while (blocksSeen[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			blocksSeen[slot] = block;
+		}
+	}
+
+	private static int hash(int key)
+	{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @param kind COMPULSORY, CAPACITY or CONFLICT
+	 */
+	public long getMissCount(int kind)
+	{
+		return missCounts[kind];
+	}
+
+	/**
+	 * @return the number of distinct blocks accessed
+	 */
+	public int getBlocksSeenCount()
+	{
+		return blocksSeenCount;
+	}
+
+	/**
+	 * @return the number of misses of each kind, and their share of all misses
+	 */
+	public String getReport()
+	{
+		long total = missCounts[COMPULSORY] + missCounts[CAPACITY] + missCounts[CONFLICT];
+		StringBuilder result = new StringBuilder();
+		for(int kind = COMPULSORY; kind <= CONFLICT; kind++)
+		{
+			result.append(String.format("%-11s %10d %7.2f%%%n", MISS_KIND_NAMES[kind], missCounts[kind],
+					(total == 0) ? 0.0 : 100.0 * missCounts[kind] / total));
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,171 @@
+package ares.core.cache;
+import java.util.Arrays;
+
+/**
+ * Counts the hits and misses of each load and store, by the address of the instruction (its PC), so the
+ * instructions that miss most can be found. The counts are kept in an open-addressing hash table of ints,
+ * which grows as more instructions are seen.
+ * @author James Hester
+ *
+ */
+public class MissProfile
+{
+	/** No instruction is at an address which is not a multiple of 4, so this marks an empty slot. */
+	private static final int EMPTY = -1;
+
+	private int[] pcs, hitCounts, missCounts;
+	private int size = 0;
+	private long totalMissCount = 0;
+
+	public MissProfile()
+	{
+		allocate(256);
+	}
+
+	private void allocate(int capacity)
+	{
+		pcs = new int[capacity];
+		hitCounts = new int[capacity];
+		missCounts = new int[capacity];
+		Arrays.fill(pcs, EMPTY);
+	}
+
+	/**
+	 * Forgets every instruction, keeping the storage.
+	 */
+	public void reset()
+	{
+		Arrays.fill(pcs, EMPTY);
+		Arrays.fill(hitCounts, 0);
+		Arrays.fill(missCounts, 0);
+		size = 0;
+		totalMissCount = 0;
+	}
+
+	/**
+	 * Counts an access of the data cache.
+	 * @param pc the address of the load or store
+	 * @param hit whether the access hit
+	 */
+	public void record(int pc, boolean hit)
+	{
+		int slot = find(pc);
+		if (pcs[slot] == EMPTY)
+		{
+			pcs[slot] = pc;
+			if (++size * 2 > pcs.length)
+			{
+				grow();
+				slot = find(pc);
+			}
+		}
+		if (hit)
+			hitCounts[slot]++;
+		else
+		{
+			missCounts[slot]++;
+			totalMissCount++;
+		}
+	}
+
+	/**
+	 * @return the slot holding the PC, or the empty slot where it belongs
+	 */
+	private int find(int pc)
+	{
+		int mask = pcs.length - 1;
+		int slot = hash(pc) & mask;
+		while (pcs[slot] != EMPTY && pcs[slot] != pc)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void grow()
+	{
+		int[] oldPCs = pcs, oldHitCounts = hitCounts, oldMissCounts = missCounts;
+		allocate(oldPCs.length * 2);
+		for(int i = 0; i < oldPCs.length; i++)
+		{
+			if (oldPCs[i] == EMPTY)
+				continue;
+			int slot = find(oldPCs[i]);
+			pcs[slot] = oldPCs[i];
+			hitCounts[slot] = oldHitCounts[i];
+			missCounts[slot] = oldMissCounts[i];
+		}
+	}
+
+	private static int hash(int key)
+	{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return the number of distinct instructions counted
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public int getHitCount(int pc)
+	{
+		int slot = find(pc);
+		return (pcs[slot] == EMPTY) ? 0 : hitCounts[slot];
+	}
+
+	public int getMissCount(int pc)
+	{
+		int slot = find(pc);
+		return (pcs[slot] == EMPTY) ? 0 : missCounts[slot];
+	}
+
+	public long getTotalMissCount()
+	{
+		return totalMissCount;
+	}
+
+	/**
+	 * @return the PCs of every instruction counted, the most misses first, and those with as many in order of
+	 * 			address
+	 */
+	public int[] getPCsByMisses()
+	{
+		//Sort (misses descending, PC ascending) as one long key per instruction: PCs are multiples of 4, so
+		//the PC divided by 4 fits below the misses.
+		long[] keys = new long[size];
+		int n = 0;
+		for(int slot = 0; slot < pcs.length; slot++)
+		{
+			if (pcs[slot] != EMPTY)
+				keys[n++] = ((long) (Integer.MAX_VALUE - missCounts[slot]) << 32) | (pcs[slot] >>> 2);
+		}
+		Arrays.sort(keys);
+		int[] result = new int[size];
+		for(int i = 0; i < size; i++)
+			result[i] = (int) keys[i] << 2;
+		return result;
+	}
+
+	/**
+	 * @param limit the most instructions to list
+	 * @return the instructions that missed most: for each, its accesses, misses, miss rate and share of all misses
+	 */
+	public String getReport(int limit)
+	{
+		StringBuilder result = new StringBuilder();
+		result.append(String.format("%-10s %10s %10s %9s %9s%n", "PC", "Accesses", "Misses", "Miss rate", "Of misses"));
+		int[] byMisses = getPCsByMisses();
+		for(int i = 0; i < byMisses.length && i < limit; i++)
+		{
+			int slot = find(byMisses[i]);
+			int accesses = hitCounts[slot] + missCounts[slot];
+			if (missCounts[slot] == 0)
+				break;
+			result.append(String.format("0x%08x %10d %10d %8.2f%% %8.2f%%%n", byMisses[i], accesses, missCounts[slot],
+					100.0 * missCounts[slot] / accesses, 100.0 * missCounts[slot] / totalMissCount));
+		}
+		return result.toString();
+	}
+}
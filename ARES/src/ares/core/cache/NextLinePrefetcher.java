@@ -0,0 +1,33 @@
+package ares.core.cache;
+
+/**
+ * Prefetches the block after each block that misses, and after each prefetched block when it is first
+ * accessed (tagged prefetching), so a sequential walk through memory stays a block ahead.
+ * @author James Hester
+ *
+ */
+public class NextLinePrefetcher extends Prefetcher
+{
+	public NextLinePrefetcher(Cache cache, int latency)
+	{
+		super(cache, latency);
+	}
+
+	@Override
+	public String getName()
+	{
+		return "Next-line";
+	}
+
+	@Override
+	protected void train(int address, int pc, boolean hit, long cycle)
+	{
+		if ( ! hit || cache.wasPrefetchHit())
+			prefetchIntoCache(address + blockSize, cycle);
+	}
+
+	@Override
+	protected void resetPredictions()
+	{
+	}
+}
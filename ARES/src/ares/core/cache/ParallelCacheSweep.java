@@ -0,0 +1,143 @@
+package ares.core.cache;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replays a trace of accesses against many cache organizations, each simulated by its own Cache on a fork/join
+ * pool. Unlike StackDistanceSweep, this works for any replacement policy, including RANDOM, FIFO and PLRU.
+ * <p>
+ * Each organization's cache has its own Random, seeded from the given seed and the position of the organization
+ * in the sweep, so the results do not depend on how the work is divided among threads, and are the same every time.
+ * @author James Hester
+ *
+ */
+public class ParallelCacheSweep extends CacheSweep
+{
+	private static final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	private final int replacementPolicy;
+	private final long seed;
+	/** hitCounts[b][log2 of blocks][log2 of set size], for blockSizes[b] */
+	private final long[][][] hitCounts;
+	private long accessCount = 0;
+	/** The cache simulating each organization, and its Random, in the order of the sweep; kept from run to run. */
+	private final ArrayList<Cache> caches = new ArrayList<>();
+	private final ArrayList<Random> randoms = new ArrayList<>();
+
+	/**
+	 * Simulates one organization over the whole trace.
+	 */
+	private static class ReplayTask extends RecursiveTask<Long>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int[] addresses;
+		private Cache cache;
+
+		ReplayTask(int[] addresses, Cache cache)
+		{
+			this.addresses = addresses;
+			this.cache = cache;
+		}
+
+		@Override
+		protected Long compute()
+		{
+			cache.reset();
+			for(int address : addresses)
+				cache.access(address);
+			return (long) cache.getHitCount();
+		}
+	}
+
+	/**
+	 * @param blockSizesInWords the block sizes of interest
+	 * @param blockCounts the numbers of blocks of interest, each a power of 2
+	 * @param replacementPolicy Cache.LRU, Cache.RANDOM, Cache.FIFO or Cache.PLRU
+	 * @param seed the seed from which each cache's Random is seeded
+	 */
+	public ParallelCacheSweep(int[] blockSizesInWords, int[] blockCounts, int replacementPolicy, long seed)
+	{
+		super(blockSizesInWords, blockCounts);
+		if (replacementPolicy < Cache.LRU || replacementPolicy > Cache.PLRU)
+			throw new IllegalArgumentException("Unknown replacement policy " + replacementPolicy);
+		this.replacementPolicy = replacementPolicy;
+		this.seed = seed;
+		int maxLog = 0;
+		for(int count : blockCounts)
+			maxLog = Math.max(maxLog, Integer.numberOfTrailingZeros(count));
+		hitCounts = new long[blockSizes.length][maxLog + 1][maxLog + 1];
+	}
+
+	/**
+	 * Simulates every organization over a trace, using every processor, and waits for them to finish.
+	 * The results replace those of any earlier trace. The caches of the first run are reset and reused by
+	 * later runs, with their Randoms seeded again, so a sweep may be run many times without allocating.
+	 */
+	public void run(AccessTrace trace)
+	{
+		int[] addresses = trace.toArray();
+		ArrayList<ReplayTask> tasks = new ArrayList<>();
+		int index = 0;
+		for(int b = 0; b < blockSizes.length; b++)
+		{
+			for(int count : blockCounts)
+			{
+				for(int setSize = 1; setSize <= count; setSize <<= 1)
+				{
+					if (index == caches.size())
+					{
+						Random random = new Random();
+						Cache cache = new Cache(count, blockSizes[b], setSize, random);
+						cache.setReplacementPolicy(replacementPolicy);
+						caches.add(cache);
+						randoms.add(random);
+					}
+					randoms.get(index).setSeed(seed + index);
+					Cache cache = caches.get(index++);
+					ReplayTask task = new ReplayTask(addresses, cache);
+					tasks.add(task);
+					pool.execute(task);
+				}
+			}
+		}
+
+		index = 0;
+		for(int b = 0; b < blockSizes.length; b++)
+		{
+			for(int count : blockCounts)
+			{
+				for(int setSize = 1; setSize <= count; setSize <<= 1)
+				{
+					hitCounts[b][Integer.numberOfTrailingZeros(count)][Integer.numberOfTrailingZeros(setSize)]
+							= tasks.get(index++).join();
+				}
+			}
+		}
+		accessCount = addresses.length;
+	}
+
+	@Override
+	public long getAccessCount()
+	{
+		return accessCount;
+	}
+
+	@Override
+	public long getHitCount(int blockSizeInWords, int numberOfBlocks, int setSizeInBlocks)
+	{
+		int b = indexOf(blockSizes, blockSizeInWords);
+		if (b == -1 || indexOf(blockCounts, numberOfBlocks) == -1 || Integer.bitCount(setSizeInBlocks) != 1
+				|| setSizeInBlocks > numberOfBlocks)
+			throw new IllegalArgumentException("The organization was not among those swept");
+		return hitCounts[b][Integer.numberOfTrailingZeros(numberOfBlocks)][Integer.numberOfTrailingZeros(setSizeInBlocks)];
+	}
+
+	@Override
+	protected String getTitle()
+	{
+		return Cache.REPLACEMENT_POLICY_NAMES[replacementPolicy] + " hit rates";
+	}
+}
@@ -0,0 +1,212 @@
+package ares.core.cache;
+import java.util.Arrays;
+
+/**
+ * Looks up the loads and stores of a program in a data cache, and predicts from them the blocks about to be
+ * accessed, reading those blocks before they are needed. Subclasses make the predictions.
+ * <p>
+ * A miss, and a prefetch, takes a fixed number of cycles (the latency). An access to a prefetched block that has
+ * already arrived waits for nothing; one to a block still on its way waits for the rest. So each prefetch is
+ * counted as useful (accessed after it arrived), late (accessed before it arrived) or useless (replaced or
+ * discarded without being accessed). Prefetches still waiting to be accessed are none of these.
+ * @author James Hester
+ *
+ */
+public abstract class Prefetcher
+{
+	protected final Cache cache;
+	protected final int latency;
+	/** The block size of the cache, in bytes. */
+	protected final int blockSize;
+
+	/** For each block of the cache placed by prefetchIntoCache(), the cycle its data arrives. */
+	private final long[] readyCycles;
+
+	private long accessCount, hitCount, issuedCount, usefulCount, lateCount, uselessCount;
+
+	/**
+	 * @param cache the data cache, which should not be accessed except through the prefetcher
+	 * @param latency the number of cycles a miss or a prefetch takes
+	 */
+	protected Prefetcher(Cache cache, int latency)
+	{
+		if (latency < 0)
+			throw new IllegalArgumentException("Invalid latency");
+		this.cache = cache;
+		this.latency = latency;
+		this.blockSize = cache.getBlockSizeInWords() << 2;
+		readyCycles = new long[cache.getNumberOfBlocks()];
+	}
+
+	/**
+	 * @return the name of the prefetching scheme
+	 */
+	public abstract String getName();
+
+	/**
+	 * Learns from an access, and prefetches whatever it predicts. Called after every access.
+	 * @param address the byte address accessed
+	 * @param pc the address of the load or store
+	 * @param hit whether the access hit in the cache
+	 * @param cycle the current cycle
+	 */
+	protected abstract void train(int address, int pc, boolean hit, long cycle);
+
+	/**
+	 * Forgets what train() has learned.
+	 */
+	protected abstract void resetPredictions();
+
+	/**
+	 * Empties the cache, forgets every prediction and clears the counts.
+	 */
+	public void reset()
+	{
+		cache.reset();
+		Arrays.fill(readyCycles, 0);
+		accessCount = hitCount = issuedCount = usefulCount = lateCount = uselessCount = 0;
+		resetPredictions();
+	}
+
+	/**
+	 * Loads from or stores to an address through the cache.
+	 * @param address the byte address
+	 * @param pc the address of the load or store
+	 * @param write whether the access is a store
+	 * @param size the number of bytes accessed: 1, 2 or 4
+	 * @param cycle the current cycle, which must not decrease from one access to the next
+	 * @return the number of cycles the access waits for
+	 */
+	public int access(int address, int pc, boolean write, int size, long cycle)
+	{
+		accessCount++;
+		int waitCycles = 0;
+		boolean hit = cache.access(address, Cache.DATA, write, size);
+		if (hit)
+		{
+			hitCount++;
+			if (cache.wasPrefetchHit())
+				waitCycles = usePrefetch(readyCycles[cache.getLastBlock(Cache.DATA)], cycle);
+		}
+		else if (cache.getLastOutcome(Cache.DATA) != Cache.MISS_NOT_ALLOCATED)
+			waitCycles = missed(address, cycle);
+		train(address, pc, hit, cycle);
+		return waitCycles;
+	}
+
+	/**
+	 * Reads a block that missed in the cache.
+	 * @return the number of cycles the access waits for: by default, the latency
+	 */
+	protected int missed(int address, long cycle)
+	{
+		return latency;
+	}
+
+	/**
+	 * Counts a prefetch as useful or late, as it is accessed.
+	 * @param readyCycle the cycle the prefetched data arrives
+	 * @return the number of cycles the access waits for
+	 */
+	protected int usePrefetch(long readyCycle, long cycle)
+	{
+		if (readyCycle > cycle)
+		{
+			lateCount++;
+			return (int) (readyCycle - cycle);
+		}
+		usefulCount++;
+		return 0;
+	}
+
+	/**
+	 * Counts an access which missed in the cache but did not wait for memory, as it was found elsewhere.
+	 */
+	protected void countHit()
+	{
+		hitCount++;
+	}
+
+	protected void countIssued()
+	{
+		issuedCount++;
+	}
+
+	/**
+	 * Counts prefetches discarded without being accessed (other than those the cache replaces, which it counts).
+	 */
+	protected void countUseless(int prefetches)
+	{
+		uselessCount += prefetches;
+	}
+
+	/**
+	 * Reads the block holding an address into the cache, if it is not already there.
+	 */
+	protected void prefetchIntoCache(int address, long cycle)
+	{
+		if (cache.probe(address))
+			return;
+		issuedCount++;
+		readyCycles[cache.prefetch(address)] = cycle + latency;
+	}
+
+	public Cache getCache()
+	{
+		return cache;
+	}
+
+	public int getLatency()
+	{
+		return latency;
+	}
+
+	public long getAccessCount()
+	{
+		return accessCount;
+	}
+
+	/**
+	 * @return the number of accesses which did not miss: those which hit in the cache, or were found in a
+	 * 			prefetcher's own buffer
+	 */
+	public long getHitCount()
+	{
+		return hitCount;
+	}
+
+	public double getHitRate()
+	{
+		return (accessCount == 0) ? 0.0 : hitCount / (double) accessCount;
+	}
+
+	public long getIssuedCount()
+	{
+		return issuedCount;
+	}
+
+	public long getUsefulCount()
+	{
+		return usefulCount;
+	}
+
+	public long getLateCount()
+	{
+		return lateCount;
+	}
+
+	public long getUselessCount()
+	{
+		return uselessCount + cache.getUselessPrefetchCount();
+	}
+
+	/**
+	 * @return the counts of accesses and prefetches
+	 */
+	public String getReport()
+	{
+		return String.format("%s prefetcher: %d accesses, hit rate %.2f%%%n"
+				+ "%d prefetches issued: %d useful, %d late, %d useless%n", getName(), accessCount,
+				100 * getHitRate(), issuedCount, usefulCount, lateCount, getUselessCount());
+	}
+}
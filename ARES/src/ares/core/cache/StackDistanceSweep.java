@@ -0,0 +1,163 @@
+package ares.core.cache;
+import java.util.Arrays;
+
+/**
+ * Computes, in a single pass over a stream of accesses, the number of hits an LRU Cache would have for each of
+ * many organizations: every combination of a block size, a number of blocks and a set size.
+ * <p>
+ * Under LRU replacement, an access hits in a set of n blocks exactly when fewer than n other blocks of the same
+ * set have been accessed since the last access to its block (its stack distance). So, for each block size and
+ * each number of sets, the blocks of each set are kept in order of most recent access, and each access records
+ * its distance in a histogram; the hits of a cache with that many sets and a set size of n are the accesses with a
+ * distance below n. A set's order need only be kept as deep as the largest set size of interest, beyond which
+ * every access misses.
+ * <p>
+ * The results are exactly those of Cache, with the LRU policy, on the same stream.
+ * @author James Hester
+ *
+ */
+public class StackDistanceSweep extends CacheSweep
+{
+	/** The distinct numbers of sets among the organizations, in increasing order. */
+	private final int[] setCounts;
+	/** depths[s] is the largest set size of interest with setCounts[s] sets. */
+	private final int[] depths;
+
+	/*
+	 * For each block size b and number of sets s: stacks[b][s] holds each set's blocks, most recent first, in
+	 * depths[s] consecutive elements; stackSizes[b][s] the number held in each set; and histograms[b][s][d]
+	 * the number of accesses at distance d (or, for d == depths[s], not within the depth).
+	 */
+	private final int[][][] stacks, stackSizes;
+	private final long[][][] histograms;
+	private long accessCount = 0;
+
+	/**
+	 * @param blockSizesInWords the block sizes of interest
+	 * @param blockCounts the numbers of blocks of interest, each a power of 2
+	 */
+	public StackDistanceSweep(int[] blockSizesInWords, int[] blockCounts)
+	{
+		super(blockSizesInWords, blockCounts);
+		int maxBlocks = 0;
+		for(int count : blockCounts)
+			maxBlocks = Math.max(maxBlocks, count);
+		int[] maxDepths = new int[Integer.numberOfTrailingZeros(maxBlocks) + 1];
+		for(int count : blockCounts)
+		{
+			for(int setSize = 1; setSize <= count; setSize <<= 1)
+			{
+				int log = Integer.numberOfTrailingZeros(count / setSize);
+				maxDepths[log] = Math.max(maxDepths[log], setSize);
+			}
+		}
+		int n = 0;
+		for(int depth : maxDepths)
+			n += (depth != 0) ? 1 : 0;
+		setCounts = new int[n];
+		depths = new int[n];
+		n = 0;
+		for(int log = 0; log < maxDepths.length; log++)
+		{
+			if (maxDepths[log] == 0)
+				continue;
+			setCounts[n] = 1 << log;
+			depths[n++] = maxDepths[log];
+		}
+
+		stacks = new int[blockSizes.length][setCounts.length][];
+		stackSizes = new int[blockSizes.length][setCounts.length][];
+		histograms = new long[blockSizes.length][setCounts.length][];
+		for(int b = 0; b < blockSizes.length; b++)
+		{
+			for(int s = 0; s < setCounts.length; s++)
+			{
+				stacks[b][s] = new int[setCounts[s] * depths[s]];
+				stackSizes[b][s] = new int[setCounts[s]];
+				histograms[b][s] = new long[depths[s] + 1];
+			}
+		}
+	}
+
+	/**
+	 * Forgets every access.
+	 */
+	public void reset()
+	{
+		for(int b = 0; b < blockSizes.length; b++)
+		{
+			for(int s = 0; s < setCounts.length; s++)
+			{
+				Arrays.fill(stackSizes[b][s], 0);
+				Arrays.fill(histograms[b][s], 0);
+			}
+		}
+		accessCount = 0;
+	}
+
+	public void access(int address)
+	{
+		accessCount++;
+		for(int b = 0; b < blockSizes.length; b++)
+		{
+			int block = (address >>> 2) / blockSizes[b];
+			for(int s = 0; s < setCounts.length; s++)
+			{
+				int depth = depths[s];
+				int set = block % setCounts[s];
+				int[] stack = stacks[b][s];
+				int base = set * depth;
+				int size = stackSizes[b][s][set];
+
+				int distance = 0;
+				while (distance < size && stack[base + distance] != block)
+					distance++;
+				if (distance == size)
+				{
+					histograms[b][s][depth]++;
+					if (size < depth)
+						stackSizes[b][s][set]++;
+				}
+				else
+					histograms[b][s][distance]++;
+				int shift = Math.min(distance, depth - 1);
+				System.arraycopy(stack, base, stack, base + 1, shift);
+				stack[base] = block;
+			}
+		}
+	}
+
+	/**
+	 * Replays every access of a trace.
+	 */
+	public void access(AccessTrace trace)
+	{
+		for(int i = 0; i < trace.size(); i++)
+			access(trace.get(i));
+	}
+
+	@Override
+	public long getAccessCount()
+	{
+		return accessCount;
+	}
+
+	@Override
+	public long getHitCount(int blockSizeInWords, int numberOfBlocks, int setSizeInBlocks)
+	{
+		int b = indexOf(blockSizes, blockSizeInWords);
+		int s = indexOf(setCounts, numberOfBlocks / setSizeInBlocks);
+		if (b == -1 || s == -1 || setSizeInBlocks > depths[s] || numberOfBlocks % setSizeInBlocks != 0)
+			throw new IllegalArgumentException("The organization was not among those swept");
+		long hits = 0;
+		for(int distance = 0; distance < setSizeInBlocks; distance++)
+			hits += histograms[b][s][distance];
+		return hits;
+	}
+
+	@Override
+	protected String getTitle()
+	{
+		return "LRU hit rates";
+	}
+}
@@ -0,0 +1,89 @@
+package ares.core.cache;
+
+/**
+ * Prefetches the blocks after a miss into a buffer beside the cache, rather than into the cache itself, so
+ * prefetches cannot replace blocks still in use. The buffer holds the next few blocks in order. A miss which
+ * finds its block in the buffer takes it from there, discarding the blocks before it, and the buffer prefetches
+ * another block to stay as full; a miss which does not discards the whole buffer and starts it again after
+ * the missing block.
+ * @author James Hester
+ *
+ */
+public class StreamBufferPrefetcher extends Prefetcher
+{
+	/** The buffer, as a circular queue: the address of each block and the cycle its data arrives. */
+	private final int[] blockAddresses;
+	private final long[] readyCycles;
+	private int head = 0, size = 0;
+
+	/**
+	 * @param depth the number of blocks the buffer holds
+	 */
+	public StreamBufferPrefetcher(Cache cache, int latency, int depth)
+	{
+		super(cache, latency);
+		if (depth <= 0)
+			throw new IllegalArgumentException("Invalid depth");
+		blockAddresses = new int[depth];
+		readyCycles = new long[depth];
+	}
+
+	@Override
+	public String getName()
+	{
+		return "Stream buffer";
+	}
+
+	@Override
+	protected int missed(int address, long cycle)
+	{
+		int blockAddress = address - Integer.remainderUnsigned(address, blockSize);
+		for(int i = 0; i < size; i++)
+		{
+			int entry = (head + i) % blockAddresses.length;
+			if (blockAddresses[entry] != blockAddress)
+				continue;
+			countUseless(i);
+			countHit();
+			int waitCycles = usePrefetch(readyCycles[entry], cycle);
+			head = (entry + 1) % blockAddresses.length;
+			size -= i + 1;
+			while (size < blockAddresses.length)
+				append(lastBlockAddress(blockAddress) + blockSize, cycle);
+			return waitCycles;
+		}
+		countUseless(size);
+		size = 0;
+		while (size < blockAddresses.length)
+			append(lastBlockAddress(blockAddress) + blockSize, cycle);
+		return latency;
+	}
+
+	/**
+	 * @return the address of the block at the tail of the buffer, or the given block if it is empty
+	 */
+	private int lastBlockAddress(int blockAddress)
+	{
+		return (size == 0) ? blockAddress : blockAddresses[(head + size - 1) % blockAddresses.length];
+	}
+
+	private void append(int blockAddress, long cycle)
+	{
+		int entry = (head + size) % blockAddresses.length;
+		blockAddresses[entry] = blockAddress;
+		readyCycles[entry] = cycle + latency;
+		size++;
+		countIssued();
+	}
+
+	@Override
+	protected void train(int address, int pc, boolean hit, long cycle)
+	{
+	}
+
+	@Override
+	protected void resetPredictions()
+	{
+		head = size = 0;
+	}
+}
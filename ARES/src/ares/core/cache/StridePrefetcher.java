@@ -0,0 +1,73 @@
+package ares.core.cache;
+import java.util.Arrays;
+
+/**
+ * Prefetches for loads and stores that step through memory by a constant stride, using a table indexed by the
+ * address of the instruction (a reference prediction table). Each entry holds the last address the instruction
+ * accessed, the stride between its last two accesses, and a confidence from 0 to 3 which rises each time the
+ * stride repeats and falls each time it does not. Once the confidence is at least 2, each access prefetches the
+ * address a stride ahead.
+ * <p>
+ * The table is direct mapped; an instruction whose entry is held by another replaces it.
+ * @author James Hester
+ *
+ */
+public class StridePrefetcher extends Prefetcher
+{
+	private static final int MAX_CONFIDENCE = 3, PREFETCH_CONFIDENCE = 2;
+
+	private final int[] pcs, lastAddresses, strides, confidences;
+	private final boolean[] valid;
+
+	/**
+	 * @param entries the number of entries of the table, a power of 2
+	 */
+	public StridePrefetcher(Cache cache, int latency, int entries)
+	{
+		super(cache, latency);
+		if (Integer.bitCount(entries) != 1)
+			throw new IllegalArgumentException("The number of entries must be a power of 2");
+		pcs = new int[entries];
+		lastAddresses = new int[entries];
+		strides = new int[entries];
+		confidences = new int[entries];
+		valid = new boolean[entries];
+	}
+
+	@Override
+	public String getName()
+	{
+		return "Stride";
+	}
+
+	@Override
+	protected void train(int address, int pc, boolean hit, long cycle)
+	{
+		int entry = (pc >>> 2) & (pcs.length - 1);
+		if ( ! valid[entry] || pcs[entry] != pc)
+		{
+			valid[entry] = true;
+			pcs[entry] = pc;
+			lastAddresses[entry] = address;
+			strides[entry] = 0;
+			confidences[entry] = 0;
+			return;
+		}
+		int stride = address - lastAddresses[entry];
+		lastAddresses[entry] = address;
+		if (stride == strides[entry])
+			confidences[entry] = Math.min(confidences[entry] + 1, MAX_CONFIDENCE);
+		else if (confidences[entry] > 0)
+			confidences[entry]--;
+		else
+			strides[entry] = stride;
+		if (confidences[entry] >= PREFETCH_CONFIDENCE && strides[entry] != 0)
+			prefetchIntoCache(address + strides[entry], cycle);
+	}
+
+	@Override
+	protected void resetPredictions()
+	{
+		Arrays.fill(valid, false);
+	}
+}
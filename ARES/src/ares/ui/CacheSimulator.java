@@ -5,8 +5,26 @@ import javax.swing.border.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.Timer;
+import java.io.IOException;
+import java.nio.file.Files;
 
 import ares.core.Memory;
+import ares.core.cache.AccessTrace;
+import ares.core.cache.Cache;
+import ares.core.cache.CacheSweep;
+import ares.core.cache.LocalityAnalysis;
+import ares.core.cache.MissClassifier;
+import ares.core.cache.MissProfile;
+import ares.core.cache.NextLinePrefetcher;
+import ares.core.cache.ParallelCacheSweep;
+import ares.core.cache.Prefetcher;
+import ares.core.cache.StackDistanceSweep;
+import ares.core.cache.StreamBufferPrefetcher;
+import ares.core.cache.StridePrefetcher;
    
 /*
 Copyright (c) 2003-2011,  Pete Sanderson and Kenneth Vollmar
@@ -48,21 +66,34 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     public class CacheSimulator implements Observer {
       private static boolean debug = false; // controls display of debugging info
       private static String version = "Version 1.2";
-      private static String heading =  "Simulate and illustrate data cache performance";
+      private static String heading =  "Simulate and illustrate data and instruction cache performance";
    	// Major GUI components
       private JComboBox cacheBlockSizeSelector, cacheBlockCountSelector, 
                         cachePlacementSelector, cacheReplacementSelector,
-      						cacheSetSizeSelector;
+      						cacheSetSizeSelector, instructionCacheSelector,
+                        missPenaltySelector, writePolicySelector, writeMissSelector,
+                        prefetcherSelector, victimCacheSelector;
       private JTextField memoryAccessCountDisplay, cacheHitCountDisplay, cacheMissCountDisplay,
                          replacementPolicyDisplay,cachableAddressesDisplay,
-      						 cacheSizeDisplay;
-      private JProgressBar cacheHitRateDisplay;
+      						 cacheSizeDisplay, fetchCountDisplay, writeBackCountDisplay,
+                         memoryTrafficDisplay, prefetchDisplay, missKindDisplay, victimHitCountDisplay;
+      private JProgressBar cacheHitRateDisplay, fetchHitRateDisplay;
       private Animation animations;
    	
       private JPanel logPanel;
       private JScrollPane logScroll;
       private JTextArea logText;
       private JCheckBox logShow;
+      private static final int LOG_CAPACITY = 256; // accesses kept in the log
+      private LogRing log = new LogRing(LOG_CAPACITY);
+      
+      // Updates are collected here, from whatever thread the MIPS program runs on, and shown by
+      // frameTimer on the event thread at most once per frame.  pendingOutcomes holds, for each
+      // block, 1 + the outcome of its latest access not yet shown, or 0.
+      private static final int FRAME_MILLISECONDS = 1000 / 60;
+      private volatile AtomicIntegerArray pendingOutcomes = new AtomicIntegerArray(0);
+      private final AtomicBoolean framePending = new AtomicBoolean(false);
+      private Timer frameTimer;
    	
    	// Some GUI settings
       private EmptyBorder emptyBorder = new EmptyBorder(4,4,4,4);
@@ -75,8 +106,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private String[] cacheBlockCountChoices = {"1","2","4","8","16","32","64","128","256","512","1024","2048"};
       private String[] placementPolicyChoices = {"Direct Mapping", "Fully Associative", "N-way Set Associative" };
       private final int DIRECT = 0, FULL = 1, SET = 2; // NOTE: these have to match placementPolicyChoices order!
-      private String[] replacementPolicyChoices =  {"LRU","Random"};
-      private final int LRU = 0, RANDOM = 1; // NOTE: these have to match replacementPolicyChoices order!
+      private String[] replacementPolicyChoices = Cache.REPLACEMENT_POLICY_NAMES;
+      private final int LRU = Cache.LRU; // NOTE: the choices are indexed by the Cache policy constants!
+      private String[] instructionCacheChoices = {"None", "Separate", "Unified"};
+      private String[] missPenaltyChoices = {"0","1","2","5","10","20","50","100"};
+      private String[] writeMissChoices = {"Allocate", "No allocate"};
+      private final int ALLOCATE = 0, NO_ALLOCATE = 1; // NOTE: these have to match writeMissChoices order!
+      private String[] prefetcherChoices = {"None", "Next-line", "Stride", "Stream buffer"};
+      private final int NO_PREFETCH = 0, NEXT_LINE = 1, STRIDE = 2, STREAM_BUFFER = 3; // NOTE: these have to match prefetcherChoices order!
+      private final int STRIDE_TABLE_ENTRIES = 64, STREAM_BUFFER_DEPTH = 4;
+      private String[] victimCacheChoices = {"None","1","2","4","8","16"}; // "None" must be first
+      private final int NO_ICACHE = 0, SPLIT = 1, UNIFIED = 2; // NOTE: these have to match instructionCacheChoices order!
       private String[] cacheSetSizeChoices; // will change dynamically based on the other selections
       private int defaultCacheBlockSizeIndex    = 2;
       private int defaultCacheBlockCountIndex   = 3;
@@ -85,9 +125,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private int defaultCacheSetSizeIndex      = 0;
    	
    	// Cache-related data structures
-      private AbstractCache theCache;   			
+      private Cache theCache;   			
+      private Cache separateInstructionCache; // same organization as theCache, used when instruction cache is "Separate"
+      private Prefetcher prefetcher; // prefetches into theCache, as selected; created when first needed
       private int memoryAccessCount, cacheHitCount, cacheMissCount;
       private double cacheHitRate;
+      private AccessTrace trace = new AccessTrace(); // every access since the counts were reset
+      private MissProfile missProfile = new MissProfile(); // hits and misses of each load and store since then
+      private static final int MISS_REPORT_LENGTH = 50; // instructions listed by "Misses by PC..."
+      private LocalityAnalysis localityAnalysis; // locality of the accesses since then; created when first needed
+      private static final int[] LOCALITY_WINDOW_CYCLES = {64, 256, 1024, 4096, 16384};
+      private StackDistanceSweep lruSweep; // kept from one comparison to the next, to reuse its storage
+      private ParallelCacheSweep[] parallelSweeps = new ParallelCacheSweep[Cache.REPLACEMENT_POLICY_NAMES.length];
       
    	// RNG used for random replacement policy.  For testing, set seed for reproducible stream
       private Random randu = new Random(0);  
@@ -200,6 +249,36 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             });
             resetButton.addKeyListener(new EnterKeyListener(resetButton));
             
+            JButton compareButton = new JButton("Compare...");
+            compareButton.setToolTipText("Show the hit rate every cache organization would have had for the accesses so far");
+            compareButton.addActionListener(
+                                          new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    showComparison();
+                }
+            });
+            compareButton.addKeyListener(new EnterKeyListener(compareButton));
+            
+            JButton missesButton = new JButton("Misses by PC...");
+            missesButton.setToolTipText("Show the loads and stores that missed most in the data cache so far");
+            missesButton.addActionListener(
+                                          new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    showMissProfile();
+                }
+            });
+            missesButton.addKeyListener(new EnterKeyListener(missesButton));
+            
+            JButton localityButton = new JButton("Locality...");
+            localityButton.setToolTipText("Show the reuse distances and working set sizes of the accesses so far, as CSV");
+            localityButton.addActionListener(
+                                          new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    showLocality();
+                }
+            });
+            localityButton.addKeyListener(new EnterKeyListener(localityButton));
+            
             JButton closeButton = new JButton("Close");
             closeButton.setToolTipText("Close (exit) this tool");
             closeButton.addActionListener(
@@ -214,6 +293,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             buttonArea.add(Box.createHorizontalGlue());
             buttonArea.add(resetButton);
             buttonArea.add(Box.createHorizontalGlue());
+            buttonArea.add(compareButton);
+            buttonArea.add(Box.createHorizontalGlue());
+            buttonArea.add(missesButton);
+            buttonArea.add(Box.createHorizontalGlue());
+            buttonArea.add(localityButton);
+            buttonArea.add(Box.createHorizontalGlue());
             JComponent helpComponent = getHelpComponent();
             if (helpComponent != null) {
                 buttonArea.add(helpComponent);
@@ -283,7 +368,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
    	////////////////////////////////////////////////////////////////////////////
        private JComponent buildOrganizationArea() {
-         JPanel organization = new JPanel(new GridLayout(3,2));
+         JPanel organization = new JPanel(new GridLayout(6,2));
          TitledBorder otb =new TitledBorder("Cache Organization");
          otb.setTitleJustification(TitledBorder.CENTER);
          organization.setBorder(otb);
@@ -303,6 +388,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          cacheReplacementSelector.setEditable(false);
          cacheReplacementSelector.setBackground(backgroundColor);
          cacheReplacementSelector.setSelectedIndex(defaultReplacementPolicyIndex);
+         cacheReplacementSelector.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     if (theCache != null) {
+                        theCache.setReplacementPolicy(cacheReplacementSelector.getSelectedIndex());
+                        separateInstructionCache.setReplacementPolicy(cacheReplacementSelector.getSelectedIndex());
+                     }
+                  }
+               });
       	      						
          cacheBlockSizeSelector = new JComboBox(cacheBlockSizeChoices);
          cacheBlockSizeSelector.setEditable(false);
@@ -323,7 +417,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                 new ActionListener() {
                    public void actionPerformed(ActionEvent e) {
                      updateCacheSetSizeSelector();
-                     theCache = createNewCache();
+                     createNewCaches();
                      resetCounts();
                      updateDisplay();
                      updateCacheSizeDisplay();
@@ -341,6 +435,72 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      reset();
                   }
                });
+      
+         instructionCacheSelector = new JComboBox(instructionCacheChoices);
+         instructionCacheSelector.setEditable(false);
+         instructionCacheSelector.setBackground(backgroundColor);
+         instructionCacheSelector.setSelectedIndex(NO_ICACHE);
+         instructionCacheSelector.setToolTipText("Whether instruction fetches are cached, in a cache of their own or in the data cache");
+         instructionCacheSelector.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     reset();
+                  }
+               });
+      
+         missPenaltySelector = new JComboBox(missPenaltyChoices);
+         missPenaltySelector.setEditable(false);
+         missPenaltySelector.setBackground(backgroundColor);
+         missPenaltySelector.setSelectedIndex(0);
+         missPenaltySelector.setToolTipText("Cycles the pipeline stalls for on each data cache miss (0 leaves timing unchanged)");
+      
+         writePolicySelector = new JComboBox(Cache.WRITE_POLICY_NAMES);
+         writePolicySelector.setEditable(false);
+         writePolicySelector.setBackground(backgroundColor);
+         writePolicySelector.setSelectedIndex(Cache.WRITE_BACK);
+         writePolicySelector.setToolTipText("Whether stores are written to memory when their block is replaced or at once");
+         writePolicySelector.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     reset();
+                  }
+               });
+      
+         writeMissSelector = new JComboBox(writeMissChoices);
+         writeMissSelector.setEditable(false);
+         writeMissSelector.setBackground(backgroundColor);
+         writeMissSelector.setSelectedIndex(ALLOCATE);
+         writeMissSelector.setToolTipText("Whether a store that misses reads its block into the cache");
+         writeMissSelector.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     reset();
+                  }
+               });
+      
+         prefetcherSelector = new JComboBox(prefetcherChoices);
+         prefetcherSelector.setEditable(false);
+         prefetcherSelector.setBackground(backgroundColor);
+         prefetcherSelector.setSelectedIndex(NO_PREFETCH);
+         prefetcherSelector.setToolTipText("How blocks are read before they are accessed; a prefetch takes as long as a miss");
+         prefetcherSelector.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     reset();
+                  }
+               });
+      
+         victimCacheSelector = new JComboBox(victimCacheChoices);
+         victimCacheSelector.setEditable(false);
+         victimCacheSelector.setBackground(backgroundColor);
+         victimCacheSelector.setSelectedIndex(0);
+         victimCacheSelector.setToolTipText("Number of blocks of a fully associative cache holding the blocks most recently replaced");
+         victimCacheSelector.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     reset();
+                  }
+               });
       			      
          // ALL COMPONENTS FOR "CACHE ORGANIZATION" SECTION
          JPanel placementPolicyRow = getPanelWithBorderLayout();
@@ -402,6 +562,36 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          //organization.add(cachableAddressesRow);
          organization.add(cacheSetSizeRow);	
          organization.add(cacheTotalSizeRow);      
+         JPanel instructionCacheRow = getPanelWithBorderLayout();
+         instructionCacheRow.setBorder(emptyBorder);
+         instructionCacheRow.add(new JLabel("Instruction cache "), BorderLayout.WEST);
+         instructionCacheRow.add(instructionCacheSelector, BorderLayout.EAST);
+         organization.add(instructionCacheRow);
+         JPanel missPenaltyRow = getPanelWithBorderLayout();
+         missPenaltyRow.setBorder(emptyBorder);
+         missPenaltyRow.add(new JLabel("Miss penalty (cycles) "), BorderLayout.WEST);
+         missPenaltyRow.add(missPenaltySelector, BorderLayout.EAST);
+         organization.add(missPenaltyRow);
+         JPanel writePolicyRow = getPanelWithBorderLayout();
+         writePolicyRow.setBorder(emptyBorder);
+         writePolicyRow.add(new JLabel("Write policy "), BorderLayout.WEST);
+         writePolicyRow.add(writePolicySelector, BorderLayout.EAST);
+         organization.add(writePolicyRow);
+         JPanel writeMissRow = getPanelWithBorderLayout();
+         writeMissRow.setBorder(emptyBorder);
+         writeMissRow.add(new JLabel("On write miss "), BorderLayout.WEST);
+         writeMissRow.add(writeMissSelector, BorderLayout.EAST);
+         organization.add(writeMissRow);
+         JPanel prefetcherRow = getPanelWithBorderLayout();
+         prefetcherRow.setBorder(emptyBorder);
+         prefetcherRow.add(new JLabel("Prefetcher "), BorderLayout.WEST);
+         prefetcherRow.add(prefetcherSelector, BorderLayout.EAST);
+         organization.add(prefetcherRow);
+         JPanel victimCacheRow = getPanelWithBorderLayout();
+         victimCacheRow.setBorder(emptyBorder);
+         victimCacheRow.add(new JLabel("Victim cache (blocks) "), BorderLayout.WEST);
+         victimCacheRow.add(victimCacheSelector, BorderLayout.EAST);
+         organization.add(victimCacheRow);
          return organization;
       }
    	
@@ -452,15 +642,96 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          cacheHitRateDisplay.setFont(countFonts);
          cacheHitRateRow.add(cacheHitRateDisplay, BorderLayout.EAST); 
       
+         JPanel fetchCountRow = getPanelWithBorderLayout();
+         fetchCountRow.setBorder(emptyBorder);
+         fetchCountRow.add(new JLabel("Instruction Fetch Count "), BorderLayout.WEST);
+         fetchCountDisplay = new JTextField(10);
+         fetchCountDisplay.setHorizontalAlignment(JTextField.RIGHT);
+         fetchCountDisplay.setEditable(false);
+         fetchCountDisplay.setBackground(backgroundColor);
+         fetchCountDisplay.setFont(countFonts);
+         fetchCountRow.add(fetchCountDisplay, BorderLayout.EAST);
+      
+         JPanel fetchHitRateRow = getPanelWithBorderLayout();
+         fetchHitRateRow.setBorder(emptyBorder);
+         fetchHitRateRow.add(new JLabel("Fetch Hit Rate "), BorderLayout.WEST);
+         fetchHitRateDisplay = new JProgressBar(JProgressBar.HORIZONTAL, 0, 100);
+         fetchHitRateDisplay.setStringPainted(true);
+         fetchHitRateDisplay.setForeground(Color.BLUE);
+         fetchHitRateDisplay.setBackground(backgroundColor);
+         fetchHitRateDisplay.setFont(countFonts);
+         fetchHitRateRow.add(fetchHitRateDisplay, BorderLayout.EAST); 
+      
+         JPanel writeBackCountRow = getPanelWithBorderLayout();
+         writeBackCountRow.setBorder(emptyBorder);
+         writeBackCountRow.add(new JLabel("Write-back Count "), BorderLayout.WEST);
+         writeBackCountDisplay = new JTextField(10);
+         writeBackCountDisplay.setHorizontalAlignment(JTextField.RIGHT);
+         writeBackCountDisplay.setEditable(false);
+         writeBackCountDisplay.setBackground(backgroundColor);
+         writeBackCountDisplay.setFont(countFonts);
+         writeBackCountRow.add(writeBackCountDisplay, BorderLayout.EAST);
+      
+         JPanel memoryTrafficRow = getPanelWithBorderLayout();
+         memoryTrafficRow.setBorder(emptyBorder);
+         memoryTrafficRow.add(new JLabel("Memory Traffic (bytes) "), BorderLayout.WEST);
+         memoryTrafficDisplay = new JTextField(10);
+         memoryTrafficDisplay.setHorizontalAlignment(JTextField.RIGHT);
+         memoryTrafficDisplay.setEditable(false);
+         memoryTrafficDisplay.setBackground(backgroundColor);
+         memoryTrafficDisplay.setFont(countFonts);
+         memoryTrafficDisplay.setToolTipText("Bytes read / bytes written");
+         memoryTrafficRow.add(memoryTrafficDisplay, BorderLayout.EAST);
+      
+         JPanel prefetchRow = getPanelWithBorderLayout();
+         prefetchRow.setBorder(emptyBorder);
+         prefetchRow.add(new JLabel("Prefetches "), BorderLayout.WEST);
+         prefetchDisplay = new JTextField(10);
+         prefetchDisplay.setHorizontalAlignment(JTextField.RIGHT);
+         prefetchDisplay.setEditable(false);
+         prefetchDisplay.setBackground(backgroundColor);
+         prefetchDisplay.setFont(countFonts);
+         prefetchDisplay.setToolTipText("Useful / late / useless");
+         prefetchRow.add(prefetchDisplay, BorderLayout.EAST);
+      
+         JPanel missKindRow = getPanelWithBorderLayout();
+         missKindRow.setBorder(emptyBorder);
+         missKindRow.add(new JLabel("Miss Kinds "), BorderLayout.WEST);
+         missKindDisplay = new JTextField(10);
+         missKindDisplay.setHorizontalAlignment(JTextField.RIGHT);
+         missKindDisplay.setEditable(false);
+         missKindDisplay.setBackground(backgroundColor);
+         missKindDisplay.setFont(countFonts);
+         missKindDisplay.setToolTipText("Compulsory / capacity / conflict misses");
+         missKindRow.add(missKindDisplay, BorderLayout.EAST);
+      
+         JPanel victimHitCountRow = getPanelWithBorderLayout();
+         victimHitCountRow.setBorder(emptyBorder);
+         victimHitCountRow.add(new JLabel("Victim Cache Hits "), BorderLayout.WEST);
+         victimHitCountDisplay = new JTextField(10);
+         victimHitCountDisplay.setHorizontalAlignment(JTextField.RIGHT);
+         victimHitCountDisplay.setEditable(false);
+         victimHitCountDisplay.setBackground(backgroundColor);
+         victimHitCountDisplay.setFont(countFonts);
+         victimHitCountDisplay.setToolTipText("Misses found in the victim cache, counted as hits");
+         victimHitCountRow.add(victimHitCountDisplay, BorderLayout.EAST);
+      
          resetCounts();
          updateDisplay();
       
-         // Vertically align these 4 measures in a grid, then add to left column of main grid.
-         JPanel performanceMeasures = new JPanel(new GridLayout(4,1));
+         // Vertically align these 11 measures in a grid, then add to left column of main grid.
+         JPanel performanceMeasures = new JPanel(new GridLayout(11,1));
          performanceMeasures.add(memoryAccessCountRow);
          performanceMeasures.add(cacheHitCountRow);
          performanceMeasures.add(cacheMissCountRow);
          performanceMeasures.add(cacheHitRateRow);
+         performanceMeasures.add(fetchCountRow);
+         performanceMeasures.add(fetchHitRateRow);
+         performanceMeasures.add(writeBackCountRow);
+         performanceMeasures.add(memoryTrafficRow);
+         performanceMeasures.add(prefetchRow);
+         performanceMeasures.add(missKindRow);
+         performanceMeasures.add(victimHitCountRow);
          performance.add(performanceMeasures);
       	
       	// LET'S TRY SOME ANIMATION ON THE RIGHT SIDE...
@@ -519,22 +790,80 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       //////////////////////////////////////////////////////////////////////////////////////
    	
       /**
-   	 * Apply caching policies and update display when connected MIPS program accesses (data) memory.
-   	 * @param memory the attached memory
-   	 * @param accessNotice information provided by memory in MemoryAccessNotice object
+   	 * Update counts and display when connected MIPS program accesses (data) memory.  The simulator
+   	 * has already looked the address up, as a load or store, in the cache returned by getDataCache().
+   	 * The display is not updated at once, but at the next frame.
+   	 * @param addressAccessed the address of the access
    	 */
        public void processMIPSUpdate(int addressAccessed) {
          memoryAccessCount++;
-         CacheAccessResult cacheAccessResult = theCache.isItAHitThenReadOnMiss(addressAccessed);
-         if (cacheAccessResult.isHit()) {
+         trace.add(addressAccessed);
+         int outcome = theCache.wasVictimHit(Cache.DATA) ? Cache.HIT : theCache.getLastOutcome(Cache.DATA);
+         if (debug)
+            writeLog(describeAccess(addressAccessed));
+         if (outcome == Cache.HIT)
             cacheHitCount++;
-            animations.showHit(cacheAccessResult.getBlock());
-         } 
-         else {
+         else
             cacheMissCount++;
-            animations.showMiss(cacheAccessResult.getBlock());
-         }
+         int block = theCache.getLastBlock(Cache.DATA);
+         AtomicIntegerArray pending = pendingOutcomes;
+         if (outcome != Cache.MISS_NOT_ALLOCATED && block < pending.length())
+            pending.set(block, outcome + 1);
          cacheHitRate = cacheHitCount / (double)memoryAccessCount;
+         requestFrame();
+      }
+   	
+   	// Schedule the display to be brought up to date at the next frame, unless it already is.
+       private void requestFrame() {
+         if (frameTimer != null && framePending.compareAndSet(false, true))
+            frameTimer.restart();
+      }
+   	
+   	// Show every update collected since the last frame.  Runs on the event thread.
+       private void showPendingUpdates() {
+         framePending.set(false);
+         AtomicIntegerArray pending = pendingOutcomes;
+         for (int i=0; i<pending.length() && i<animations.getNumberOfBlocks(); i++) {
+            int outcome = pending.getAndSet(i, 0);
+            if (outcome == Cache.HIT + 1)
+               animations.showHit(i);
+            else if (outcome != 0)
+               animations.showMiss(i);
+         }
+         updateDisplay();
+         if (log.hasChanged()) {
+            logText.setText(log.toString());
+            logText.setCaretPosition(logText.getDocument().getLength());
+         }
+      }
+   	
+   	// Log of the blocks searched by the most recent access, and the block replaced if any.
+       private String describeAccess(int addressAccessed) {
+         StringBuilder log = new StringBuilder();
+         int first = theCache.getFirstBlockToSearch(addressAccessed);
+         int block = theCache.getLastBlock(Cache.DATA);
+         if (theCache.getLastOutcome(Cache.DATA) == Cache.MISS_NOT_ALLOCATED) {
+            log.append("   MISS on write -- not allocated, written to memory\n");
+         }
+         else if (theCache.getLastOutcome(Cache.DATA) == Cache.MISS_SET_FULL) {
+            for (int i=0; i<theCache.getSetSizeInBlocks(); i++)
+               log.append(" -- OCCUPIED\n");
+            log.append("   MISS due to FULL SET");
+            if (theCache.getSetSizeInBlocks() > 1) {
+               if (theCache.getReplacementPolicy() == Cache.LRU)
+                  log.append(" -- LRU replace block "+block+"; unused since ("+theCache.getLastReplacedAccessTime(Cache.DATA)+")\n");
+               else
+                  log.append(" -- "+Cache.REPLACEMENT_POLICY_NAMES[theCache.getReplacementPolicy()]+" replace block "+block+"\n");
+            }
+         }
+         else {
+            for (int i=first; i<block; i++)
+               log.append(" -- OCCUPIED\n");
+            log.append((theCache.getLastOutcome(Cache.DATA) == Cache.HIT) ? " -- HIT\n" : " -- MISS\n");
+         }
+         if (theCache.wasVictimHit(Cache.DATA))
+            log.append("   found in victim cache -- HIT\n");
+         return log.toString();
       }
    	
    
@@ -571,7 +900,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
    	
        protected void initializePostGUI() {
-         theCache = createNewCache();
+         createNewCaches();
+         frameTimer = new Timer(FRAME_MILLISECONDS,
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     showPendingUpdates();
+                  }
+               });
+         frameTimer.setRepeats(false);
       }
    	
    	
@@ -580,7 +916,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  Overrides inherited method that does nothing.
    	 */
        protected void reset() {
-         theCache = createNewCache();
+         createNewCaches();
          resetCounts();
          updateDisplay();
          animations.reset();
@@ -597,6 +933,94 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          updateCacheHitCountDisplay();
          updateCacheMissCountDisplay();
          updateCacheHitRateDisplay();
+         updateFetchDisplay();
+         updateWriteDisplay();
+         updatePrefetchDisplay();
+         updateMissKindDisplay();
+      }
+   	
+   	/**
+   	 *  Updates the counts shown after a cycle of the connected MIPS program, at the next frame.
+   	 *  It may be called from any thread, as often as every cycle.
+   	 */
+       public void refreshDisplay() {
+         requestFrame();
+      }
+   	
+   	/**
+   	 *  @return the cache the simulator should look up data accesses in
+   	 */
+       public Cache getDataCache() {
+         return theCache;
+      }
+   	
+   	/**
+   	 *  @return the number of cycles the simulator should stall for on each data cache miss
+   	 */
+       public int getMissPenalty() {
+         return Integer.parseInt((String) missPenaltySelector.getSelectedItem());
+      }
+   	
+   	/**
+   	 *  @return the prefetcher the simulator should look up data accesses through, according to the
+   	 *  "Prefetcher" selection, or null for none.  It prefetches into the cache returned by getDataCache(),
+   	 *  taking as long as the miss penalty.
+   	 */
+       public Prefetcher getPrefetcher() {
+         int kind = prefetcherSelector.getSelectedIndex();
+         if (kind == NO_PREFETCH)
+            return null;
+         if (prefetcher == null || prefetcher.getCache() != theCache || prefetcher.getLatency() != getMissPenalty()
+                  || kind != prefetcherKind(prefetcher)) {
+            switch (kind) {
+               case NEXT_LINE : prefetcher = new NextLinePrefetcher(theCache, getMissPenalty());
+                  break;
+               case STRIDE    : prefetcher = new StridePrefetcher(theCache, getMissPenalty(), STRIDE_TABLE_ENTRIES);
+                  break;
+               case STREAM_BUFFER :
+               default        : prefetcher = new StreamBufferPrefetcher(theCache, getMissPenalty(), STREAM_BUFFER_DEPTH);
+            }
+         }
+         return prefetcher;
+      }
+   	
+   	/**
+   	 *  @return the profile the simulator should count the hits and misses of each load and store in
+   	 */
+       public MissProfile getMissProfile() {
+         return missProfile;
+      }
+   	
+   	/**
+   	 *  @return the analysis the simulator should give the address and cycle of each load and store to,
+   	 *  counting by blocks of the selected block size
+   	 */
+       public LocalityAnalysis getLocalityAnalysis() {
+         int blockSize = cacheBlockSizeChoicesInt[cacheBlockSizeSelector.getSelectedIndex()];
+         if (localityAnalysis == null || localityAnalysis.getBlockSizeInWords() != blockSize)
+            localityAnalysis = new LocalityAnalysis(blockSize, LOCALITY_WINDOW_CYCLES);
+         return localityAnalysis;
+      }
+   	
+       private int prefetcherKind(Prefetcher p) {
+         if (p instanceof NextLinePrefetcher)
+            return NEXT_LINE;
+         if (p instanceof StridePrefetcher)
+            return STRIDE;
+         return STREAM_BUFFER;
+      }
+   	
+   	/**
+   	 *  @return the cache the simulator should look up instruction fetches in, according to the
+   	 *  "Instruction cache" selection, or null if fetches are not cached.
+   	 */
+       public Cache getInstructionCache() {
+         switch (instructionCacheSelector.getSelectedIndex()) {
+            case SPLIT   : return separateInstructionCache;
+            case UNIFIED : return theCache;
+            case NO_ICACHE :
+            default      : return null;
+         }
       }
    
    	
@@ -635,19 +1059,46 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             		  )));
       }
    	
-   	// create and return a new cache object based on current specs
-       private AbstractCache createNewCache() {
-         AbstractCache theNewCache = null;
+   	// create the data cache and the separate instruction cache based on current specs, or empty
+   	// the existing ones in place if their organization has not changed
+       private void createNewCaches() {
+         theCache = createNewCache(theCache);
+         separateInstructionCache = createNewCache(separateInstructionCache);
+         if (prefetcher != null && prefetcher.getCache() == theCache)
+            prefetcher.reset();
+         if (pendingOutcomes.length() == theCache.getNumberOfBlocks()) {
+            for (int i=0; i<pendingOutcomes.length(); i++)
+               pendingOutcomes.set(i, 0);
+         }
+         else
+            pendingOutcomes = new AtomicIntegerArray(theCache.getNumberOfBlocks());
+      }
+   	
+   	// return a cache based on current specs: the old one reset, if it has the same organization,
+   	// so that resetting does not allocate, or else a new one
+       private Cache createNewCache(Cache oldCache) {
+         Cache theNewCache = null;
          int setSize = 1;
          try {
             setSize = Integer.parseInt((String)cacheSetSizeSelector.getSelectedItem());
          } 
              catch (NumberFormatException nfe) { // if this happens its my fault!
             }
-         theNewCache = new AnyCache(
-                       cacheBlockCountChoicesInt[cacheBlockCountSelector.getSelectedIndex()],
-            			  cacheBlockSizeChoicesInt[cacheBlockSizeSelector.getSelectedIndex()],
-            			  setSize);				  
+         int numberOfBlocks = cacheBlockCountChoicesInt[cacheBlockCountSelector.getSelectedIndex()];
+         int blockSize = cacheBlockSizeChoicesInt[cacheBlockSizeSelector.getSelectedIndex()];
+         if (oldCache != null && oldCache.getNumberOfBlocks() == numberOfBlocks
+                  && oldCache.getBlockSizeInWords() == blockSize && oldCache.getSetSizeInBlocks() == setSize) {
+            theNewCache = oldCache;
+            theNewCache.reset();
+         }
+         else
+            theNewCache = new Cache(numberOfBlocks, blockSize, setSize, randu);
+         theNewCache.setReplacementPolicy(cacheReplacementSelector.getSelectedIndex());
+         theNewCache.setWritePolicy(writePolicySelector.getSelectedIndex());
+         theNewCache.setWriteAllocate(writeMissSelector.getSelectedIndex() == ALLOCATE);
+         int victimCacheIndex = victimCacheSelector.getSelectedIndex();
+         theNewCache.setVictimCacheSize((victimCacheIndex == 0) ? 0 : Integer.parseInt(victimCacheChoices[victimCacheIndex]));
+         theNewCache.setMissClassification(true);
          return theNewCache;
       }
    	
@@ -656,6 +1107,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          cacheHitCount = 0;
          cacheMissCount = 0;
          cacheHitRate = 0.0;
+         trace.clear();
+         missProfile.reset();
+         if (localityAnalysis != null)
+            localityAnalysis.reset();
       }
    	
    
@@ -675,6 +1130,53 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          cacheHitRateDisplay.setValue((int) Math.round(cacheHitRate*100));
       }
    	
+       private void updateFetchDisplay() {
+         Cache instructionCache = (theCache == null) ? null : getInstructionCache();
+         if (instructionCache == null) {
+            fetchCountDisplay.setText("N/A");
+            fetchHitRateDisplay.setValue(0);
+         }
+         else {
+            fetchCountDisplay.setText(Integer.toString(instructionCache.getAccessCount(Cache.INSTRUCTION)));
+            fetchHitRateDisplay.setValue((int) Math.round(instructionCache.getHitRate(Cache.INSTRUCTION)*100));
+         }
+      }
+   	
+   	// Write-backs and memory traffic of the data cache (and the instruction cache, if separate).
+       private void updateWriteDisplay() {
+         if (theCache == null) {
+            writeBackCountDisplay.setText("0");
+            memoryTrafficDisplay.setText("0 / 0");
+            return;
+         }
+         long bytesRead = theCache.getBytesRead();
+         if (getInstructionCache() == separateInstructionCache)
+            bytesRead += separateInstructionCache.getBytesRead();
+         writeBackCountDisplay.setText(Integer.toString(theCache.getWriteBackCount()));
+         memoryTrafficDisplay.setText(bytesRead + " / " + theCache.getBytesWritten());
+      }
+   	
+       private void updatePrefetchDisplay() {
+         if (prefetcher == null || prefetcherSelector.getSelectedIndex() == NO_PREFETCH || prefetcher.getCache() != theCache)
+            prefetchDisplay.setText("N/A");
+         else
+            prefetchDisplay.setText(prefetcher.getUsefulCount() + " / " + prefetcher.getLateCount() + " / " + prefetcher.getUselessCount());
+      }
+   	
+   	// Misses of the data cache by kind, and those the victim cache turned into hits.
+       private void updateMissKindDisplay() {
+         MissClassifier classifier = (theCache == null) ? null : theCache.getMissClassifier();
+         if (classifier == null)
+            missKindDisplay.setText("0 / 0 / 0");
+         else
+            missKindDisplay.setText(classifier.getMissCount(MissClassifier.COMPULSORY) + " / "
+                     + classifier.getMissCount(MissClassifier.CAPACITY) + " / " + classifier.getMissCount(MissClassifier.CONFLICT));
+         if (theCache == null || theCache.getVictimCacheSize() == 0)
+            victimHitCountDisplay.setText("N/A");
+         else
+            victimHitCountDisplay.setText(Integer.toString(theCache.getVictimHitCount()));
+      }
+   	
        private void updateCacheSizeDisplay() {
          int cacheSize = cacheBlockSizeChoicesInt[cacheBlockSizeSelector.getSelectedIndex()] *
                      cacheBlockCountChoicesInt[cacheBlockCountSelector.getSelectedIndex()] *
@@ -682,264 +1184,137 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          cacheSizeDisplay.setText(Integer.toString(cacheSize));
       }
    	
+   	// Replay the accesses so far against every organization in the combo boxes and show the hit rates.
+   	// LRU is solved in one pass; other policies are simulated for each organization in parallel.
+       private void showComparison() {
+         CacheSweep sweep;
+         int policy = cacheReplacementSelector.getSelectedIndex();
+         if (policy == LRU) {
+            if (lruSweep == null)
+               lruSweep = new StackDistanceSweep(cacheBlockSizeChoicesInt, cacheBlockCountChoicesInt);
+            lruSweep.reset();
+            lruSweep.access(trace);
+            sweep = lruSweep;
+         }
+         else {
+            if (parallelSweeps[policy] == null)
+               parallelSweeps[policy] = new ParallelCacheSweep(cacheBlockSizeChoicesInt, cacheBlockCountChoicesInt, policy, 0);
+            parallelSweeps[policy].run(trace);
+            sweep = parallelSweeps[policy];
+         }
+         JTextArea report = new JTextArea(sweep.getReport(), 30, 100);
+         report.setEditable(false);
+         report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+         report.setCaretPosition(0);
+         JDialog comparison = new JDialog(dialog, "Cache Organization Comparison", false);
+         comparison.add(new JScrollPane(report));
+         comparison.pack();
+         comparison.setLocationRelativeTo(dialog);
+         comparison.setVisible(true);
+      }
+   	
+   	// Show the loads and stores that missed most, to find the data layouts worth changing.
+       private void showMissProfile() {
+         JTextArea report = new JTextArea(missProfile.getReport(MISS_REPORT_LENGTH), 30, 60);
+         report.setEditable(false);
+         report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+         report.setCaretPosition(0);
+         JDialog misses = new JDialog(dialog, "Data Cache Misses by Instruction", false);
+         misses.add(new JScrollPane(report));
+         misses.pack();
+         misses.setLocationRelativeTo(dialog);
+         misses.setVisible(true);
+      }
+   	
+   	// Show the reuse distance and working set histograms as CSV, which may be saved to a file.
+       private void showLocality() {
+         final String csv = getLocalityAnalysis().getCSV();
+         JTextArea report = new JTextArea(csv, 30, 80);
+         report.setEditable(false);
+         report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+         report.setCaretPosition(0);
+         final JDialog locality = new JDialog(dialog, "Reuse Distances and Working Sets", false);
+         JButton saveButton = new JButton("Save CSV...");
+         saveButton.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     JFileChooser chooser = new JFileChooser();
+                     if (chooser.showSaveDialog(locality) != JFileChooser.APPROVE_OPTION)
+                        return;
+                     try {
+                        Files.write(chooser.getSelectedFile().toPath(), csv.getBytes("UTF-8"));
+                     } 
+                         catch (IOException ioe) {
+                           JOptionPane.showMessageDialog(locality, "An error occurred while writing the specified file.",
+                              "Error", JOptionPane.ERROR_MESSAGE);
+                        }
+                  }
+               });
+         locality.add(new JScrollPane(report), BorderLayout.CENTER);
+         locality.add(saveButton, BorderLayout.SOUTH);
+         locality.pack();
+         locality.setLocationRelativeTo(dialog);
+         locality.setVisible(true);
+      }
+   	
        private JPanel getPanelWithBorderLayout() {
          return new JPanel(new BorderLayout(2,2));
       }
       
        private void resetLogDisplay() {
+         log.clear();
          logText.setText("");
       }
    	
+   	// The log is shown at the next frame.
        private void writeLog(String text) {
-         logText.append(text);
-         logText.setCaretPosition(logText.getDocument().getLength());
+         log.add(text);
       }
    	
-   
-      //////////////////////////////////////////////////////////////////////////////////////
-      //  Specialized inner classes for cache modeling and animation.
-      //////////////////////////////////////////////////////////////////////////////////////
-   	
-    	/////////////////////////////////////////////////////////////////////////
-   	// Represents a block in the cache.  Since we are only simulating
-   	// cache performance, there's no need to actually store memory contents.
-       private class CacheBlock {
-         private boolean valid;
-         private int tag;
-         private int sizeInWords;
-         private int mostRecentAccessTime;
-          public CacheBlock(int sizeInWords) {
-            this.valid = false;
-            this.tag = 0;
-            this.sizeInWords = sizeInWords;
-            this.mostRecentAccessTime = -1;
-         }
-      }
-   
-    	/////////////////////////////////////////////////////////////////////////
-   	// Represents the outcome of a cache access.  There are two parts:
-   	// whether it was a hit or not, and in which block is the value stored.
-   	// In the case of a hit, the block associated with address.  In the case of
-   	// a miss, the block where new association is made.	DPS 23-Dec-2010
-       private class CacheAccessResult {
-         private boolean hitOrMiss;
-         private int blockNumber;
-          public CacheAccessResult(boolean hitOrMiss, int blockNumber) {
-            this.hitOrMiss = hitOrMiss;
-            this.blockNumber = blockNumber;
-         }
-          public boolean isHit() {
-            return hitOrMiss;
-         }
-          public int getBlock() {
-            return blockNumber;
-         }
-      }
-   		
-   	//////////////////////////////////////////////////////////////////////
-   	// Abstract Cache class.  Subclasses will implement specific policies.
-       private abstract class AbstractCache {
-         private int numberOfBlocks, blockSizeInWords, setSizeInBlocks, numberOfSets;
-         protected CacheBlock[] blocks;
-      	
-          protected AbstractCache(int numberOfBlocks, int blockSizeInWords, int setSizeInBlocks) {
-            this.numberOfBlocks = numberOfBlocks;
-            this.blockSizeInWords = blockSizeInWords;
-            this.setSizeInBlocks = setSizeInBlocks;
-            this.numberOfSets = numberOfBlocks/setSizeInBlocks;
-            this.blocks = new CacheBlock[numberOfBlocks];
-            this.reset();
-         }
-      	
-          public int getNumberOfBlocks() {
-            return this.numberOfBlocks;
-         }
-      	
-          public int getNumberOfSets() {
-            return this.numberOfSets;
-         }
-      		
-          public int getSetSizeInBlocks() {
-            return this.setSizeInBlocks;
-         }
-      	
-          public int getBlockSizeInWords() {
-            return this.blockSizeInWords;
-         }
-      		
-          public int getCacheSizeInWords() {
-            return this.numberOfBlocks * this.blockSizeInWords;
-         }
-      		
-          public int getCacheSizeInBytes() {
-            return this.numberOfBlocks * this.blockSizeInWords * 4;
+   	//////////////////////////////////////////////////////////////
+   	//  The most recent entries of the log, overwriting the oldest once full, so the
+   	//  log takes the same space however long the program runs.  Entries are added by
+   	//  one thread and read by the event thread without locking.
+   	//
+       private static class LogRing {
+         private final String[] entries;
+         private final AtomicLong count = new AtomicLong(0);
+         private long countShown = 0;
+      
+          public LogRing(int capacity) {
+            entries = new String[capacity];
          }
-
       
-        // This will work regardless of placement. 
-        // For direct map, #sets==#blocks
-        // For full assoc, #sets==1 so anything % #sets == 0
-        // For n-way assoc, it extracts the set bits in address.
-          public int getSetNumber(int address) {
-            return address / 4/ this.blockSizeInWords % this.numberOfSets;
+          public void add(String entry) {
+            long n = count.get();
+            entries[(int) (n % entries.length)] = entry;
+            count.lazySet(n + 1);
          }
-      	
-      	 // This will work regardless of placement policy (direct map, n-way or full assoc)
-          public int getTag(int address) {
-            return address / 4 / this.blockSizeInWords / this.numberOfSets;
+      
+          public void clear() {
+            count.set(0);
+            countShown = 0;
          }
-      	
-      	 // This will work regardless of placement policy (direct map, n-way or full assoc)
-      	 // Returns absolute block offset into the cache.
-          public int getFirstBlockToSearch(int address) {
-            return this.getSetNumber(address) * this.setSizeInBlocks;
+      
+      	 // Whether entries have been added since toString() was last called.
+          public boolean hasChanged() {
+            return count.get() != countShown;
          }
-      	
-          // This will work regardless of placement policy (direct map, n-way or full assoc)
-      	 // Returns absolute block offset into the cache.
-          public int getLastBlockToSearch(int address) {
-            return this.getFirstBlockToSearch(address) + this.setSizeInBlocks - 1;
-         }	
-      	
-      	/* Reset the cache contents. */
-          public void reset() {
-            for (int i=0; i<numberOfBlocks; i++) {
-               this.blocks[i] = new CacheBlock(blockSizeInWords);
-            }
-            System.gc(); // scoop 'em up now
+      
+          public String toString() {
+            long n = count.get();
+            StringBuilder text = new StringBuilder();
+            for (long i = Math.max(0, n - entries.length); i < n; i++)
+               text.append(entries[(int) (i % entries.length)]);
+            countShown = n;
+            return text.toString();
          }
-      	
-      	// Subclass must implement this according to its policies
-          public abstract CacheAccessResult isItAHitThenReadOnMiss(int address);
       }
-   	   	
    	
-     	//////////////////////////////////////////////////////////////////////////////
-   	// Implements any of the well-known cache organizations.  Physical memory
-   	// address is partitioned depending on organization:
-   	//    Direct Mapping:    [ tag | block | word | byte ]
-   	//    Fully Associative: [ tag | word | byte ]
-   	//    Set Associative:   [ tag | set | word | byte ]
-   	//
-   	// Bit lengths of each part are determined as follows:
-   	// Direct Mapping:
-   	//   byte  = log2 of #bytes in a word (typically 4)
-   	//   word  = log2 of #words in a block
-   	//   block = log2 of #blocks in the cache
-   	//   tag   = #bytes in address - (byte+word+block)
-   	// Fully Associative:
-   	//   byte  = log2 of #bytes in a word (typically 4)
-   	//   word  = log2 of #words in a block
-   	//   tag   = #bytes in address - (byte+word)
-   	// Set Associative:
-   	//   byte  = log2 of #bytes in a word (typically 4)
-   	//   word  = log2 of #words in a block
-   	//   set   = log2 of #sets in the cache
-   	//   tag   = #bytes in address - (byte+word+set)
-   	//
-   	// Direct Mapping (1 way set associative):
-   	// The block value for a given address identifies its block index into the cache.
-   	// That's why its called "direct mapped."  This is the only cache block it can
-   	// occupy.  If that cache block is empty or if it is occupied by a different tag,
-   	// this is a MISS.  If that cache block is occupied by the same tag, this is a HIT.
-   	// There is no replacement policy: upon a cache miss of an occupied block, the old
-   	// block is written out (unless write-through) and the new one read in.
-   	// Those actions are not simulated here.
-   	//
-   	// Fully Associative:
-   	// There is one set, and very tag has to be searched before determining hit or miss.
-   	// If tag is matched, it is a hit.  If tag is not matched and there is at least one
-   	// empty block, it is a miss and the new tag will occupy it.  If tag is not matched
-   	// and every block is occupied, it is a miss and one of the occupied blocks will be
-   	// selected for removal and the new tag will replace it.
-   	//
-   	// n-way Set Associative:
-   	// Each set consists of n blocks, and the number of sets in the cache is total number
-   	// of blocks divided by n.  The set bits in the address will identify which set to
-   	// search, and every tag in that set has to be searched before determining hit or miss.
-   	// If tag is matched, it is a hit.  If tag is not matched and there is at least one
-   	// empty block, it is a miss and the new tag will occupy it.  If tag is not matched
-   	// and every block is occupied, it is a miss and one of the occupied blocks will be
-   	// selected for removal and the new tag will replace it.
-   	//
-       private class AnyCache extends AbstractCache {
-          public AnyCache(int numberOfBlocks, int blockSizeInWords, int setSizeInBlocks) {
-            super(numberOfBlocks, blockSizeInWords, setSizeInBlocks);
-         }
-      	
-         private final int SET_FULL=0, HIT=1, MISS=2;
-      	
-      	// This method works for any of the placement policies: 
-      	// direct mapped, full associative or n-way set associative.
-          public CacheAccessResult isItAHitThenReadOnMiss(int address) {
-            int result = SET_FULL;
-            int firstBlock = getFirstBlockToSearch(address);
-            int lastBlock  = getLastBlockToSearch(address);
-            CacheBlock block;
-            int blockNumber = 0;
-         	// Will do a sequential instead of associative search!
-            for (blockNumber = firstBlock; blockNumber <= lastBlock; blockNumber++) {
-               block = blocks[blockNumber];
-               if (block.valid && block.tag==getTag(address)) {//  it's a hit!
-                  if (debug) //System.out.print
-                     writeLog(" -- HIT\n");
-                  result = HIT;
-                  block.mostRecentAccessTime = memoryAccessCount;
-                  break;
-               }
-               if (!block.valid) {// it's a miss but I got it now because it is empty!
-                  if (debug) //System.out.print
-                     writeLog(" -- MISS\n");
-                  result = MISS;
-                  block.valid = true;
-                  block.tag = getTag(address);
-                  block.mostRecentAccessTime = memoryAccessCount;
-                  break;
-               }
-               if (debug) //System.out.print
-                  writeLog(" -- OCCUPIED\n");
-            }
-            if (result == SET_FULL) {
-              //select one to replace and replace it...
-               if (debug) //System.out.print
-                  writeLog("   MISS due to FULL SET");
-               int blockToReplace = selectBlockToReplace(firstBlock,lastBlock);
-               block = blocks[blockToReplace];
-               block.tag = getTag(address);
-               block.mostRecentAccessTime = memoryAccessCount;
-               blockNumber = blockToReplace;
-            }
-            return new CacheAccessResult(result==HIT, blockNumber);
-         }      
-      	
-      	 // call this if all blocks in the set are full.  If the set contains more than one block,
-      	 // It will pick on to replace based on selected replacement policy.
-          private int selectBlockToReplace(int first, int last) {
-            int replaceBlock = first;
-            if (first!=last) { 
-               switch (cacheReplacementSelector.getSelectedIndex()) {
-                  case RANDOM : 
-                     replaceBlock = first + randu.nextInt(last-first+1);
-                     if (debug) //System.out.print
-                        writeLog(" -- Random replace block "+replaceBlock+"\n");
-                     break;
-                  case LRU :
-                  default :
-                     int leastRecentAccessTime = memoryAccessCount; // all of them have to be less than this
-                     for (int block = first; block <= last; block++) {
-                        if (blocks[block].mostRecentAccessTime < leastRecentAccessTime) {
-                           leastRecentAccessTime = blocks[block].mostRecentAccessTime;
-                           replaceBlock = block;
-                        }
-                     }
-                     if (debug) //System.out.print
-                        writeLog(" -- LRU replace block "+replaceBlock+"; unused since ("+leastRecentAccessTime+")\n");
-                     break;
-               }
-            }
-            return replaceBlock;
-         }
-      }
+   
+      //////////////////////////////////////////////////////////////////////////////////////
+      //  Specialized inner class for animation.
+      //////////////////////////////////////////////////////////////////////////////////////
    	
    	//////////////////////////////////////////////////////////////
    	//  Class to display animated cache